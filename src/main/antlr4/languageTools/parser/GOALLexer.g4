@@ -22,10 +22,6 @@
 lexer grammar GOALLexer;
 
 
-@members {
-	boolean stayInDefault = false;
-}
-
 tokens{ HIDDEN }
 
 // Modules
@@ -66,30 +62,30 @@ DEFINE			: '#define';
 IF				: 'if';
 THEN			: 'then';
 FORALL			: 'forall';
-DO				: 'do'			{ stayInDefault = false; };
+DO				: 'do';
 LISTALL			: 'listall'		-> pushMode(VAR_PARAMETERS);
 LTRARROW		: '->';
 RTLARROW		: '<-';
 
 // Mental state operators
-BELIEF_OP		: 'bel'			{ stayInDefault = false; };
-GOAL_OP			: 'goal'		{ stayInDefault = false; }; // GOAL_OP because we cannot have same token as parser grammar name.
-AGOAL_OP		: 'a-goal'		{ stayInDefault = false; };
-GOALA_OP		: 'goal-a'		{ stayInDefault = false; };
-NOT				: 'not'			{ stayInDefault = true; };
+BELIEF_OP		: 'bel';
+GOAL_OP			: 'goal'; // GOAL_OP because we cannot have same token as parser grammar name.
+AGOAL_OP		: 'a-goal';
+GOALA_OP		: 'goal-a';
+NOT				: 'not'			-> pushMode(NO_PARLIST);
 TRUE			: 'true';
 
 // Built-in actions
-ADOPT			: 'adopt'		{ stayInDefault = false; };
-DROP			: 'drop'		{ stayInDefault = false; };
-INSERT			: 'insert'		{ stayInDefault = false; };
-DELETE			: 'delete'		{ stayInDefault = false; };
-LOG				: 'log'			{ stayInDefault = false; };
+ADOPT			: 'adopt';
+DROP			: 'drop';
+INSERT			: 'insert';
+DELETE			: 'delete';
+LOG				: 'log';
 //add parameterized actions here as above
-CALCULATE       : 'calculate'   { stayInDefault = false; };
-PRINT			: 'print'		{ stayInDefault = false; };
-SENDONCE		: 'sendonce'	{ stayInDefault = false; };
-SEND			: 'send'		{ stayInDefault = false; };
+CALCULATE       : 'calculate';
+PRINT			: 'print';
+SENDONCE		: 'sendonce';
+SEND			: 'send';
 
 // Selector expressions
 ALL				: 'all';
@@ -119,7 +115,7 @@ EVENTUALLY		: 'eventually';
 UNTIL		    : 'until';
 WHILE			: 'while';
 WATCH			: 'watch';
-REACTTO			: 'reactTo'		{ stayInDefault = true; }; 
+REACTTO			: 'reactTo'		-> pushMode(NO_PARLIST);
 
 StringLiteral
 	: '"' ('\\"' | ~[\r\n"])* '"'
@@ -141,6 +137,12 @@ MINUS	: '-';
 PLUS	: '+';
 DOT		: '.';
 COMMA	: ',';
+// Parameter list of KR terms (anything between brackets, except for bracket following 'not' operator;
+// see the NO_PARLIST mode below). Only the opening bracket is matched here; the BracketScanner consumes
+// the remainder up to the matching closing bracket, or changes the token into an LBR if there is none.
+// PARLIST precedes LBR so that it wins from LBR on a single bracket; it matches a set instead of a literal so
+// that the literal '(' used in the parser grammars still refers to LBR.
+PARLIST	: [(] { BracketScanner.scanParameterList(this); };
 LBR		: '(';
 RBR		: ')';
 CLBR	: '{';
@@ -161,11 +163,6 @@ fragment DIGIT	: [0-9];
 FLOAT	: (PLUS | MINUS)? (DIGIT+ (DOT DIGIT+)?) | (DOT DIGIT+)
 		;
 
-// Parameter list of KR terms (anything between brackets, except for bracket following 'not' operator)
-PARLIST
-  :  { stayInDefault == false }? '(' (  ~('(' | ')') | PARLIST )* ')'
-  ;
-
 // Comments
 LINE_COMMENT	: '%' ~[\r\n]* '\r'? '\n'	-> channel(HIDDEN);
 BLOCK_COMMENT	: '/*' .*? '*/'				-> channel(HIDDEN);
@@ -174,8 +171,9 @@ WS				: [ \t\f\r\n]+				-> channel(HIDDEN);
 
 // Knowledge representation code
 mode KRBLOCK;
+// Only the opening bracket is matched here; the BracketScanner consumes the remainder of the block.
 KR_BLOCK
-  : '{' (  ~('{' | '}') | KR_BLOCK )* '}' -> popMode
+  : '{' { BracketScanner.scanKRBlock(this); } -> popMode
   ;
 KR_BLOCK_WS
   : WS -> type(WS), channel(HIDDEN)
@@ -194,4 +192,14 @@ VAR_PARAMETERS_WS 		: WS -> type(WS), channel(HIDDEN);
 // getting errors that say the rest of the input cannot be tokenized.
 ERROR					: . -> popMode;
 
-fragment PUNCTUATION: [=-+.:?!''~*$%#@^&_\\/];
\ No newline at end of file
+fragment PUNCTUATION: [=-+.:?!''~*$%#@^&_\\/];
+
+// Lexer mode for the bracket that follows the 'not' and 'reactTo' operators, which opens a (test) mental
+// state condition instead of a parameter list.
+mode NO_PARLIST;
+NO_PARLIST_LBR				: LBR -> type(LBR), popMode;
+NO_PARLIST_LINE_COMMENT		: LINE_COMMENT -> type(LINE_COMMENT), channel(HIDDEN);
+NO_PARLIST_BLOCK_COMMENT	: BLOCK_COMMENT -> type(BLOCK_COMMENT), channel(HIDDEN);
+NO_PARLIST_WS				: WS -> type(WS), channel(HIDDEN);
+// The operators should be followed by a bracket; leave this mode again if they are not.
+NO_PARLIST_ERROR			: . -> type(ERROR), popMode;
@@ -20,15 +20,34 @@ package languageTools;
 import goalhub.krTools.KRFactory;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.FragmentCache;
+import languageTools.analyzer.IncrementalValidator;
+import languageTools.analyzer.ProjectWatcher;
+import languageTools.analyzer.ValidationServer;
 import languageTools.analyzer.Validator;
 import languageTools.analyzer.agent.AgentValidator;
 import languageTools.analyzer.mas.MASValidator;
+import languageTools.analyzer.mas.ProjectValidator;
+import languageTools.analyzer.module.ModuleCache;
 import languageTools.analyzer.module.ModuleValidator;
 import languageTools.analyzer.test.TestValidator;
+import languageTools.parser.DFACache;
+import languageTools.parser.DecisionProfile;
 import languageTools.utils.Extension;
 
 import org.apache.commons.cli.CommandLine;
@@ -48,6 +67,14 @@ import org.apache.commons.cli.PosixParser;
  *  -goal				Analyze GOAL agent files
  *  -module				Analyze module files
  *  -r,--recursive		Recursively search directories
+ *  -dfacache <file>	Load and store DFAs built by the parsers
+ *  -stream				Build agent programs while parsing
+ *  -profile <file>		Profile the decisions made by the parsers
+ *  -threads <N>		Analyze files concurrently on N threads
+ *  -project			Analyze MAS files with their agent and module files
+ *  -watch				Keep analyzing files affected by changes
+ *  -daemon <port>		Serve validation requests of clients on port
+ *  -stats				Print the statistics of the caches used
  * }
  * </pre>
  */
@@ -68,6 +95,15 @@ public class Analyzer {
 
 	private static final String OPTION_LICENSE = "license";
 
+	private static final String OPTION_DFA_CACHE = "dfacache";
+	private static final String OPTION_STREAM = "stream";
+	private static final String OPTION_PROFILE = "profile";
+	private static final String OPTION_THREADS = "threads";
+	private static final String OPTION_PROJECT = "project";
+	private static final String OPTION_WATCH = "watch";
+	private static final String OPTION_DAEMON = "daemon";
+	private static final String OPTION_STATS = "stats";
+
 	private static final Options options = createOptions();
 
 	// Print token output generated by lexer?
@@ -82,6 +118,26 @@ public class Analyzer {
 	private static boolean moduleFile;
 	// Recursively search directories?
 	private static boolean recursive;
+	// File used for storing the DFAs built by the parsers, if any
+	private static File dfaCache;
+	// Build programs while parsing, without keeping parse trees in memory?
+	private static boolean stream;
+	// File the profile of the decisions made by the parsers is written to, if
+	// any
+	private static File profileFile;
+	// Number of threads used to analyze files
+	private static int threads = 1;
+	// Analyze MAS files together with the agent files they refer to?
+	private static boolean project;
+	// Keep watching the files for changes?
+	private static boolean watch;
+	// Port to serve validation requests on, or -1 if no server should be
+	// started
+	private static int daemonPort = -1;
+	// Print the statistics of the caches used?
+	private static boolean stats;
+	// Module files imported by the agents analyzed in this run
+	private static final ModuleCache moduleCache = new ModuleCache();
 
 	/**
 	 *
@@ -103,6 +159,24 @@ public class Analyzer {
 			return;
 		}
 
+		// Initialize parsers with DFAs built by an earlier run
+		if (dfaCache != null && dfaCache.exists()) {
+			try {
+				DFACache.load(dfaCache);
+			} catch (IOException e) {
+				// TODO: use logger.
+				System.out.println(e.getMessage());
+			}
+		}
+
+		final DecisionProfile profile = profileFile == null ? null
+				: new DecisionProfile();
+
+		if (daemonPort >= 0) {
+			serve();
+			return;
+		}
+
 		// Get all files that should be analyzed
 		List<File> files = new ArrayList<File>();
 		if (file.isDirectory()) {
@@ -113,73 +187,246 @@ public class Analyzer {
 			files.add(file);
 		}
 
-		// Process files found
-		for (File filefound : files) {
-			System.out.println("Processing file: " + filefound.getPath()
-					+ ".\n");
-			Validator<?, ?, ?, ?> validator = null;
-			switch (Extension.getFileExtension(filefound)) {
-			case GOAL:
-				validator = new AgentValidator(filefound.getPath());
-				// TODO we need to set a KR interface; use default (only one)
-				// right now. Best we can do now
-				// is to ask user to set it.
-				try {
-					((AgentValidator) validator).setKRInterface(KRFactory
-							.getDefaultInterface());
-				} catch (KRInitFailedException e) {
-					// TODO: use logger.
-					System.out.println(e.getMessage());
+		if (watch) {
+			watch(file, files);
+			return;
+		}
+
+		// Process files found, concurrently if requested; reports are printed
+		// in the order in which the files were found. The agent files of a
+		// project are only validated concurrently if there are no other files
+		// to analyze, so that no more than the requested number of threads is
+		// used.
+		List<Analysis> analyses = new ArrayList<Analysis>(files.size());
+		if (threads <= 1 || files.size() <= 1) {
+			for (File filefound : files) {
+				Analysis analysis = analyze(filefound, threads, profile);
+				System.out.print(analysis.output);
+				analyses.add(analysis);
+			}
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Analysis>> futures = new ArrayList<Future<Analysis>>(
+						files.size());
+				for (final File filefound : files) {
+					futures.add(pool.submit(new Callable<Analysis>() {
+						@Override
+						public Analysis call() {
+							return analyze(filefound, 1, profile);
+						}
+					}));
 				}
-				break;
-			case MOD2G:
-				validator = new ModuleValidator(filefound.getPath());
-				// TODO we need to set a KR interface; use default (only one)
-				// right now. Best we can do now
-				// is to ask user to set it.
-				try {
-					((ModuleValidator) validator).setKRInterface(KRFactory
-							.getDefaultInterface());
-				} catch (KRInitFailedException e) {
-					// TODO: use logger.
-					System.out.println(e.getMessage());
+				for (Future<Analysis> future : futures) {
+					Analysis analysis = future.get();
+					System.out.print(analysis.output);
+					analyses.add(analysis);
 				}
-				break;
-			case MAS2G:
-				validator = new MASValidator(filefound.getPath());
-				break;
-			case TEST2G:
-				validator = new TestValidator(filefound.getPath());
-				break;
-			default:
-				// TODO: use logger.
-				System.out
-						.println("Expected file with extension 'goal', 'mas2g', 'mod2g', or 'test2g'");
-				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				pool.shutdownNow();
 			}
+		}
 
-			// Validate program file
-			validator.validate();
+		// Get elapsed time.
+		long elapsedTime = (System.nanoTime() - startTime) / 1000000;
+		System.out.println("Took " + elapsedTime + " milliseconds to analyze "
+				+ files.size() + " file(s).");
+
+		// Get CPU time and latencies of the files
+		int fallbacks = 0;
+		long cpuTime = 0;
+		long[] latencies = new long[analyses.size()];
+		for (int i = 0; i < latencies.length; i++) {
+			fallbacks += analyses.get(i).fallbacks;
+			cpuTime += analyses.get(i).cpuTime;
+			latencies[i] = analyses.get(i).latency;
+		}
+		Arrays.sort(latencies);
+		System.out.println("Used " + cpuTime / 1000000
+				+ " milliseconds of CPU time on " + Math.max(threads, 1)
+				+ " thread(s).");
+		if (latencies.length > 0) {
+			System.out.println("Milliseconds per file: 50% "
+					+ percentile(latencies, 50) + ", 90% "
+					+ percentile(latencies, 90) + ", 99% "
+					+ percentile(latencies, 99) + ", max "
+					+ percentile(latencies, 100) + ".");
+		}
+		System.out.println("Full LL parsing was needed for " + fallbacks
+				+ " file(s).");
+		if (stats) {
+			System.out.println(moduleCache);
+			System.out.println(FragmentCache.getDefault());
+		}
+
+		// Write the profile of the decisions made by the parsers
+		if (profile != null) {
+			try {
+				profile.save(profileFile);
+			} catch (IOException e) {
+				// TODO: use logger.
+				System.out.println(e.getMessage());
+			}
+		}
 
-			// Print lexer tokens
-			if (lexer) {
-				validator.printLexerTokens();
+		// Store DFAs built by parsers for later runs
+		if (dfaCache != null) {
+			try {
+				DFACache.save(dfaCache);
+			} catch (IOException e) {
+				// TODO: use logger.
+				System.out.println(e.getMessage());
 			}
+		}
+	}
 
-			// Print constructed program
-			if (program) {
-				System.out.println("\n\n"
-						+ validator.getProgram().toString(" ", " "));
+	/**
+	 * Validates a file.
+	 *
+	 * @param file
+	 *            The file to validate.
+	 * @param projectThreads
+	 *            The number of threads used to validate the agent files of a
+	 *            project.
+	 * @param profile
+	 *            The profile to add the decisions made by the parser to, if
+	 *            any.
+	 * @return The output for the file and statistics of its analysis.
+	 */
+	private static Analysis analyze(File file, int projectThreads,
+			DecisionProfile profile) {
+		long startTime = System.nanoTime();
+		long startCpuTime = getCpuTime();
+		Analysis analysis = new Analysis();
+		StringBuilder output = new StringBuilder();
+		output.append("Processing file: " + file.getPath() + ".\n\n");
+		if (project && Extension.getFileExtension(file) == Extension.MAS2G) {
+			ProjectValidator validator = new ProjectValidator(file.getPath());
+			validator.setThreads(projectThreads);
+			validator.setModuleCache(moduleCache);
+			validator.validate();
+			for (Validator<?, ?, ?, ?> fileValidator : validator
+					.getValidators()) {
+				analysis.fallbacks += fileValidator.getFallbackCount();
+			}
+			output.append(validator.report() + "\n");
+
+			analysis.output = output.toString();
+			analysis.latency = System.nanoTime() - startTime;
+			// Does not include the CPU time of other threads validating the
+			// agent files
+			analysis.cpuTime = getCpuTime() - startCpuTime;
+			return analysis;
+		}
+		Validator<?, ?, ?, ?> validator = null;
+		switch (Extension.getFileExtension(file)) {
+		case GOAL:
+			validator = new AgentValidator(file.getPath());
+			((AgentValidator) validator).setModuleCache(moduleCache);
+			// TODO we need to set a KR interface; use default (only one)
+			// right now. Best we can do now
+			// is to ask user to set it.
+			try {
+				((AgentValidator) validator).setKRInterface(KRFactory
+						.getDefaultInterface());
+			} catch (KRInitFailedException e) {
+				// TODO: use logger.
+				output.append(e.getMessage() + "\n");
 			}
+			break;
+		case MOD2G:
+			validator = new ModuleValidator(file.getPath());
+			// TODO we need to set a KR interface; use default (only one)
+			// right now. Best we can do now
+			// is to ask user to set it.
+			try {
+				((ModuleValidator) validator).setKRInterface(KRFactory
+						.getDefaultInterface());
+			} catch (KRInitFailedException e) {
+				// TODO: use logger.
+				output.append(e.getMessage() + "\n");
+			}
+			break;
+		case MAS2G:
+			validator = new MASValidator(file.getPath());
+			break;
+		case TEST2G:
+			validator = new TestValidator(file.getPath());
+			break;
+		default:
+			// TODO: use logger.
+			output.append("Expected file with extension 'goal', 'mas2g', 'mod2g', or 'test2g'\n");
+			analysis.output = output.toString();
+			return analysis;
+		}
+
+		// Validate program file; the tokens are not kept when building
+		// the program while parsing
+		validator.setStreaming(stream && !lexer);
+		validator.setProfile(profile);
+		validator.validate();
+		analysis.fallbacks = validator.getFallbackCount();
 
-			// Print report with warnings, and parsing and validation messages
-			System.out.println(validator.report());
+		// Print lexer tokens
+		if (lexer) {
+			output.append(validator.lexerTokens());
 		}
 
-		// Get elapsed time.
-		long elapsedTime = (System.nanoTime() - startTime) / 1000000;
-		System.out.println("Took " + elapsedTime + " milliseconds to analyze "
-				+ files.size() + " file(s).");
+		// Print constructed program
+		if (program) {
+			output.append("\n\n" + validator.getProgram().toString(" ", " ")
+					+ "\n");
+		}
+
+		// Print report with warnings, and parsing and validation messages
+		output.append(validator.report() + "\n");
+
+		analysis.output = output.toString();
+		analysis.latency = System.nanoTime() - startTime;
+		analysis.cpuTime = getCpuTime() - startCpuTime;
+		return analysis;
+	}
+
+	/**
+	 * @return The CPU time used by the current thread in nanoseconds, or 0 if
+	 *         this cannot be measured.
+	 */
+	private static long getCpuTime() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean.isCurrentThreadCpuTimeSupported()) {
+			return bean.getCurrentThreadCpuTime();
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param latencies
+	 *            Sorted latencies in nanoseconds.
+	 * @param percentage
+	 *            The percentage of latencies that should not be higher than
+	 *            the returned one.
+	 * @return The (nearest rank) percentile of the latencies in milliseconds.
+	 */
+	private static long percentile(long[] latencies, int percentage) {
+		int rank = (int) Math.ceil(percentage / 100.0 * latencies.length);
+		return latencies[Math.max(rank, 1) - 1] / 1000000;
+	}
+
+	/**
+	 * The output for a file and statistics of its analysis.
+	 */
+	private static class Analysis {
+		private String output;
+		private int fallbacks;
+		// Wall clock and CPU time needed for the analysis in nanoseconds
+		private long latency;
+		private long cpuTime;
 	}
 
 	/**
@@ -197,16 +444,8 @@ public class Analyzer {
 		List<File> files = new ArrayList<File>();
 
 		for (File file : directory.listFiles()) {
-			if (file.isFile()) {
-				if (isMASFile(file) && masFile) {
-					files.add(file);
-				}
-				if (isAgentFile(file) && agentFile) {
-					files.add(file);
-				}
-				if (isModuleFile(file) && moduleFile) {
-					files.add(file);
-				}
+			if (file.isFile() && isSelected(file)) {
+				files.add(file);
 			}
 			if (file.isDirectory() && recursive) {
 				files.addAll(searchDirectory(file));
@@ -216,6 +455,151 @@ public class Analyzer {
 		return files;
 	}
 
+	/**
+	 * @return {@code true} if the file is of a type that should be analyzed.
+	 */
+	private static boolean isSelected(File file) {
+		return (isMASFile(file) && masFile) || (isAgentFile(file) && agentFile)
+				|| (isModuleFile(file) && moduleFile);
+	}
+
+	/**
+	 * @return The directory and, if directories are searched recursively, all
+	 *         its subdirectories.
+	 */
+	private static List<File> getDirectories(File directory) {
+		List<File> directories = new ArrayList<File>();
+		directories.add(directory);
+		if (recursive) {
+			for (File file : directory.listFiles()) {
+				if (file.isDirectory()) {
+					directories.addAll(getDirectories(file));
+				}
+			}
+		}
+		return directories;
+	}
+
+	/**
+	 * Validates files and the files they import, and then keeps validating the
+	 * files affected by changes until the process is stopped.
+	 *
+	 * @param root
+	 *            The file or directory to analyze.
+	 * @param files
+	 *            The files to analyze.
+	 */
+	private static void watch(File root, List<File> files) {
+		IncrementalValidator validator;
+		try {
+			// TODO we need to set a KR interface; use default (only one)
+			// right now.
+			validator = new IncrementalValidator(
+					KRFactory.getDefaultInterface());
+		} catch (KRInitFailedException e) {
+			// TODO: use logger.
+			System.out.println(e.getMessage());
+			return;
+		}
+
+		// Warm up the DFAs of the parsers, so that files changed later on
+		// are not validated slower than the files validated at startup
+		try {
+			DFACache.warmUp();
+		} catch (IOException e) {
+			// TODO: use logger.
+			System.out.println(e.getMessage());
+		}
+
+		try {
+			long startTime = System.nanoTime();
+			List<File> validated = new ArrayList<File>();
+			for (File file : files) {
+				if (validator.getValidator(file) == null) {
+					validated.addAll(validator.add(file));
+				}
+			}
+			printReports(validator, validated, startTime);
+
+			try (ProjectWatcher watcher = new ProjectWatcher(validator)) {
+				if (root.isDirectory()) {
+					for (File directory : getDirectories(root)) {
+						watcher.watch(directory);
+					}
+					watcher.setFilter(new FileFilter() {
+						@Override
+						public boolean accept(File file) {
+							return isSelected(file);
+						}
+					});
+				}
+				System.out.println("Watching for changes...\n");
+				while (true) {
+					Set<File> changed = watcher.waitForChanges();
+					startTime = System.nanoTime();
+					validated = watcher.update(changed);
+					// Ignore changes to files that are not part of the project
+					if (!validated.isEmpty()) {
+						printReports(validator, validated, startTime);
+						System.out.println("Watching for changes...\n");
+					}
+				}
+			}
+		} catch (IOException e) {
+			// TODO: use logger.
+			System.out.println(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Serves validation requests of clients until a client requests the server
+	 * to shut down.
+	 */
+	private static void serve() {
+		// TODO we need to set a KR interface; use default (only one)
+		// right now.
+		try (ValidationServer server = new ValidationServer(daemonPort,
+				threads, KRFactory.getDefaultInterface())) {
+			System.out.println("Serving validation requests on port "
+					+ server.getPort() + "...");
+			server.serve();
+			System.out.println(server.getModuleCache());
+		} catch (IOException e) {
+			// TODO: use logger.
+			System.out.println(e.getMessage());
+		} catch (KRInitFailedException e) {
+			// TODO: use logger.
+			System.out.println(e.getMessage());
+		}
+
+		// Store DFAs built by parsers for later runs
+		if (dfaCache != null) {
+			try {
+				DFACache.save(dfaCache);
+			} catch (IOException e) {
+				// TODO: use logger.
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Prints the reports of validated files, and the time it took to validate
+	 * them.
+	 */
+	private static void printReports(IncrementalValidator validator,
+			List<File> validated, long startTime) throws IOException {
+		long elapsedTime = (System.nanoTime() - startTime) / 1000000;
+		for (File file : validated) {
+			System.out.println("Processing file: " + file.getPath() + ".\n");
+			System.out.println(validator.getValidator(file).report());
+		}
+		System.out.println("Took " + elapsedTime + " milliseconds to analyze "
+				+ validated.size() + " file(s).");
+	}
+
 	/**
 	 * Checks whether file is a MAS file.
 	 *
@@ -295,6 +679,46 @@ public class Analyzer {
 		options.addOption(new Option(OPTION_HELP_SHORT, OPTION_HELP, false,
 				"Displays this help"));
 
+		OptionBuilder
+				.withDescription("Load DFAs built by the parsers from file, and store them after analysis");
+		OptionBuilder.hasArg();
+		OptionBuilder.withArgName("file");
+		options.addOption(OptionBuilder.create(OPTION_DFA_CACHE));
+
+		OptionBuilder
+				.withDescription("Build agent programs while parsing, without keeping parse trees and tokens in memory");
+		options.addOption(OptionBuilder.create(OPTION_STREAM));
+
+		OptionBuilder
+				.withDescription("Profile the decisions made by the parsers, and write the profile to file");
+		OptionBuilder.hasArg();
+		OptionBuilder.withArgName("file");
+		options.addOption(OptionBuilder.create(OPTION_PROFILE));
+
+		OptionBuilder
+				.withDescription("Analyze files concurrently on N threads; reports are printed in the order in which the files are found");
+		OptionBuilder.hasArg();
+		OptionBuilder.withArgName("N");
+		options.addOption(OptionBuilder.create(OPTION_THREADS));
+
+		OptionBuilder
+				.withDescription("Analyze MAS files together with the agent files they refer to and the module files these import, and report on them as a whole");
+		options.addOption(OptionBuilder.create(OPTION_PROJECT));
+
+		OptionBuilder
+				.withDescription("Keep watching the directories of the files for changes, and analyze the files affected by changes");
+		options.addOption(OptionBuilder.create(OPTION_WATCH));
+
+		OptionBuilder
+				.withDescription("Serve validation requests of clients on port, keeping caches between requests; see ValidationClient");
+		OptionBuilder.hasArg();
+		OptionBuilder.withArgName("port");
+		options.addOption(OptionBuilder.create(OPTION_DAEMON));
+
+		OptionBuilder
+				.withDescription("Print the statistics of the caches used during the analysis");
+		options.addOption(OptionBuilder.create(OPTION_STATS));
+
 		OptionBuilder.withDescription("Shows the license");
 		OptionBuilder.withLongOpt(OPTION_LICENSE);
 		options.addOption(OptionBuilder.create());
@@ -312,6 +736,32 @@ public class Analyzer {
 		agentFile = cmd.hasOption(OPTION_GOAL);
 		moduleFile = cmd.hasOption(OPTION_MOD2G);
 		recursive = cmd.hasOption(OPTION_RECURSIVE);
+		stream = cmd.hasOption(OPTION_STREAM);
+		project = cmd.hasOption(OPTION_PROJECT);
+		watch = cmd.hasOption(OPTION_WATCH);
+		stats = cmd.hasOption(OPTION_STATS);
+		if (cmd.hasOption(OPTION_PROFILE)) {
+			profileFile = new File(cmd.getOptionValue(OPTION_PROFILE));
+		}
+		if (cmd.hasOption(OPTION_THREADS)) {
+			try {
+				threads = Integer.parseInt(cmd.getOptionValue(OPTION_THREADS));
+			} catch (NumberFormatException e) {
+				throw new ParseException("Expected number of threads but got: "
+						+ cmd.getOptionValue(OPTION_THREADS));
+			}
+		}
+		if (cmd.hasOption(OPTION_DAEMON)) {
+			try {
+				daemonPort = Integer.parseInt(cmd.getOptionValue(OPTION_DAEMON));
+			} catch (NumberFormatException e) {
+				throw new ParseException("Expected port but got: "
+						+ cmd.getOptionValue(OPTION_DAEMON));
+			}
+		}
+		if (cmd.hasOption(OPTION_DFA_CACHE)) {
+			dfaCache = new File(cmd.getOptionValue(OPTION_DFA_CACHE));
+		}
 
 		/*
 		 * Handle general options.
@@ -326,7 +776,10 @@ public class Analyzer {
 			throw new ParseException("");
 		}
 
-		// Process remaining arguments
+		// Process remaining arguments; the server does not need any
+		if (cmd.getArgs().length == 0 && daemonPort >= 0) {
+			return null;
+		}
 		if (cmd.getArgs().length == 0) {
 			throw new ParseException("Missing file or directory");
 		}
@@ -0,0 +1,170 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records which files import which other files: a MAS file imports its agent
+ * files, an agent file the module files it imports, and an agent or module
+ * file the KR files its modules import. Files should be canonical, so that a
+ * file is known by one path only.
+ */
+public class DependencyGraph {
+	/**
+	 * The files directly imported by a file.
+	 */
+	private final Map<File, Set<File>> imports = new HashMap<>();
+	/**
+	 * The files that directly import a file.
+	 */
+	private final Map<File, Set<File>> importedBy = new HashMap<>();
+
+	/**
+	 * Sets the files directly imported by a file, replacing any earlier ones.
+	 *
+	 * @param file
+	 *            A file.
+	 * @param imported
+	 *            The files imported by it.
+	 */
+	public void setImports(File file, Collection<File> imported) {
+		for (File old : getImports(file)) {
+			Set<File> importers = this.importedBy.get(old);
+			importers.remove(file);
+			if (importers.isEmpty()) {
+				this.importedBy.remove(old);
+			}
+		}
+		Set<File> files = new LinkedHashSet<>(imported);
+		this.imports.put(file, files);
+		for (File imp : files) {
+			Set<File> importers = this.importedBy.get(imp);
+			if (importers == null) {
+				importers = new HashSet<>();
+				this.importedBy.put(imp, importers);
+			}
+			importers.add(file);
+		}
+	}
+
+	/**
+	 * Removes a file and the files it imports from the graph. Files that import
+	 * the file still do so.
+	 *
+	 * @param file
+	 *            A file.
+	 */
+	public void remove(File file) {
+		setImports(file, Collections.<File> emptySet());
+		this.imports.remove(file);
+	}
+
+	/**
+	 * @return {@code true} if the imports of the file are known.
+	 */
+	public boolean contains(File file) {
+		return this.imports.containsKey(file);
+	}
+
+	/**
+	 * @return The files directly imported by a file.
+	 */
+	public Set<File> getImports(File file) {
+		Set<File> files = this.imports.get(file);
+		return (files == null) ? Collections.<File> emptySet() : Collections
+				.unmodifiableSet(files);
+	}
+
+	/**
+	 * @return The files that directly import a file.
+	 */
+	public Set<File> getImportedBy(File file) {
+		Set<File> files = this.importedBy.get(file);
+		return (files == null) ? Collections.<File> emptySet() : Collections
+				.unmodifiableSet(files);
+	}
+
+	/**
+	 * @return All files of which the imports are known.
+	 */
+	public Set<File> getFiles() {
+		return Collections.unmodifiableSet(this.imports.keySet());
+	}
+
+	/**
+	 * Gets the files that are affected by changes to some files, i.e. these
+	 * files and all files that (directly or indirectly) import them.
+	 *
+	 * @param changed
+	 *            The changed files.
+	 * @return The affected files.
+	 */
+	public Set<File> getAffected(Collection<File> changed) {
+		Set<File> affected = new LinkedHashSet<>();
+		List<File> todo = new ArrayList<>(changed);
+		while (!todo.isEmpty()) {
+			File file = todo.remove(todo.size() - 1);
+			if (affected.add(file)) {
+				todo.addAll(getImportedBy(file));
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * Sorts files such that every file comes after the files it (directly or
+	 * indirectly) imports. Files that import each other are sorted in an
+	 * arbitrary order.
+	 *
+	 * @param files
+	 *            The files to sort.
+	 * @return The sorted files.
+	 */
+	public List<File> sort(Collection<File> files) {
+		Set<File> include = new HashSet<>(files);
+		Set<File> visited = new HashSet<>();
+		List<File> sorted = new ArrayList<>(files.size());
+		for (File file : files) {
+			sort(file, include, visited, sorted);
+		}
+		return sorted;
+	}
+
+	private void sort(File file, Set<File> include, Set<File> visited,
+			List<File> sorted) {
+		if (!visited.add(file)) {
+			return;
+		}
+		for (File imp : getImports(file)) {
+			sort(imp, include, visited, sorted);
+		}
+		if (include.contains(file)) {
+			sorted.add(file);
+		}
+	}
+}
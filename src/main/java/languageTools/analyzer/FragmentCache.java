@@ -0,0 +1,543 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import krTools.KRInterface;
+import krTools.errors.exceptions.ParserException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import krTools.language.Term;
+import krTools.language.Update;
+import krTools.parser.Parser;
+import krTools.parser.SourceInfo;
+import languageTools.parser.InputStreamPosition;
+
+/**
+ * Bounded cache of the results of parsing embedded KR fragments, keyed by the
+ * kind of fragment, its exact text and the KR interface used to parse it.
+ * Programs (in particular generated ones) repeat the same parameter lists,
+ * such as {@code (X)} or {@code (at(X,Y))}, many times, and each of these
+ * would otherwise need a KR parser of its own.
+ *
+ * <p>
+ * The errors reported by the KR parser are cached as well, relative to the
+ * start of the fragment, and are relocated to the source info of the fragment
+ * they are requested for. The KR interface provides no way to relocate parsed
+ * expressions, so these keep the source info of the fragment that was parsed
+ * first; only fragments of which the source info of the expressions is not
+ * used for reporting are cached by their text alone, i.e. terms used as
+ * parameters. Other fragments, such as queries, are also keyed by their source
+ * info, so that they are only shared by validators of the same version of a
+ * file, e.g. the validators of a module file imported by several agents. When
+ * the cache is full, the least recently used fragment is evicted.
+ * </p>
+ * <p>
+ * The cache can be used by several threads. By default, all validators share
+ * the cache returned by {@link #getDefault()}.
+ * </p>
+ */
+public class FragmentCache {
+	/**
+	 * The number of fragments kept by the default cache.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private static final FragmentCache DEFAULT = new FragmentCache(
+			DEFAULT_CAPACITY);
+
+	/**
+	 * The kinds of fragments that can be cached.
+	 */
+	public enum Kind {
+		/**
+		 * A single term, e.g. the parameter of a print action.
+		 */
+		TERM {
+			@Override
+			Object parse(Parser parser) throws ParserException {
+				return parser.parseTerm();
+			}
+		},
+		/**
+		 * A list of terms, e.g. the parameters of an action or module call.
+		 */
+		TERMS {
+			@Override
+			Object parse(Parser parser) throws ParserException {
+				return parser.parseTerms();
+			}
+		},
+		/**
+		 * A query at some position, e.g. the content of a mental literal.
+		 */
+		QUERY {
+			@Override
+			Object parse(Parser parser) throws ParserException {
+				return parser.parseQuery();
+			}
+		},
+		/**
+		 * A list of queries at some position, e.g. a goals section.
+		 */
+		QUERIES {
+			@Override
+			Object parse(Parser parser) throws ParserException {
+				return parser.parseQueries();
+			}
+		},
+		/**
+		 * An update at some position, e.g. the content of an insert action.
+		 */
+		UPDATE {
+			@Override
+			Object parse(Parser parser) throws ParserException {
+				return parser.parseUpdate();
+			}
+		},
+		/**
+		 * A list of database formulas at some position, e.g. a beliefs
+		 * section.
+		 */
+		DBFS {
+			@Override
+			Object parse(Parser parser) throws ParserException {
+				return parser.parseDBFs();
+			}
+		};
+
+		abstract Object parse(Parser parser) throws ParserException;
+
+		/**
+		 * @return {@code true} if a fragment of this kind can be used at
+		 *         another source info than the one it was parsed at.
+		 */
+		boolean isRelocatable() {
+			return this == TERM || this == TERMS;
+		}
+	}
+
+	private final int capacity;
+	/**
+	 * The cached fragments, in least recently used order.
+	 */
+	private final Map<Key, Entry> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity
+	 *            The maximum number of fragments kept.
+	 */
+	public FragmentCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > FragmentCache.this.capacity) {
+					FragmentCache.this.evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return The cache shared by all validators by default.
+	 */
+	public static FragmentCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Parses a fragment that represents a {@link Term}.
+	 *
+	 * @param text
+	 *            The fragment.
+	 * @param kri
+	 *            The KR interface to parse the fragment with.
+	 * @param info
+	 *            The source info of the start of the fragment.
+	 * @param errors
+	 *            The list to add the errors of the KR parser to, relocated to
+	 *            the source info.
+	 * @return The term, or {@code null} if it could not be parsed.
+	 * @throws ParserException
+	 *             If the KR parser failed, relocated to the source info.
+	 */
+	public Term getTerm(String text, KRInterface kri, SourceInfo info,
+			List<SourceInfo> errors) throws ParserException {
+		return (Term) get(Kind.TERM, text, kri, info, errors);
+	}
+
+	/**
+	 * Parses a fragment that represents a list of {@link Term}s.
+	 *
+	 * @param text
+	 *            The fragment.
+	 * @param kri
+	 *            The KR interface to parse the fragment with.
+	 * @param info
+	 *            The source info of the start of the fragment.
+	 * @param errors
+	 *            The list to add the errors of the KR parser to, relocated to
+	 *            the source info.
+	 * @return A new list with the terms, or {@code null} if the fragment could
+	 *         not be parsed.
+	 * @throws ParserException
+	 *             If the KR parser failed, relocated to the source info.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Term> getTerms(String text, KRInterface kri, SourceInfo info,
+			List<SourceInfo> errors) throws ParserException {
+		List<Term> terms = (List<Term>) get(Kind.TERMS, text, kri, info,
+				errors);
+		return (terms == null) ? null : new ArrayList<Term>(terms);
+	}
+
+	/**
+	 * Parses a fragment that represents a {@link Query}.
+	 *
+	 * @param text
+	 *            The fragment.
+	 * @param kri
+	 *            The KR interface to parse the fragment with.
+	 * @param info
+	 *            The source info of the start of the fragment.
+	 * @param errors
+	 *            The list to add the errors of the KR parser to.
+	 * @return The query, or {@code null} if it could not be parsed.
+	 * @throws ParserException
+	 *             If the KR parser failed.
+	 */
+	public Query getQuery(String text, KRInterface kri, SourceInfo info,
+			List<SourceInfo> errors) throws ParserException {
+		return (Query) get(Kind.QUERY, text, kri, info, errors);
+	}
+
+	/**
+	 * Parses a fragment that represents a list of {@link Query}s.
+	 *
+	 * @param text
+	 *            The fragment.
+	 * @param kri
+	 *            The KR interface to parse the fragment with.
+	 * @param info
+	 *            The source info of the start of the fragment.
+	 * @param errors
+	 *            The list to add the errors of the KR parser to.
+	 * @return A new list with the queries, or {@code null} if the fragment
+	 *         could not be parsed.
+	 * @throws ParserException
+	 *             If the KR parser failed.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Query> getQueries(String text, KRInterface kri,
+			SourceInfo info, List<SourceInfo> errors) throws ParserException {
+		List<Query> queries = (List<Query>) get(Kind.QUERIES, text, kri, info,
+				errors);
+		return (queries == null) ? null : new ArrayList<Query>(queries);
+	}
+
+	/**
+	 * Parses a fragment that represents an {@link Update}.
+	 *
+	 * @param text
+	 *            The fragment.
+	 * @param kri
+	 *            The KR interface to parse the fragment with.
+	 * @param info
+	 *            The source info of the start of the fragment.
+	 * @param errors
+	 *            The list to add the errors of the KR parser to.
+	 * @return The update, or {@code null} if it could not be parsed.
+	 * @throws ParserException
+	 *             If the KR parser failed.
+	 */
+	public Update getUpdate(String text, KRInterface kri, SourceInfo info,
+			List<SourceInfo> errors) throws ParserException {
+		return (Update) get(Kind.UPDATE, text, kri, info, errors);
+	}
+
+	/**
+	 * Parses a fragment that represents a list of {@link DatabaseFormula}s.
+	 *
+	 * @param text
+	 *            The fragment.
+	 * @param kri
+	 *            The KR interface to parse the fragment with.
+	 * @param info
+	 *            The source info of the start of the fragment.
+	 * @param errors
+	 *            The list to add the errors of the KR parser to.
+	 * @return A new list with the formulas, or {@code null} if the fragment
+	 *         could not be parsed.
+	 * @throws ParserException
+	 *             If the KR parser failed.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<DatabaseFormula> getDBFs(String text, KRInterface kri,
+			SourceInfo info, List<SourceInfo> errors) throws ParserException {
+		List<DatabaseFormula> formulas = (List<DatabaseFormula>) get(
+				Kind.DBFS, text, kri, info, errors);
+		return (formulas == null) ? null : new ArrayList<DatabaseFormula>(
+				formulas);
+	}
+
+	private Object get(Kind kind, String text, KRInterface kri,
+			SourceInfo info, List<SourceInfo> errors) throws ParserException {
+		Key key = new Key(kind, text, kri, kind.isRelocatable() ? null : info);
+		Entry entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+			if (entry == null) {
+				this.misses++;
+			} else {
+				this.hits++;
+			}
+		}
+		if (entry == null) {
+			// Fragments are parsed outside the lock; two threads may parse the
+			// same fragment, but only one of the results is kept
+			entry = parse(kind, text, kri, info);
+			synchronized (this.entries) {
+				this.entries.put(key, entry);
+			}
+			// The fragment was parsed at the source info itself
+			errors.addAll(entry.errors);
+			if (entry.exception != null) {
+				throw entry.exception;
+			}
+		} else {
+			for (SourceInfo error : entry.errors) {
+				errors.add(relocate(error, error.getMessage(), entry.origin,
+						info));
+			}
+			if (entry.exception != null) {
+				ParserException e = entry.exception;
+				throw new ParserException(e.getMessage(), relocate(e, null,
+						entry.origin, info), e.getCause());
+			}
+		}
+		return entry.result;
+	}
+
+	private static Entry parse(Kind kind, String text, KRInterface kri,
+			SourceInfo info) {
+		Entry entry = new Entry(info);
+		try {
+			Parser parser = kri.getParser(new StringReader(text), info);
+			entry.result = kind.parse(parser);
+			entry.errors.addAll(parser.getErrors());
+		} catch (ParserException e) {
+			entry.exception = e;
+		}
+		return entry;
+	}
+
+	/**
+	 * Moves an error along with its fragment. Characters on the first line of
+	 * the fragment shift with its start; those on other lines only move to
+	 * another line.
+	 *
+	 * @param error
+	 *            The source info of the error.
+	 * @param message
+	 *            The message of the error.
+	 * @param from
+	 *            The source info of the fragment the error was found in.
+	 * @param to
+	 *            The source info of a fragment with the same text.
+	 * @return The source info of the error in the latter fragment.
+	 */
+	private static SourceInfo relocate(SourceInfo error, String message,
+			SourceInfo from, SourceInfo to) {
+		int lines = error.getLineNumber() - from.getLineNumber();
+		int position = error.getCharacterPosition();
+		if (lines == 0) {
+			position += to.getCharacterPosition() - from.getCharacterPosition();
+		}
+		int shift = to.getStartIndex() - from.getStartIndex();
+		return new KRError(to.getLineNumber() + lines, position,
+				error.getStartIndex() + shift, error.getStopIndex() + shift,
+				to.getSource(), message);
+	}
+
+	/**
+	 * @return The number of times a cached fragment was used.
+	 */
+	public long getHits() {
+		synchronized (this.entries) {
+			return this.hits;
+		}
+	}
+
+	/**
+	 * @return The number of times a fragment had to be parsed.
+	 */
+	public long getMisses() {
+		synchronized (this.entries) {
+			return this.misses;
+		}
+	}
+
+	/**
+	 * @return The number of fragments that were evicted because the cache was
+	 *         full.
+	 */
+	public long getEvictions() {
+		synchronized (this.entries) {
+			return this.evictions;
+		}
+	}
+
+	/**
+	 * @return The fraction of requested fragments that was cached, or 0 if no
+	 *         fragments have been requested.
+	 */
+	public double getHitRate() {
+		synchronized (this.entries) {
+			long requests = this.hits + this.misses;
+			return (requests == 0) ? 0 : (double) this.hits / requests;
+		}
+	}
+
+	/**
+	 * @return The number of cached fragments.
+	 */
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	/**
+	 * Removes all cached fragments, e.g. because the KR interface has been
+	 * reinitialized.
+	 */
+	public void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (this.entries) {
+			return "Fragment cache: " + this.hits + " hit(s), " + this.misses
+					+ " miss(es), " + Math.round(100 * getHitRate())
+					+ "% hit rate, " + this.evictions + " eviction(s).";
+		}
+	}
+
+	/**
+	 * Identifies a fragment of some kind, the KR interface used for it and,
+	 * for fragments that cannot be relocated, its source info.
+	 */
+	private static class Key {
+		private final Kind kind;
+		private final String text;
+		private final KRInterface kri;
+		private final SourceInfo info;
+
+		private Key(Kind kind, String text, KRInterface kri, SourceInfo info) {
+			this.kind = kind;
+			this.text = text;
+			this.kri = kri;
+			this.info = info;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((31 * this.kind.hashCode() + this.text.hashCode()) * 31 + System
+					.identityHashCode(this.kri))
+					* 31
+					+ ((this.info == null) ? 0 : this.info.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.kind == other.kind && this.kri == other.kri
+					&& this.text.equals(other.text)
+					&& samePosition(this.info, other.info);
+		}
+
+		/**
+		 * @return {@code true} if both source infos are {@code null}, or they
+		 *         refer to the same position in the same version of a file.
+		 */
+		private static boolean samePosition(SourceInfo info, SourceInfo other) {
+			if (info == null || other == null) {
+				return info == other;
+			}
+			return info.equals(other)
+					&& info.getStartIndex() == other.getStartIndex();
+		}
+	}
+
+	/**
+	 * The result of parsing a fragment, and the errors found while doing so.
+	 */
+	private static class Entry {
+		/**
+		 * The source info the fragment was parsed at.
+		 */
+		private final SourceInfo origin;
+		private Object result;
+		private final List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+		private ParserException exception;
+
+		private Entry(SourceInfo origin) {
+			this.origin = origin;
+		}
+	}
+
+	/**
+	 * The position of a relocated error, with its message.
+	 */
+	private static class KRError extends InputStreamPosition {
+		private final String message;
+
+		private KRError(int lineNumber, int characterPosition, int startIndex,
+				int stopIndex, File source, String message) {
+			super(lineNumber, characterPosition, startIndex, stopIndex, source);
+			this.message = message;
+		}
+
+		@Override
+		public String getMessage() {
+			return this.message;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import krTools.KRInterface;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.mas.MASValidator;
+import languageTools.analyzer.module.ModuleCache;
+import languageTools.analyzer.module.ModuleValidator;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.Module;
+import languageTools.program.mas.MASProgram;
+import languageTools.utils.Extension;
+
+/**
+ * Keeps the validators of the files of a project, and validates only the files
+ * that are affected when some files change. Which files are affected follows
+ * from a {@link DependencyGraph} of the files and the files they import, which
+ * is updated whenever a file is validated. Affected files are validated again
+ * in an order in which imported files come before the files that import them;
+ * the validators of all other files are kept.
+ *
+ * <p>
+ * KR files are part of the graph, but are not validated by themselves; they
+ * are validated as part of the module and agent files that import them.
+ * </p>
+ */
+public class IncrementalValidator {
+	/**
+	 * KR interface used for files for which the MAS does not specify one.
+	 */
+	private final KRInterface kri;
+	private final DependencyGraph graph = new DependencyGraph();
+	private final ModuleCache moduleCache = new ModuleCache();
+	/**
+	 * The validators of the MAS, agent and module files, by canonical file.
+	 */
+	private final Map<File, Validator<?, ?, ?, ?>> validators = new HashMap<>();
+	/**
+	 * The KR interfaces of agent files, as specified by MAS files.
+	 */
+	private final Map<File, KRInterface> interfaces = new HashMap<>();
+
+	/**
+	 * Creates an incremental validator without any files.
+	 *
+	 * @param kri
+	 *            The KR interface used for agent and module files for which no
+	 *            MAS file specifies one.
+	 */
+	public IncrementalValidator(KRInterface kri) {
+		this.kri = kri;
+	}
+
+	/**
+	 * Adds a file to the project, and validates it and the files it imports
+	 * (directly or indirectly) that have not been validated yet.
+	 *
+	 * @param file
+	 *            A MAS, agent or module file.
+	 * @return The files that were validated.
+	 * @throws IOException
+	 *             If a file could not be read.
+	 */
+	public List<File> add(File file) throws IOException {
+		List<File> validated = new ArrayList<>();
+		validate(file.getCanonicalFile(), validated);
+		return validated;
+	}
+
+	/**
+	 * Validates all files of the project that are affected by changes to some
+	 * files. Files that do not exist anymore are removed from the project.
+	 * Changed files that are not part of the project are ignored.
+	 *
+	 * @param changed
+	 *            The changed files.
+	 * @return The files that were validated, in the order in which they were.
+	 * @throws IOException
+	 *             If a file could not be read.
+	 */
+	public List<File> update(Collection<File> changed) throws IOException {
+		List<File> files = new ArrayList<>(changed.size());
+		for (File file : changed) {
+			file = file.getCanonicalFile();
+			if (this.graph.contains(file)
+					|| !this.graph.getImportedBy(file).isEmpty()) {
+				files.add(file);
+			}
+		}
+
+		List<File> affected = this.graph.sort(this.graph.getAffected(files));
+		for (File file : affected) {
+			if (Extension.getFileExtension(file) == Extension.MOD2G) {
+				this.moduleCache.remove(file);
+			}
+		}
+
+		List<File> validated = new ArrayList<>();
+		for (File file : affected) {
+			if (file.exists()) {
+				validate(file, validated);
+			} else {
+				this.validators.remove(file);
+				this.graph.remove(file);
+			}
+		}
+		return validated;
+	}
+
+	/**
+	 * Validates a file and then the files it imports that have not been
+	 * validated yet, and records its imports.
+	 *
+	 * @param file
+	 *            A canonical file.
+	 * @param validated
+	 *            The list to add the validated files to.
+	 */
+	private void validate(File file, List<File> validated) throws IOException {
+		Validator<?, ?, ?, ?> validator = null;
+		Set<File> imports = new LinkedHashSet<>();
+		switch (Extension.getFileExtension(file)) {
+		case MAS2G:
+			MASValidator mas = new MASValidator(file.getPath());
+			mas.validate();
+			MASProgram masProgram = mas.getProgram();
+			for (File agent : masProgram.getAgentFiles()) {
+				File canonical = agent.getCanonicalFile();
+				imports.add(canonical);
+				if (masProgram.getKRInterface(agent) != null) {
+					this.interfaces.put(canonical,
+							masProgram.getKRInterface(agent));
+				}
+			}
+			validator = mas;
+			break;
+		case GOAL:
+			AgentValidator agent = new AgentValidator(file.getPath());
+			agent.setKRInterface(getKRInterface(file));
+			agent.setModuleCache(this.moduleCache);
+			agent.validate();
+			AgentProgram agentProgram = agent.getProgram();
+			for (File module : agentProgram.getImportedModules()) {
+				imports.add(module.getCanonicalFile());
+			}
+			for (Module module : agentProgram.getModules()) {
+				for (File imported : module.getImportedFiles()) {
+					imports.add(imported.getCanonicalFile());
+				}
+			}
+			validator = agent;
+			break;
+		case MOD2G:
+			ModuleValidator module = this.moduleCache.get(file,
+					getKRInterface(file));
+			for (File imported : module.getProgram().getImportedFiles()) {
+				imports.add(imported.getCanonicalFile());
+			}
+			validator = module;
+			break;
+		default:
+			// KR files are validated by the files importing them
+			break;
+		}
+
+		if (validator == null) {
+			this.validators.remove(file);
+		} else {
+			this.validators.put(file, validator);
+			validated.add(file);
+		}
+		this.graph.setImports(file, imports);
+
+		for (File imported : imports) {
+			if (!this.graph.contains(imported) && imported.exists()) {
+				validate(imported, validated);
+			}
+		}
+	}
+
+	private KRInterface getKRInterface(File file) {
+		KRInterface kri = this.interfaces.get(file);
+		return (kri == null) ? this.kri : kri;
+	}
+
+	/**
+	 * @param file
+	 *            A file of the project.
+	 * @return The validator of the file, or {@code null} if the file has not
+	 *         been validated (by itself).
+	 * @throws IOException
+	 *             If the canonical path of the file could not be determined.
+	 */
+	public Validator<?, ?, ?, ?> getValidator(File file) throws IOException {
+		return this.validators.get(file.getCanonicalFile());
+	}
+
+	/**
+	 * @return The MAS, agent and module files of the project that have been
+	 *         validated.
+	 */
+	public Set<File> getFiles() {
+		return Collections.unmodifiableSet(this.validators.keySet());
+	}
+
+	/**
+	 * @return The dependency graph of the files of the project.
+	 */
+	public DependencyGraph getGraph() {
+		return this.graph;
+	}
+
+	/**
+	 * @return The cache of the module files of the project.
+	 */
+	public ModuleCache getModuleCache() {
+		return this.moduleCache;
+	}
+}
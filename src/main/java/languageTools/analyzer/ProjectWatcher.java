@@ -0,0 +1,193 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directories of the files of a project for changes, and validates
+ * the files affected by these changes with an {@link IncrementalValidator}.
+ *
+ * <p>
+ * The directories of all files of the project, including the KR files and
+ * imported files that do not exist yet, are watched. Files created in these
+ * directories that are not part of the project are added to it if they are
+ * accepted by the filter set with {@link #setFilter(FileFilter)}. Other
+ * directories, e.g. directories with new files, can be watched by
+ * {@link #watch(File)}.
+ * </p>
+ */
+public class ProjectWatcher implements Closeable {
+	/**
+	 * The default time in milliseconds to wait for more changes after a
+	 * change.
+	 */
+	public static final long DEFAULT_DEBOUNCE = 100;
+
+	private final IncrementalValidator validator;
+	private final WatchService service;
+	/**
+	 * The watched directories, by their watch keys.
+	 */
+	private final Map<WatchKey, Path> directories = new HashMap<>();
+	private FileFilter filter;
+	private long debounce = DEFAULT_DEBOUNCE;
+
+	/**
+	 * Creates a watcher for the directories of the files of a project.
+	 *
+	 * @param validator
+	 *            The validator of the project.
+	 * @throws IOException
+	 *             If the directories could not be watched.
+	 */
+	public ProjectWatcher(IncrementalValidator validator) throws IOException {
+		this.validator = validator;
+		this.service = FileSystems.getDefault().newWatchService();
+		watchProject();
+	}
+
+	/**
+	 * @param filter
+	 *            Filter for new files that should be added to the project, or
+	 *            {@code null} to not add any new files.
+	 */
+	public void setFilter(FileFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @param debounce
+	 *            The time in milliseconds to wait for more changes after a
+	 *            change, so that a burst of changes (e.g. when saving several
+	 *            files at once) is handled at once.
+	 */
+	public void setDebounce(long debounce) {
+		this.debounce = debounce;
+	}
+
+	/**
+	 * Watches a directory for changes.
+	 *
+	 * @param directory
+	 *            A directory.
+	 * @throws IOException
+	 *             If the directory could not be watched.
+	 */
+	public void watch(File directory) throws IOException {
+		Path path = directory.getCanonicalFile().toPath();
+		if (!this.directories.containsValue(path) && directory.isDirectory()) {
+			WatchKey key = path.register(this.service, ENTRY_CREATE,
+					ENTRY_DELETE, ENTRY_MODIFY);
+			this.directories.put(key, path);
+		}
+	}
+
+	/**
+	 * Watches the directories of all files of the project.
+	 */
+	private void watchProject() throws IOException {
+		for (File file : this.validator.getGraph().getFiles()) {
+			watch(file.getParentFile());
+			for (File imported : this.validator.getGraph().getImports(file)) {
+				watch(imported.getParentFile());
+			}
+		}
+	}
+
+	/**
+	 * Waits until some files in the watched directories have changed, and then
+	 * until no more changes arrive for the debounce time.
+	 *
+	 * @return The changed files.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public Set<File> waitForChanges() throws InterruptedException {
+		Set<File> changed = new LinkedHashSet<>();
+		WatchKey key = this.service.take();
+		while (key != null) {
+			Path directory = this.directories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW) {
+					// Events were lost; consider all files changed
+					changed.addAll(this.validator.getGraph().getFiles());
+				} else if (directory != null) {
+					changed.add(directory.resolve((Path) event.context())
+							.toFile());
+				}
+			}
+			if (!key.reset()) {
+				this.directories.remove(key);
+			}
+			key = this.service.poll(this.debounce, TimeUnit.MILLISECONDS);
+		}
+		return changed;
+	}
+
+	/**
+	 * Validates the files affected by changes, and adds new files accepted by
+	 * the filter to the project.
+	 *
+	 * @param changed
+	 *            The changed files.
+	 * @return The files that were validated.
+	 * @throws IOException
+	 *             If a file could not be read.
+	 */
+	public List<File> update(Collection<File> changed) throws IOException {
+		List<File> validated = new ArrayList<>(this.validator.update(changed));
+		if (this.filter != null) {
+			for (File file : changed) {
+				if (file.isFile() && this.filter.accept(file)
+						&& this.validator.getValidator(file) == null) {
+					validated.addAll(this.validator.add(file));
+				}
+			}
+		}
+		// Files may import files in other directories now
+		watchProject();
+		return validated;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.service.close();
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A client of a {@link ValidationServer}, which only depends on
+ * {@link ValidationProtocol}.
+ *
+ * <pre>
+ * {@code
+ * Usage: languageTools.analyzer.ValidationClient [-port N] [-shutdown] [file...]
+ * }
+ * </pre>
+ *
+ * The client prints the diagnostics of the files, and exits with status 1 if
+ * any file has syntax errors or errors, and with status 2 if the server could
+ * not be reached or could not handle a request.
+ */
+public class ValidationClient implements Closeable {
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+
+	/**
+	 * Connects to a server on the loopback address.
+	 *
+	 * @param port
+	 *            The port the server listens on.
+	 * @throws IOException
+	 *             If the server could not be reached.
+	 */
+	public ValidationClient(int port) throws IOException {
+		this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		this.in = new BufferedInputStream(this.socket.getInputStream());
+		this.out = new BufferedOutputStream(this.socket.getOutputStream());
+	}
+
+	/**
+	 * Validates a file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return The reply of the server: the diagnostics of the file, followed by
+	 *         the {@link ValidationProtocol#DONE} line; or a
+	 *         {@link ValidationProtocol#FAILED} line.
+	 * @throws IOException
+	 *             If the server could not be reached.
+	 */
+	public List<String> validate(File file) throws IOException {
+		send(ValidationProtocol.VALIDATE + " " + file.getAbsolutePath() + "\n",
+				null);
+		return receive();
+	}
+
+	/**
+	 * Validates content as if it were the content of a file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param content
+	 *            The content.
+	 * @return The reply of the server, see {@link #validate(File)}.
+	 * @throws IOException
+	 *             If the server could not be reached.
+	 */
+	public List<String> validate(File file, String content) throws IOException {
+		byte[] bytes = content.getBytes("UTF-8");
+		send(ValidationProtocol.CONTENT + " " + bytes.length + " "
+				+ file.getAbsolutePath() + "\n", bytes);
+		return receive();
+	}
+
+	/**
+	 * Requests the server to stop.
+	 *
+	 * @throws IOException
+	 *             If the server could not be reached.
+	 */
+	public void shutdown() throws IOException {
+		send(ValidationProtocol.SHUTDOWN + "\n", null);
+	}
+
+	private void send(String request, byte[] content) throws IOException {
+		this.out.write(request.getBytes("UTF-8"));
+		if (content != null) {
+			this.out.write(content);
+		}
+		this.out.flush();
+	}
+
+	private List<String> receive() throws IOException {
+		List<String> reply = new ArrayList<String>();
+		String line;
+		do {
+			line = ValidationProtocol.readLine(this.in);
+			if (line == null) {
+				throw new EOFException("The server closed the connection");
+			}
+			reply.add(line);
+		} while (line.startsWith(ValidationProtocol.DIAGNOSTIC));
+		return reply;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.socket.close();
+	}
+
+	public static void main(String[] args) {
+		int port = ValidationProtocol.DEFAULT_PORT;
+		boolean shutdown = false;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-shutdown")) {
+				shutdown = true;
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		int status = 0;
+		try (ValidationClient client = new ValidationClient(port)) {
+			for (File file : files) {
+				for (String line : client.validate(file)) {
+					String[] fields = line.split("\t");
+					if (fields[0].equals(ValidationProtocol.DIAGNOSTIC)) {
+						// file:line:position: kind: message
+						System.out.println(fields[2] + ":" + fields[3] + ":"
+								+ fields[4] + ": " + fields[1] + ": "
+								+ fields[6]);
+						if (!fields[1].equals(ValidationProtocol.WARNING)) {
+							status = Math.max(status, 1);
+						}
+					} else if (fields[0].equals(ValidationProtocol.FAILED)) {
+						System.out.println(file + ": " + fields[1]);
+						status = 2;
+					}
+				}
+			}
+			if (shutdown) {
+				client.shutdown();
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			status = 2;
+		}
+		System.exit(status);
+	}
+}
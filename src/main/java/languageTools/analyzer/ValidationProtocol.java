@@ -0,0 +1,152 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+
+/**
+ * The requests and replies of the protocol between a {@link ValidationServer}
+ * and its clients. Requests and replies are lines of UTF-8 text, of which the
+ * fields are separated by spaces and tabs respectively.
+ *
+ * <p>
+ * This class does not depend on the validators, so that clients only need to
+ * load a few classes.
+ * </p>
+ */
+public final class ValidationProtocol {
+	/**
+	 * The port a server listens on by default.
+	 */
+	public static final int DEFAULT_PORT = 7357;
+
+	/**
+	 * {@code VALIDATE <path>}: validates the file at the (absolute) path. The
+	 * path is the rest of the line, and may contain spaces.
+	 */
+	public static final String VALIDATE = "VALIDATE";
+	/**
+	 * {@code CONTENT <length> <path>}, followed by {@code length} bytes of
+	 * content: validates the content as if it were the content of the file at
+	 * the path, e.g. for a file that is being edited and has not been saved
+	 * yet. The length can be at most {@link #MAX_CONTENT_LENGTH}.
+	 */
+	public static final String CONTENT = "CONTENT";
+	/**
+	 * {@code STATS}: replies with a {@code STATS} line of which the fields are
+	 * the numbers of hits and misses of the module cache of the server.
+	 */
+	public static final String STATS = "STATS";
+	/**
+	 * {@code SHUTDOWN}: stops the server.
+	 */
+	public static final String SHUTDOWN = "SHUTDOWN";
+
+	/**
+	 * The reply for a syntax error, error or warning; its fields are the kind
+	 * of message, the file, line number and character position of its source,
+	 * the type of message and the message itself. The fields of a message
+	 * without source are empty.
+	 */
+	public static final String DIAGNOSTIC = "DIAGNOSTIC";
+	/**
+	 * The reply that ends the diagnostics of a file; its fields are the number
+	 * of syntax errors, errors and warnings, and the time in milliseconds it
+	 * took to validate the file.
+	 */
+	public static final String DONE = "END";
+	/**
+	 * The reply to a request that could not be handled; its field is the
+	 * reason.
+	 */
+	public static final String FAILED = "FAILED";
+
+	/**
+	 * The kinds of diagnostics.
+	 */
+	public static final String SYNTAX_ERROR = "syntaxerror";
+	public static final String ERROR = "error";
+	public static final String WARNING = "warning";
+
+	/**
+	 * The maximum length in bytes of a request or reply line.
+	 */
+	public static final int MAX_LINE_LENGTH = 1024 * 1024;
+	/**
+	 * The maximum length in bytes of the content of a {@code CONTENT}
+	 * request.
+	 */
+	public static final int MAX_CONTENT_LENGTH = 256 * 1024 * 1024;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ValidationProtocol() {
+	}
+
+	/**
+	 * Escapes backslashes, tabs and line separators, so that a text fits in a
+	 * field of a line.
+	 *
+	 * @param text
+	 *            A text.
+	 * @return The escaped text.
+	 */
+	public static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\t", "\\t")
+				.replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	/**
+	 * Reads a line of UTF-8 text. The content of a request follows its line
+	 * directly, so the input can not be buffered by a reader.
+	 *
+	 * @param in
+	 *            The input.
+	 * @return The line without the line separator, or {@code null} if the end
+	 *         of the input was reached.
+	 * @throws ProtocolException
+	 *             If the line is longer than {@link #MAX_LINE_LENGTH}.
+	 * @throws IOException
+	 *             If the input could not be read, or ended within a line.
+	 */
+	public static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				if (line.size() == 0) {
+					return null;
+				}
+				throw new EOFException("Unexpected end of line");
+			}
+			if (line.size() == MAX_LINE_LENGTH) {
+				throw new ProtocolException("Expected line of at most "
+						+ MAX_LINE_LENGTH + " bytes");
+			}
+			line.write(b);
+		}
+		String text = new String(line.toByteArray(), UTF8);
+		return text.endsWith("\r") ? text.substring(0, text.length() - 1)
+				: text;
+	}
+}
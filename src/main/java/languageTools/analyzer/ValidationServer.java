@@ -0,0 +1,322 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer;
+
+import static languageTools.analyzer.ValidationProtocol.CONTENT;
+import static languageTools.analyzer.ValidationProtocol.DIAGNOSTIC;
+import static languageTools.analyzer.ValidationProtocol.DONE;
+import static languageTools.analyzer.ValidationProtocol.ERROR;
+import static languageTools.analyzer.ValidationProtocol.FAILED;
+import static languageTools.analyzer.ValidationProtocol.MAX_CONTENT_LENGTH;
+import static languageTools.analyzer.ValidationProtocol.SHUTDOWN;
+import static languageTools.analyzer.ValidationProtocol.STATS;
+import static languageTools.analyzer.ValidationProtocol.SYNTAX_ERROR;
+import static languageTools.analyzer.ValidationProtocol.UTF8;
+import static languageTools.analyzer.ValidationProtocol.VALIDATE;
+import static languageTools.analyzer.ValidationProtocol.WARNING;
+import static languageTools.analyzer.ValidationProtocol.escape;
+import static languageTools.analyzer.ValidationProtocol.readLine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import krTools.KRInterface;
+import krTools.parser.SourceInfo;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.mas.MASValidator;
+import languageTools.analyzer.module.ModuleCache;
+import languageTools.analyzer.module.ModuleValidator;
+import languageTools.analyzer.test.TestValidator;
+import languageTools.errors.Message;
+import languageTools.parser.DFACache;
+import languageTools.utils.Extension;
+
+/**
+ * Validates files on request of clients that connect to a socket on the
+ * loopback address, so that clients such as editors and commit hooks do not
+ * need to start a JVM for every file. The KR interface, the module cache and
+ * the DFAs built by the parsers are kept between requests.
+ *
+ * <p>
+ * A client can send any number of requests over a connection; the requests
+ * and replies are described by {@link ValidationProtocol}. A validation
+ * request is replied to with a {@code DIAGNOSTIC} line for every syntax error,
+ * error and warning, followed by an {@code END} line. A request that can not
+ * be handled is replied to with a {@code FAILED} line; if the rest of the
+ * input can not be understood, e.g. after the length of invalid content, the
+ * connection is closed after that line.
+ * </p>
+ */
+public class ValidationServer implements Closeable {
+	private final KRInterface kri;
+	private final ServerSocket socket;
+	private final ModuleCache moduleCache = new ModuleCache();
+	private final ExecutorService pool;
+
+	/**
+	 * Creates a server listening on a port of the loopback address. The DFAs
+	 * of the parsers are warmed up first, so that the first requests are not
+	 * served slower than later ones.
+	 *
+	 * @param port
+	 *            The port to listen on, or 0 to use any free port.
+	 * @param threads
+	 *            The number of clients that can be served concurrently.
+	 * @param kri
+	 *            The KR interface used for agent and module files.
+	 * @throws IOException
+	 *             If the port could not be listened on, or the DFAs could not
+	 *             be warmed up.
+	 */
+	public ValidationServer(int port, int threads, KRInterface kri)
+			throws IOException {
+		DFACache.warmUp();
+		this.kri = kri;
+		this.socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+	}
+
+	/**
+	 * @return The port the server listens on.
+	 */
+	public int getPort() {
+		return this.socket.getLocalPort();
+	}
+
+	/**
+	 * @return The cache of the module files imported by the validated files.
+	 */
+	public ModuleCache getModuleCache() {
+		return this.moduleCache;
+	}
+
+	/**
+	 * Accepts clients until the server is closed or a client requests it to
+	 * shut down.
+	 */
+	public void serve() {
+		try {
+			while (true) {
+				final Socket client = this.socket.accept();
+				this.pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(client);
+					}
+				});
+			}
+		} catch (IOException e) {
+			// The server was closed
+		} finally {
+			this.pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Handles the requests of a client until it closes the connection, or
+	 * sends input that can not be understood.
+	 */
+	private void serve(Socket client) {
+		try (Socket connection = client) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					connection.getInputStream()));
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					connection.getOutputStream(), UTF8));
+			while (true) {
+				try {
+					String request = readLine(in);
+					if (request == null) {
+						return;
+					}
+					if (request.equals(SHUTDOWN)) {
+						close();
+						return;
+					}
+					handle(request, in, out);
+				} catch (ProtocolException e) {
+					out.write(FAILED + "\t" + escape(e.getMessage()) + "\n");
+					out.flush();
+					return;
+				} catch (RuntimeException e) {
+					// Keep serving the client (and others) if validating a file
+					// fails
+					out.write(FAILED + "\t" + escape(e.toString()) + "\n");
+				}
+				out.flush();
+			}
+		} catch (SocketException e) {
+			// The client closed the connection
+		} catch (IOException e) {
+			// TODO: use logger.
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Handles a request of a client.
+	 *
+	 * @throws ProtocolException
+	 *             If the length of the content of the request is invalid, so
+	 *             that the content can not be skipped.
+	 */
+	private void handle(String request, DataInputStream in, Writer out)
+			throws IOException {
+		String[] fields = request.split(" ", 3);
+		String content = null;
+		String path;
+		if (fields[0].equals(VALIDATE) && fields.length > 1) {
+			// The path may contain spaces
+			path = request.substring(VALIDATE.length() + 1);
+		} else if (fields[0].equals(CONTENT) && fields.length == 3) {
+			int length;
+			try {
+				length = Integer.parseInt(fields[1]);
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("Expected length but got: "
+						+ fields[1]);
+			}
+			if (length < 0 || length > MAX_CONTENT_LENGTH) {
+				throw new ProtocolException("Expected length of at most "
+						+ MAX_CONTENT_LENGTH + " but got: " + length);
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			content = new String(bytes, UTF8);
+			path = fields[2];
+		} else if (fields[0].equals(STATS)) {
+			out.write(STATS + "\t" + this.moduleCache.getHits() + "\t"
+					+ this.moduleCache.getMisses() + "\n");
+			return;
+		} else {
+			out.write(FAILED + "\tUnknown request: " + escape(request) + "\n");
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		Validator<?, ?, ?, ?> validator = validate(new File(path), content);
+		if (validator == null) {
+			out.write(FAILED
+					+ "\tExpected file with extension 'goal', 'mas2g', 'mod2g', or 'test2g'\n");
+			return;
+		}
+		long elapsedTime = (System.nanoTime() - startTime) / 1000000;
+		for (Message error : validator.getSyntaxErrors()) {
+			out.write(diagnostic(SYNTAX_ERROR, error));
+		}
+		for (Message error : validator.getErrors()) {
+			out.write(diagnostic(ERROR, error));
+		}
+		for (Message warning : validator.getWarnings()) {
+			out.write(diagnostic(WARNING, warning));
+		}
+		out.write(DONE + "\t" + validator.getSyntaxErrors().size() + "\t"
+				+ validator.getErrors().size() + "\t"
+				+ validator.getWarnings().size() + "\t" + elapsedTime + "\n");
+	}
+
+	/**
+	 * Validates a file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param content
+	 *            The content to validate instead of the content of the file, or
+	 *            {@code null} to validate the file itself.
+	 * @return The validator of the file, or {@code null} if the file is not a
+	 *         MAS, agent, module or test file.
+	 */
+	private Validator<?, ?, ?, ?> validate(File file, String content)
+			throws IOException {
+		Validator<?, ?, ?, ?> validator;
+		switch (Extension.getFileExtension(file)) {
+		case GOAL:
+			AgentValidator agent = new AgentValidator(file.getPath());
+			agent.setKRInterface(this.kri);
+			agent.setModuleCache(this.moduleCache);
+			validator = agent;
+			break;
+		case MOD2G:
+			if (content == null) {
+				// Validate the module from its cached parse
+				return this.moduleCache.get(file, this.kri);
+			}
+			ModuleValidator module = new ModuleValidator(file.getPath());
+			module.setKRInterface(this.kri);
+			validator = module;
+			break;
+		case MAS2G:
+			validator = new MASValidator(file.getPath());
+			break;
+		case TEST2G:
+			validator = new TestValidator(file.getPath());
+			break;
+		default:
+			return null;
+		}
+		if (content != null) {
+			validator.override(content);
+		}
+		validator.validate();
+		return validator;
+	}
+
+	/**
+	 * Formats a message as a {@link ValidationProtocol#DIAGNOSTIC} line.
+	 *
+	 * @param kind
+	 *            The kind of message, e.g. {@link ValidationProtocol#ERROR}.
+	 * @param message
+	 *            The message.
+	 * @return The diagnostic, including the line separator.
+	 */
+	public static String diagnostic(String kind, Message message) {
+		SourceInfo source = message.getSource();
+		StringBuilder line = new StringBuilder(DIAGNOSTIC);
+		line.append('\t').append(kind).append('\t');
+		if (source != null) {
+			if (source.getSource() != null) {
+				line.append(escape(source.getSource().getPath()));
+			}
+			line.append('\t').append(source.getLineNumber()).append('\t')
+					.append(source.getCharacterPosition());
+		} else {
+			line.append("\t\t");
+		}
+		line.append('\t').append(message.getType()).append('\t')
+				.append(escape(message.toShortString())).append('\n');
+		return line.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.socket.close();
+	}
+}
@@ -20,13 +20,15 @@ import languageTools.errors.ValidatorError;
 import languageTools.errors.ValidatorError.ValidatorErrorType;
 import languageTools.errors.ValidatorWarning;
 import languageTools.errors.ValidatorWarning.ValidatorWarningType;
+import languageTools.parser.DecisionProfile;
 import languageTools.parser.InputStreamPosition;
 import languageTools.parser.MyLexer;
+import languageTools.parser.Utf8FileStream;
 import languageTools.program.Program;
 
 import org.antlr.v4.runtime.ANTLRErrorListener;
-import org.antlr.v4.runtime.ANTLRFileStream;
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonToken;
 import org.antlr.v4.runtime.CommonTokenStream;
@@ -36,12 +38,18 @@ import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
 import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
 import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.PredictionMode;
 import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.misc.NotNull;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.RuleNode;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.apache.commons.io.FilenameUtils;
@@ -57,6 +65,12 @@ import org.apache.commons.io.FilenameUtils;
  * detected problems. It may also generate {@link ValidatorWarning}s. Upon
  * completion, {@link #validate()} sets a flag in the program which indicates
  * whether the program is valid or not.
+ *
+ * A validator is not thread-safe: it should be used by a single thread only.
+ * Different validators may be used concurrently by different threads, as they
+ * do not share any mutable state other than the DFAs of the (generated) lexers
+ * and parsers, which ANTLR updates in a thread-safe way, and the KR interface,
+ * which should therefore support concurrent use too.
  */
 public abstract class Validator<L extends MyLexer<?>, P extends Parser, E extends MyErrorStrategy, Q extends Program>
 implements ANTLRErrorListener {
@@ -75,9 +89,29 @@ implements ANTLRErrorListener {
 	 * Lexer generated tokens.
 	 */
 	private CommonTokenStream tokens;
+	/**
+	 * Parse tree of the program.
+	 */
+	private ParseTree tree;
 	private final SortedSet<Message> syntaxErrors = new TreeSet<Message>();
 	private final SortedSet<Message> errors = new TreeSet<Message>();
 	private final SortedSet<Message> warnings = new TreeSet<Message>();
+	/**
+	 * Number of times the file has been parsed, and the number of times the
+	 * fast SLL parse failed and the file had to be parsed again in full LL
+	 * mode.
+	 */
+	private int parseCount = 0;
+	private int fallbackCount = 0;
+	/**
+	 * Whether the program should be built while parsing the file; see
+	 * {@link #setStreaming(boolean)}.
+	 */
+	private boolean streaming = false;
+	/**
+	 * The profile to add the decisions made by the parser to, if any.
+	 */
+	private DecisionProfile profile;
 
 	/**
 	 * Creates the validator.
@@ -121,7 +155,9 @@ implements ANTLRErrorListener {
 	/**
 	 * Gets the error strategy.
 	 *
-	 * A validator should need only one instance of this.
+	 * A validator should need only one instance of this. As error strategies
+	 * keep the state of the error recovery of the parser that uses them, this
+	 * instance should not be shared with other validators.
 	 *
 	 * @return The error strategy used by this {@link #Validator(String)}.
 	 */
@@ -144,21 +180,31 @@ implements ANTLRErrorListener {
 	}
 
 	/**
-	 * Parses the file to be validated.
+	 * Creates a token stream for the file (or the content it has been
+	 * overridden with). The tokens are pulled from the lexer lazily, i.e., only
+	 * when the stream is read or filled.
+	 *
+	 * @return A token stream for the file.
+	 * @throws IOException
+	 *             If the file does not exist.
 	 */
+	protected CommonTokenStream lexFile() throws IOException {
+		// Create a buffer of tokens pulled from the lexer.
+		return new CommonTokenStream(getFileLexer());
+	}
+
 	/**
-	 * Parses the file.
+	 * Creates a lexer for the file (or the content it has been overridden
+	 * with).
 	 *
-	 * @return The ANTLR parser for the file.
+	 * @return A lexer for the file.
 	 * @throws IOException
 	 *             If the file does not exist.
 	 */
-	private ParseTree parseFile() throws IOException {
+	private L getFileLexer() throws IOException {
 		CharStream stream;
 		if (this.override == null) {
-			ANTLRFileStream fileStream = new ANTLRFileStream(getFilename());
-			fileStream.name = this.filename;
-			stream = fileStream;
+			stream = new Utf8FileStream(this.filename);
 		} else {
 			ANTLRInputStream stringStream = new ANTLRInputStream(this.override);
 			stringStream.name = this.filename;
@@ -167,23 +213,162 @@ implements ANTLRErrorListener {
 
 		// Create a lexer that feeds off of input CharStream (also redirects
 		// error listener).
-		L lexer = getNewLexer(stream, this);
+		return getNewLexer(stream, this);
+	}
 
-		// Create a buffer of tokens pulled from the lexer.
-		this.tokens = new CommonTokenStream(lexer);
+	/**
+	 * Parses the file.
+	 *
+	 * @return The ANTLR parser for the file.
+	 * @throws IOException
+	 *             If the file does not exist.
+	 */
+	private ParseTree parseFile() throws IOException {
+		return parse(lexFile());
+	}
 
-		// generatedTokens = lexer.getAllTokens();
+	/**
+	 * Parses a stream of tokens, which becomes the token stream of this
+	 * validator.
+	 *
+	 * @param tokens
+	 *            The tokens to parse.
+	 * @return The parse tree.
+	 */
+	protected ParseTree parse(CommonTokenStream tokens) {
+		this.tokens = tokens;
 
 		// Create a parser that feeds off the tokens buffer.
 		P parser = getNewParser(this.tokens);
-		// Use custom error reporting
-		parser.setErrorHandler(getTheErrorStrategy());
-		// Redirect error output
-		parser.removeErrorListeners();
-		parser.addErrorListener(this);
-		// Parse file
 		parser.setBuildParseTree(true);
-		return startParser();
+		if (this.profile != null) {
+			parser.setProfile(true);
+		}
+		this.parseCount++;
+
+		try {
+			// First stage: parse using the (much faster) SLL prediction mode
+			// without any error recovery or reporting. Syntactically correct
+			// files almost always parse fine in this mode.
+			parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+			parser.setErrorHandler(new BailErrorStrategy());
+			parser.removeErrorListeners();
+			try {
+				return startParser();
+			} catch (ParseCancellationException e) {
+				// Either the file contains a syntax error or SLL was not
+				// powerful enough; fall back to full LL parsing below.
+			}
+
+			// Second stage: parse the buffered tokens again using full LL
+			// prediction with our custom error reporting. The lexer is not run
+			// again, so lexer errors are reported only once.
+			this.fallbackCount++;
+			parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+			// Use custom error reporting
+			parser.setErrorHandler(getTheErrorStrategy());
+			// Redirect error output
+			parser.addErrorListener(this);
+			// Rewinds the token stream
+			parser.reset();
+			return startParser();
+		} finally {
+			addToProfile(parser);
+		}
+	}
+
+	/**
+	 * @return The tokens of the file that was validated, or {@code null} if
+	 *         the file has not been parsed (yet).
+	 */
+	public CommonTokenStream getTokenStream() {
+		return this.tokens;
+	}
+
+	/**
+	 * @return The parse tree of the file that was validated, or {@code null}
+	 *         if the file has not been parsed (yet).
+	 */
+	public ParseTree getParseTree() {
+		return this.tree;
+	}
+
+	/**
+	 * @return The content of the file that was validated, or {@code null} if
+	 *         the file has not been parsed (yet).
+	 */
+	public String getContent() {
+		if (this.tokens == null) {
+			return null;
+		}
+		CharStream stream = this.tokens.getTokenSource().getInputStream();
+		return stream.getText(Interval.of(0, stream.size() - 1));
+	}
+
+	/**
+	 * Sets whether the program should be built while the file is being
+	 * parsed, for validators that support this (see
+	 * {@link #getStreamingListener()}). Tokens are then only buffered for as
+	 * long as the parser needs them, and the parse tree of each top-level
+	 * construct is dropped as soon as it has been processed, so that neither
+	 * the tokens nor the parse tree of the whole file are kept in memory. The
+	 * file is parsed only once, in full LL mode. As a consequence,
+	 * {@link #getTokenStream()}, {@link #getParseTree()} and
+	 * {@link #getContent()} return {@code null} after validation in this
+	 * mode.
+	 *
+	 * @param streaming
+	 *            {@code true} to build the program while parsing.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Sets the profile that the decisions made by the parser(s) for the file
+	 * should be added to. Parsing is slower when profiling. A profile may be
+	 * shared by validators that run concurrently.
+	 *
+	 * @param profile
+	 *            The profile, or {@code null} to not profile the parser.
+	 */
+	public void setProfile(DecisionProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Provides the listener that builds (parts of) the program while the file
+	 * is being parsed, if the program should be built while parsing (see
+	 * {@link #setStreaming(boolean)}). The listener is notified of every rule
+	 * that is exited, and may remove the parse tree of that rule from its
+	 * parent once it has been processed. What remains of the parse tree is
+	 * processed by the first and second pass as usual.
+	 *
+	 * <p>
+	 * The program has been created when this method is called. The default
+	 * implementation returns {@code null}, which means the validator does not
+	 * support building the program while parsing.
+	 * </p>
+	 *
+	 * @return A listener that builds the program, or {@code null}.
+	 */
+	protected ParseTreeListener getStreamingListener() {
+		return null;
+	}
+
+	/**
+	 * @return The number of times the file has been parsed by this validator.
+	 */
+	public int getParseCount() {
+		return this.parseCount;
+	}
+
+	/**
+	 * @return The number of times parsing the file in SLL mode failed and the
+	 *         file had to be parsed again in full LL mode.
+	 */
+	public int getFallbackCount() {
+		return this.fallbackCount;
 	}
 
 	/**
@@ -193,6 +378,16 @@ implements ANTLRErrorListener {
 	 */
 	public void validate() {
 		try {
+			if (this.streaming) {
+				// Initialize program; file existence is checked by the parser
+				this.program = getNewProgram(new File(getFilename()));
+				ParseTreeListener listener = getStreamingListener();
+				if (listener != null) {
+					streamFile(listener);
+					return;
+				}
+			}
+
 			// Prepare by parsing the file.
 			ParseTree tree = null;
 			try {
@@ -202,17 +397,55 @@ implements ANTLRErrorListener {
 				return;
 			}
 
-			// Initialize program; file existence is checked above
-			this.program = getNewProgram(new File(getFilename()));
+			buildProgram(tree);
+		} catch (Exception e) {
+			// Convert stack trace to string
+			StringWriter sw = new StringWriter();
+			e.printStackTrace(new PrintWriter(sw));
+			reportError(SyntaxError.FATAL, null,
+					e.getMessage() + "\n" + sw.toString());
+		}
+	}
 
-			// Build and validate program
-			firstPass(tree);
-			secondPass(tree);
+	/**
+	 * Parses the file without building the program, so that the tokens and
+	 * parse tree can be used by other validators of the same file; see
+	 * {@link #validate(Validator)}. Syntax errors are reported as usual.
+	 */
+	public void parse() {
+		try {
+			this.tree = parseFile();
+		} catch (IOException e) {
+			reportError(SyntaxError.FILE_COULDNOT_OPEN, null, getFilename());
+		} catch (Exception e) {
+			// Convert stack trace to string
+			StringWriter sw = new StringWriter();
+			e.printStackTrace(new PrintWriter(sw));
+			reportError(SyntaxError.FATAL, null,
+					e.getMessage() + "\n" + sw.toString());
+		}
+	}
 
-			// Set validity flag; a program is valid if it did not generate any
-			// parsing or validation errors
-			this.program.setValid(getSyntaxErrors().isEmpty()
-					&& getErrors().isEmpty());
+	/**
+	 * Builds and validates a new program for the file from the tokens and
+	 * parse tree of another validator, which has parsed the same file (see
+	 * {@link #parse()}). The syntax errors of the other validator are copied.
+	 * Neither the tokens nor the parse tree are changed, so several
+	 * validators, also in different threads, can build their own program
+	 * from the same parse.
+	 *
+	 * @param parsed
+	 *            A validator that has parsed the file.
+	 */
+	public void validate(Validator<L, P, E, Q> parsed) {
+		this.syntaxErrors.addAll(parsed.getSyntaxErrors());
+		if (parsed.getParseTree() == null) {
+			// The file could not be parsed
+			return;
+		}
+		try {
+			this.tokens = parsed.getTokenStream();
+			buildProgram(parsed.getParseTree());
 		} catch (Exception e) {
 			// Convert stack trace to string
 			StringWriter sw = new StringWriter();
@@ -222,6 +455,100 @@ implements ANTLRErrorListener {
 		}
 	}
 
+	/**
+	 * Builds and validates the program for a parse tree of the file.
+	 *
+	 * @param tree
+	 *            Parse tree of program.
+	 */
+	protected void buildProgram(ParseTree tree) {
+		this.tree = tree;
+
+		// Initialize program; file existence is checked by the parser
+		this.program = getNewProgram(new File(getFilename()));
+
+		validateProgram(tree);
+	}
+
+	/**
+	 * Parses the file while building the program, without keeping the tokens
+	 * and parse tree of the file; see {@link #setStreaming(boolean)}.
+	 *
+	 * @param listener
+	 *            The listener that builds the program while parsing.
+	 */
+	private void streamFile(ParseTreeListener listener) {
+		this.tokens = null;
+		this.tree = null;
+
+		L lexer = null;
+		try {
+			lexer = getFileLexer();
+		} catch (IOException e) {
+			reportError(SyntaxError.FILE_COULDNOT_OPEN, null, getFilename());
+			return;
+		}
+
+		// The unbuffered stream drops tokens as soon as the parser no longer
+		// needs them for its decisions; tokens only remain reachable through
+		// the parse tree until the listener has processed and removed it.
+		P parser = getNewParser(new DefaultChannelTokenStream(lexer));
+		parser.setBuildParseTree(true);
+		if (this.profile != null) {
+			parser.setProfile(true);
+		}
+		this.parseCount++;
+
+		// The tokens cannot be rewound, so parse with full LL prediction and
+		// our custom error reporting right away.
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		parser.setErrorHandler(getTheErrorStrategy());
+		// Forget the error recovery state of any earlier parse
+		getTheErrorStrategy().reset(parser);
+		parser.removeErrorListeners();
+		parser.addErrorListener(this);
+		parser.addParseListener(listener);
+
+		ParseTree tree = null;
+		try {
+			tree = startParser();
+		} finally {
+			addToProfile(parser);
+		}
+		validateProgram(tree);
+	}
+
+	/**
+	 * Adds the decisions made by a parser to the profile of this validator, if
+	 * any.
+	 *
+	 * @param parser
+	 *            A parser that has parsed (part of) the file.
+	 */
+	private void addToProfile(P parser) {
+		if (this.profile != null) {
+			this.profile.add(parser);
+		}
+	}
+
+	/**
+	 * Builds and validates the (initialized) program for a parse tree of the
+	 * file.
+	 *
+	 * @param tree
+	 *            Parse tree of program.
+	 */
+	private void validateProgram(ParseTree tree) {
+		// Build and validate program
+		firstPass(tree);
+		secondPass(tree);
+
+		// Set validity flag; a program is valid if it did not generate any
+		// parsing or validation errors
+		this.program.setValid(getSyntaxErrors().isEmpty()
+				&& getErrors().isEmpty());
+	}
+
 	/**
 	 * First pass over parsed program.
 	 *
@@ -284,10 +611,19 @@ implements ANTLRErrorListener {
 	 * Dumps all tokens to console.
 	 */
 	public void printLexerTokens() {
+		System.out.print(lexerTokens());
+	}
+
+	/**
+	 * @return All tokens, as dumped by {@link #printLexerTokens()}.
+	 */
+	public String lexerTokens() {
+		StringBuilder tokens = new StringBuilder();
 		for (Token token : this.tokens.getTokens()) {
-			System.out.print("'" + token.getText() + "<" + token.getType()
+			tokens.append("'" + token.getText() + "<" + token.getType()
 					+ ">' ");
 		}
+		return tokens.toString();
 	}
 
 	/**
@@ -715,4 +1051,31 @@ implements ANTLRErrorListener {
 		}
 		return builder.toString();
 	}
+
+	/**
+	 * Unbuffered token stream that, like a {@link CommonTokenStream}, only
+	 * passes the tokens on the default channel on to the parser.
+	 */
+	private static class DefaultChannelTokenStream extends
+	UnbufferedTokenStream<Token> {
+		DefaultChannelTokenStream(TokenSource source) {
+			super(source);
+		}
+
+		@Override
+		protected int fill(int count) {
+			for (int i = 0; i < count; i++) {
+				if (this.n > 0
+						&& this.tokens[this.n - 1].getType() == Token.EOF) {
+					return i;
+				}
+				Token token = this.tokenSource.nextToken();
+				while (token.getChannel() != Token.DEFAULT_CHANNEL) {
+					token = this.tokenSource.nextToken();
+				}
+				add(token);
+			}
+			return count;
+		}
+	}
 }
@@ -19,11 +19,9 @@ package languageTools.analyzer.agent;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.lang.reflect.InvocationTargetException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -43,7 +41,9 @@ import krTools.language.Update;
 import krTools.language.Var;
 import krTools.parser.Parser;
 import krTools.parser.SourceInfo;
+import languageTools.analyzer.FragmentCache;
 import languageTools.analyzer.Validator;
+import languageTools.analyzer.module.ModuleCache;
 import languageTools.errors.ParserError.SyntaxError;
 import languageTools.errors.agent.AgentError;
 import languageTools.errors.agent.AgentErrorStrategy;
@@ -79,6 +79,7 @@ import languageTools.parser.GOAL.RuleEvaluationOrderContext;
 import languageTools.parser.GOAL.SelectorContext;
 import languageTools.parser.GOALVisitor;
 import languageTools.parser.InputStreamPosition;
+import languageTools.parser.Utf8FileStream;
 import languageTools.parser.agent.MyGOALLexer;
 import languageTools.program.agent.ActionSpecification;
 import languageTools.program.agent.AgentProgram;
@@ -88,7 +89,8 @@ import languageTools.program.agent.Module.FocusMethod;
 import languageTools.program.agent.Module.RuleEvaluationOrder;
 import languageTools.program.agent.Module.TYPE;
 import languageTools.program.agent.actions.*;
-import languageTools.program.agent.actions.parameter.ActionToken;
+import languageTools.program.agent.actions.parameter.ParameterActionFactory;
+import languageTools.program.agent.actions.parameter.ParameterActions;
 import languageTools.program.agent.msc.AGoalLiteral;
 import languageTools.program.agent.msc.BelLiteral;
 import languageTools.program.agent.msc.GoalALiteral;
@@ -116,10 +118,11 @@ import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.misc.NotNull;
+import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ErrorNodeImpl;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.TerminalNode;
-import org.reflections.Reflections;
 
 /**
  * Validates an agent or module file and constructs an agent program or module.
@@ -134,13 +137,22 @@ Validator<MyGOALLexer, GOAL, AgentErrorStrategy, AgentProgram>
 implements GOALVisitor {
 
 	private GOAL parser;
-	private static AgentErrorStrategy strategy = null;
+	private final AgentErrorStrategy strategy = new AgentErrorStrategy();
 
 	/**
 	 * Knowledge representation interface used for parsing the contents of
 	 * beliefs, etc.
 	 */
 	private KRInterface kri;
+	/**
+	 * Cache used for parsing KR fragments that represent terms, if any.
+	 */
+	private FragmentCache fragmentCache = FragmentCache.getDefault();
+
+	/**
+	 * Cache of the validated module files imported by agents, if any.
+	 */
+	private ModuleCache moduleCache;
 
 	/**
 	 * For agent validation, we use three symbol tables. The first is used for
@@ -152,16 +164,12 @@ implements GOALVisitor {
 	private final SymbolTable actionSymbols = new SymbolTable();
 	private Scope varSymbols = new SymbolTable();
 
-    private HashMap<Integer,Class<? extends ParameterAction>> parameterActions;
-
 	public AgentValidator(String filename) {
 		super(filename);
-        parseParameterActions();
 	}
 
 	public AgentValidator(String filename, AgentProgram program) {
-	    super(filename, program);
-        parseParameterActions();
+		super(filename, program);
 	}
 
 	@Override
@@ -171,22 +179,9 @@ implements GOALVisitor {
 
 	@Override
 	protected AgentErrorStrategy getTheErrorStrategy() {
-		if (strategy == null) {
-			strategy = new AgentErrorStrategy();
-		}
-		return strategy;
+		return this.strategy;
 	}
 
-    private void parseParameterActions() {
-        parameterActions = new HashMap<>();
-        Reflections reflections = new Reflections("languageTools.program.agent.actions.parameter");
-        Set<Class<? extends ParameterAction>> paramActions = reflections.getSubTypesOf(ParameterAction.class);
-        for(Class<? extends ParameterAction> paramAction : paramActions){
-            ActionToken actionToken = paramAction.getAnnotation(ActionToken.class);
-            parameterActions.put(actionToken.value(),paramAction);
-        }
-    }
-
 	/**
 	 * Sets the KR interface that should be used for parsing KR fragments.
 	 *
@@ -197,6 +192,39 @@ implements GOALVisitor {
 		this.kri = kri;
 	}
 
+	/**
+	 * Sets the cache used for parsing the KR fragments that represent terms,
+	 * such as the parameters of actions. By default, the cache shared by all
+	 * validators is used.
+	 *
+	 * @param fragmentCache
+	 *            The fragment cache, or {@code null} to parse every fragment.
+	 */
+	public void setFragmentCache(FragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
+	/**
+	 * Sets the cache used for getting the validated module files imported by
+	 * the agent, so that module files imported by several agents are
+	 * validated only once. Without a cache, imported module files are always
+	 * validated.
+	 *
+	 * @param moduleCache
+	 *            The module cache, or {@code null} to not use a cache.
+	 */
+	public void setModuleCache(ModuleCache moduleCache) {
+		this.moduleCache = moduleCache;
+	}
+
+	/**
+	 * @return The module cache used by this validator, or {@code null} if it
+	 *         does not use one.
+	 */
+	public ModuleCache getModuleCache() {
+		return this.moduleCache;
+	}
+
 	/**
 	 * @return Symbol table with action and module symbols.
 	 */
@@ -238,6 +266,36 @@ implements GOALVisitor {
 		return new AgentProgram(new InputStreamPosition(0, 0, 0, 0, file));
 	}
 
+	/**
+	 * Builds each module as soon as it has been parsed, after which its parse
+	 * tree is dropped. Module imports are processed by the first pass.
+	 */
+	@Override
+	protected ParseTreeListener getStreamingListener() {
+		getProgram().setKRInterface(this.kri);
+		return new ParseTreeListener() {
+			@Override
+			public void exitEveryRule(ParserRuleContext ctx) {
+				if (ctx instanceof ModuleContext) {
+					visitModule((ModuleContext) ctx);
+					ctx.getParent().removeLastChild();
+				}
+			}
+
+			@Override
+			public void enterEveryRule(ParserRuleContext ctx) {
+			}
+
+			@Override
+			public void visitTerminal(TerminalNode node) {
+			}
+
+			@Override
+			public void visitErrorNode(ErrorNode node) {
+			}
+		};
+	}
+
 	/**
 	 * Calls {@link ParseTree#accept} on the specified tree.
 	 */
@@ -320,6 +378,11 @@ implements GOALVisitor {
 					reportWarning(AgentWarning.MODULE_DUPLICATE_SECTION, kriCtx);
 				} else {
 					knowledge.addAll(visitKrImport(kriCtx));
+					// Keep track of the file, also if it does not exist (yet)
+					File file = getKrImportFile(kriCtx);
+					if (file != null) {
+						module.addImportedFile(file);
+					}
 					hadImport = true;
 				}
 			}
@@ -386,9 +449,8 @@ implements GOALVisitor {
 					Map.Entry<List<Macro>, List<Rule>> program = visitProgram(progCtx);
 					// Add macro to symbol table
 					for (final Macro macro : program.getKey()) {
-						if (!module.getResolvedMacros().define(
-								new MacroSymbol(macro.getSignature(), macro,
-										macro.getSourceInfo()))) {
+						if (!module.defineMacro(new MacroSymbol(macro
+								.getSignature(), macro, macro.getSourceInfo()))) {
 							// report duplicate use of macro symbol
 							reportError(AgentError.MACRO_DUPLICATE_NAME, ctx,
 									macro.getSignature());
@@ -544,9 +606,13 @@ implements GOALVisitor {
 	// Module sections
 	// -------------------------------------------------------------
 
-	@Override
-	public List<DatabaseFormula> visitKrImport(KrImportContext ctx) {
-		List<DatabaseFormula> imported = new ArrayList<>(0);
+	/**
+	 * @param ctx
+	 *            A KR import.
+	 * @return The imported file, or {@code null} if the import does not
+	 *         specify one.
+	 */
+	private File getKrImportFile(KrImportContext ctx) {
 		String path = null;
 		if (ctx.StringLiteral() != null) {
 			// TODO: what is the logic here?
@@ -560,13 +626,17 @@ implements GOALVisitor {
 			String[] parts = text.split("(?<!\\\\)'", 0);
 			path = parts[1].replace("\\'", "'");
 		}
-		File file = (path == null) ? null : new File(
+		return (path == null) ? null : new File(
 				getPathRelativeToSourceFile(path));
+	}
+
+	@Override
+	public List<DatabaseFormula> visitKrImport(KrImportContext ctx) {
+		List<DatabaseFormula> imported = new ArrayList<>(0);
+		File file = getKrImportFile(ctx);
 		// Check existence of file. Extension check handled in grammar.
 		if (file != null && file.exists()) {
-			try {
-				String content = new String(Files.readAllBytes(Paths.get(file
-						.getPath())));
+			try (Reader content = Utf8FileStream.newReader(file)) {
 				imported = visit_KR_DBFs(content, new InputStreamPosition(1, 0,
 						0, 0, file));
 			} catch (Exception e) {
@@ -916,26 +986,14 @@ implements GOALVisitor {
 				return new LogAction(
 						removeLeadTrailCharacters(parlistctx.getText()),
 						getSourceInfo(parlistctx), this.kri);
-            } else {
-                for(int token : parameterActions.keySet()){
-                    if(op.equals(AgentProgram.getTokenName((token)))){
-                        List<Term> params = visit_KR_Terms(argument, getSourceInfo(parlistctx));
-                        Class<? extends ParameterAction> actionClass = parameterActions.get(token);
-                        try {
-                            return actionClass.getDeclaredConstructor(List.class,SourceInfo.class,KRInterface.class).newInstance(
-                                    params,getSourceInfo(parlistctx), this.kri);
-                        } catch (InstantiationException e) {
-                            System.out.println("Error: The constructor of " + actionClass.getName() + " is not correctly specified.");
-                            e.printStackTrace();
-                        } catch (IllegalAccessException e) {
-                            e.printStackTrace();
-                        } catch (InvocationTargetException e) {
-                            e.printStackTrace();
-                        } catch (NoSuchMethodException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+			} else {
+				ParameterActionFactory factory = ParameterActions.get(op);
+				if (factory != null) {
+					List<Term> params = visit_KR_Terms(argument,
+							getSourceInfo(parlistctx));
+					return factory.create(params, getSourceInfo(parlistctx),
+							this.kri);
+				}
 
 				// send actions may have initial mood operator; check
 				SentenceMood mood = getMood(argument);
@@ -1223,7 +1281,7 @@ implements GOALVisitor {
 		for (Term term : parameters) {
 			if (!term.isVar()) {
 				reportError(AgentError.PARAMETER_NOT_A_VARIABLE, ctx,
-						strategy.prettyPrintRuleContext(ctx.getParent()
+						getTheErrorStrategy().prettyPrintRuleContext(ctx.getParent()
 								.getRuleIndex()), term.toString());
 			}
 		}
@@ -1439,7 +1497,18 @@ implements GOALVisitor {
 	 *            The parser that generated the errors.
 	 */
 	private void reportEmbeddedLanguageErrors(Parser parser) {
-		for (SourceInfo error : parser.getErrors()) {
+		reportEmbeddedLanguageErrors(parser.getErrors());
+	}
+
+	/**
+	 * Reports parsing errors that occurred while parsing embedded language
+	 * fragments.
+	 *
+	 * @param errors
+	 *            The errors, with their messages.
+	 */
+	private void reportEmbeddedLanguageErrors(List<SourceInfo> errors) {
+		for (SourceInfo error : errors) {
 			reportError(SyntaxError.EMBEDDED_LANGUAGE_ERROR, error,
 					this.kri.getName(), error.getMessage());
 		}
@@ -1463,12 +1532,27 @@ implements GOALVisitor {
 	 */
 	public List<DatabaseFormula> visit_KR_DBFs(String krFragment,
 			SourceInfo info) {
+		return visit_KR_DBFs(new StringReader(krFragment), info);
+	}
+
+	/**
+	 * Processes embedded KR language content read from a reader, e.g., the
+	 * content of an imported file. Assumes that this content represents a
+	 * list of {@link DatabaseFormula}s.
+	 *
+	 * @param krFragment
+	 *            Reader for the KR content.
+	 * @param info
+	 *            Source info of the KR content.
+	 * @return List of database formulas.
+	 */
+	public List<DatabaseFormula> visit_KR_DBFs(Reader krFragment,
+			SourceInfo info) {
 		List<DatabaseFormula> formulas = new ArrayList<DatabaseFormula>(0);
 
 		// Get the formulas
 		try {
-			Parser parser = this.kri.getParser(new StringReader(krFragment),
-					info);
+			Parser parser = this.kri.getParser(krFragment, info);
 			formulas = parser.parseDBFs();
 
 			// Add errors from parser for embedded language to our own
@@ -1600,6 +1684,14 @@ implements GOALVisitor {
 
 		// Get the term
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				term = this.fragmentCache.getTerm(krFragment, this.kri, info,
+						errors);
+				reportEmbeddedLanguageErrors(errors);
+				return term;
+			}
+
 			Parser parser = this.kri.getParser(new StringReader(krFragment),
 					info);
 			term = parser.parseTerm();
@@ -1631,6 +1723,14 @@ implements GOALVisitor {
 		List<Term> parameters = null;
 
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				parameters = this.fragmentCache.getTerms(krFragment, this.kri,
+						info, errors);
+				reportEmbeddedLanguageErrors(errors);
+				return parameters;
+			}
+
 			Parser parser = this.kri.getParser(new StringReader(krFragment),
 					info);
 			parameters = parser.parseTerms();
@@ -1684,27 +1784,21 @@ implements GOALVisitor {
 		if (call == null || program == null) {
 			return null;
 		}
-		for (Module module : program.getModules()) {
-			if (call.getName().equals(module.getName())
-					&& call.getParameters().size() == module.getParameters()
-					.size()) {
-				return new ModuleCallAction(module, call.getParameters(),
-						call.getSourceInfo(), program.getKRInterface());
-			}
-			for (ActionSpecification specification : module
-					.getActionSpecifications()) {
-				UserSpecAction spec = specification.getAction();
-				if (call.getName().equals(spec.getName())
-						&& call.getParameters().size() == spec.getParameters()
-						.size()) {
-					return new UserSpecAction(call.getName(),
-							call.getParameters(), spec.isExternal(),
-							((MentalLiteral) spec.getPrecondition()
-									.getSubFormulas().get(0)).getFormula(),
-									spec.getPostcondition(), call.getSourceInfo(),
-									program.getKRInterface());
-				}
-			}
+		int arity = call.getParameters().size();
+		Module module = program.getModule(call.getName(), arity);
+		if (module != null) {
+			return new ModuleCallAction(module, call.getParameters(),
+					call.getSourceInfo(), program.getKRInterface());
+		}
+		ActionSpecification specification = program.getActionSpecification(
+				call.getName(), arity);
+		if (specification != null) {
+			UserSpecAction spec = specification.getAction();
+			return new UserSpecAction(call.getName(), call.getParameters(),
+					spec.isExternal(), ((MentalLiteral) spec.getPrecondition()
+							.getSubFormulas().get(0)).getFormula(),
+					spec.getPostcondition(), call.getSourceInfo(),
+					program.getKRInterface());
 		}
 		return null;
 	}
@@ -23,6 +23,7 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,6 +35,7 @@ import krTools.language.Query;
 import krTools.language.Substitution;
 import krTools.language.Term;
 import krTools.language.Var;
+import languageTools.analyzer.module.ModuleCache;
 import languageTools.analyzer.module.ModuleValidator;
 import languageTools.errors.ParserError.SyntaxError;
 import languageTools.errors.agent.AgentError;
@@ -45,9 +47,6 @@ import languageTools.program.agent.Module;
 import languageTools.program.agent.Module.TYPE;
 import languageTools.program.agent.actions.Action;
 import languageTools.program.agent.actions.ActionCombo;
-import languageTools.program.agent.actions.AdoptAction;
-import languageTools.program.agent.actions.DeleteAction;
-import languageTools.program.agent.actions.InsertAction;
 import languageTools.program.agent.actions.ModuleCallAction;
 import languageTools.program.agent.actions.SendAction;
 import languageTools.program.agent.actions.SendOnceAction;
@@ -73,15 +72,6 @@ import languageTools.symbolTable.agent.ModuleSymbol;
  */
 public class AgentValidatorSecondPass {
 
-	/**
-	 * Reserved keywords.
-	 */
-	private final static String AGENT = "agent/1";
-	private final static String ME = "me/1";
-	private final static String PERCEPT = "percept/1";
-	private final static String RECEIVED = "received/2";
-	private final static String SENT = "sent/2";
-
 	/**
 	 * First pass over parse tree.
 	 */
@@ -101,39 +91,11 @@ public class AgentValidatorSecondPass {
 	private final Set<String> macroLabelsUsed = new HashSet<>();
 
 	/**
-	 * The knowledge specified in knowledge sections in the agent program.
-	 */
-	private final Set<DatabaseFormula> knowledge = new HashSet<DatabaseFormula>();
-	/**
-	 * The beliefs specified in belief sections in the agent program.
-	 */
-	private final Set<DatabaseFormula> beliefs = new HashSet<DatabaseFormula>();
-	/**
-	 * The beliefs that are added by insert and delete actions and by
-	 * post-conditions.
+	 * The database formulas and queries used in the modules of the agent.
 	 */
-	private final Set<DatabaseFormula> dynamicBeliefs = new HashSet<DatabaseFormula>();
+	private final KRUsageCollector usage = new KRUsageCollector();
 	/**
-	 * The queries on the belief and knowledge base that occur in the agent
-	 * program, including belief, a-goal, and goal-a literals as well as
-	 * preconditions.
-	 */
-	private final Set<Query> beliefQueries = new HashSet<Query>();
-	/**
-	 * Goals specified in goal sections of the agent program and the goals that
-	 * are adopted by means of adopt actions. Both sets below include the same
-	 * goals, but the first represents goals as queries and the second as
-	 * database formulas.
-	 */
-	private final Set<Query> goals = new HashSet<Query>();
-	private final Set<DatabaseFormula> goalDbfs = new HashSet<DatabaseFormula>();
-	/**
-	 * The queries on the goal base that occur in the agent program, including
-	 * goal, a-goal, and goal-a literals.
-	 */
-	private final Set<Query> goalQueries = new HashSet<>();
-	/**
-	 * Modules that have been processed by getInsertedBeliefs
+	 * Modules that have been processed by checkVariablesBound
 	 */
 	private final Set<Module> processed = new HashSet<>();
 
@@ -168,10 +130,17 @@ public class AgentValidatorSecondPass {
 		// Parse and get all imported modules
 		for (File moduleFile : this.program.getImportedModules()) {
 			try {
-				ModuleValidator validator = new ModuleValidator(
-						moduleFile.getCanonicalPath());
-				validator.setKRInterface(this.program.getKRInterface());
-				validator.validate();
+				ModuleValidator validator;
+				ModuleCache cache = this.firstPass.getModuleCache();
+				if (cache == null) {
+					validator = new ModuleValidator(
+							moduleFile.getCanonicalPath());
+					validator.setKRInterface(this.program.getKRInterface());
+					validator.validate();
+				} else {
+					validator = cache.get(moduleFile,
+							this.program.getKRInterface());
+				}
 				Module module = validator.getProgram();
 				modules.add(module);
 
@@ -205,10 +174,15 @@ public class AgentValidatorSecondPass {
 			}
 		}
 
-		// Collect all info needed for validation
+		// Resolve all references before collecting info from called modules
 		for (Module module : modules) {
-			visitModule(module);
-			this.processed.clear();
+			resolveModuleRefs(module);
+		}
+
+		// Collect all info needed for validation; every module is visited
+		// once, also if it is called by other modules
+		for (Module module : modules) {
+			this.usage.collect(module);
 			checkVariablesBound(module, new HashSet<Term>());
 		}
 
@@ -254,141 +228,19 @@ public class AgentValidatorSecondPass {
 		}
 
 		// report unused and undefined KR expressions
-		validateKR();
-	}
-
-	/**
-	 * Identify unused and undefined KR expressions.
-	 */
-	private void validateKR() {
-		// Collect undefined and unused KR expressions
-		Set<DatabaseFormula> tempDbfs;
-		Set<Query> tempQueries;
-
-		tempDbfs = new HashSet<DatabaseFormula>(this.knowledge);
-		tempDbfs.addAll(this.beliefs);
-
-		Set<DatabaseFormula> knowledgeDfNotUsedInKB = this.program
-				.getKRInterface().getUnused(this.knowledge,
-						new HashSet<Query>());
-		Set<DatabaseFormula> knowledgeDfNotUsed;
-
-		tempDbfs.addAll(this.dynamicBeliefs);
-		tempQueries = new HashSet<Query>(this.beliefQueries);
-		tempQueries.addAll(this.goals);
-
-		Set<DatabaseFormula> unusedKnowledgeOrBeliefs = this.program
-				.getKRInterface().getUnused(tempDbfs, tempQueries);
-		knowledgeDfNotUsed = new HashSet<DatabaseFormula>(
-				unusedKnowledgeOrBeliefs);
-		knowledgeDfNotUsed.retainAll(knowledgeDfNotUsedInKB);
-		Set<Query> undefinedBeliefQueries = this.program.getKRInterface()
-				.getUndefined(tempDbfs, this.beliefQueries);
-
-		Set<Query> unachievableGoals = this.program.getKRInterface()
-				.getUndefined(tempDbfs, this.goals);
-		// Remove undefined knowledge and belief queries again
-		unachievableGoals.removeAll(undefinedBeliefQueries);
-
-		tempDbfs = new HashSet<DatabaseFormula>(this.knowledge);
-		tempDbfs.addAll(this.goalDbfs);
-		tempQueries = new HashSet<Query>(this.goalQueries);
-		tempQueries.addAll(this.goals);
-		Set<DatabaseFormula> unusedGoals = this.program.getKRInterface()
-				.getUnused(tempDbfs, tempQueries);
-		knowledgeDfNotUsed.retainAll(unusedGoals);
-		// Remove knowledge definitions (are not considered to be goals)
-		unusedGoals.removeAll(knowledgeDfNotUsedInKB);
-
-		Set<Query> undefinedGoalQueries = this.program.getKRInterface()
-				.getUndefined(tempDbfs, this.goalQueries);
-		// Remove queries that are undefined knowledge queries
-		undefinedGoalQueries.removeAll(this.program.getKRInterface()
-				.getUndefined(this.knowledge, new HashSet<Query>()));
-
-		// Reserved keywords that should not be reported, e.g., percept/1,
-		// received/2
-		Set<String> reserved = new HashSet<>();
-		reserved.add(AGENT);
-		reserved.add(ME);
-		reserved.add(PERCEPT);
-		reserved.add(RECEIVED);
-		reserved.add(SENT);
-
-		// Report undefined and unused KR expressions
-		for (DatabaseFormula dbf : unusedKnowledgeOrBeliefs) {
-			// do not report knowledge definitions that are used by goals or
-			// goal queries
-			if (knowledgeDfNotUsedInKB.contains(dbf)
-					&& !knowledgeDfNotUsed.contains(dbf)) {
-				continue;
-			}
-			if (!reserved.contains(dbf.getSignature())) {
-				this.firstPass.reportWarning(
-						AgentWarning.KR_KNOWLEDGE_OR_BELIEF_NEVER_USED,
-						dbf.getSourceInfo(), dbf.getSignature());
-			}
-		}
-		for (DatabaseFormula dbf : unusedGoals) {
-			// do not report knowledge definitions that are used by beliefs or
-			// belief queries
-			if (knowledgeDfNotUsedInKB.contains(dbf)
-					&& !knowledgeDfNotUsed.contains(dbf)) {
-				continue;
-			}
-			if (!reserved.contains(dbf.getSignature())) {
-				this.firstPass.reportWarning(AgentWarning.KR_GOAL_NEVER_USED,
-						dbf.getSourceInfo(), dbf.getSignature());
-			}
-		}
-		for (Query query : undefinedBeliefQueries) {
-			if (!reserved.contains(query.getSignature())) {
-				this.firstPass.reportError(
-						AgentError.KR_BELIEF_QUERIED_NEVER_DEFINED,
-						query.getSourceInfo(), query.getSignature());
-			}
-		}
-		for (Query query : undefinedGoalQueries) {
-			if (!reserved.contains(query.getSignature())) {
-				this.firstPass.reportError(
-						AgentError.KR_GOAL_QUERIED_NEVER_DEFINED,
-						query.getSourceInfo(), query.getSignature());
-			}
-		}
-		for (Query query : unachievableGoals) {
-			if (!reserved.contains(query.getSignature())) {
-				this.firstPass.reportWarning(
-						AgentWarning.GOAL_DOES_NOT_MATCH_BELIEF,
-						query.getSourceInfo(), query.getSignature());
-			}
-		}
+		this.usage.validate(this.program.getKRInterface(), this.firstPass);
 	}
 
 	/**
-	 * Retrieves all action labels, macros, knowledge, belief and goal queries,
-	 * and belief and goal dbfs,
+	 * Resolves the references to actions, modules and macros in a module and
+	 * retrieves the action labels and macros used.
 	 *
 	 * @param module
-	 *            Module from which to retrieve information.
+	 *            Module in which references are resolved.
 	 */
-	private void visitModule(Module module) {
+	private void resolveModuleRefs(Module module) {
 		this.actionLabelsUsed.addAll(resolveModuleActionRefs(module));
 		this.macroLabelsUsed.addAll(resolveModuleMacroRefs(module));
-		// extract relevant sets of database formulas and queries from module
-		this.knowledge.addAll(module.getKnowledge());
-		// exploits fact that we don't allow module declarations within modules
-		this.beliefs.addAll(module.getBeliefs());
-		this.processed.clear();
-		this.dynamicBeliefs.addAll(getInsertedBeliefs(module));
-		this.processed.clear();
-		this.beliefQueries.addAll(getBeliefQueries(module));
-		this.goals.addAll(module.getGoals());
-		this.processed.clear();
-		this.goals.addAll(getAdoptedGoals(module));
-		this.processed.clear();
-		this.goalDbfs.addAll(getGoalDfs(module));
-		this.processed.clear();
-		this.goalQueries.addAll(getGoalQueries(module));
 	}
 
 	/**
@@ -610,90 +462,17 @@ public class AgentValidatorSecondPass {
 		}
 	}
 
-	/**
-	 * Extracts beliefs that are dynamically inserted into the belief base from
-	 * the module. Collects these from insert and delete actions and from
-	 * post-conditions.
-	 *
-	 * @param module
-	 *            Module from which beliefs are extracted.
-	 * @return Set of {@link DatabaseFormula} extracted from module.
-	 */
-	private Set<DatabaseFormula> getInsertedBeliefs(Module module) {
-		Set<DatabaseFormula> dbfs = new HashSet<>();
-		if (this.processed.add(module)) {
-			// Add beliefs inserted by inserts and deletes
-			for (Rule rule : module.getRules()) {
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof InsertAction) {
-						dbfs.addAll(((InsertAction) action).getUpdate()
-								.getAddList());
-					}
-					if (action instanceof DeleteAction) {
-						dbfs.addAll(((DeleteAction) action).getUpdate()
-								.getDeleteList());
-					}
-					if (action instanceof ModuleCallAction) {
-						dbfs.addAll(getInsertedBeliefs(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-			// Add beliefs inserted by post-conditions
-			for (ActionSpecification spec : module.getActionSpecifications()) {
-				dbfs.addAll(spec.getPostCondition().getAddList());
-			}
-		}
-		return dbfs;
-	}
-
-	/**
-	 * Extracts all queries on the belief base, including belief, a-goal, and
-	 * goal-a literals as well as preconditions.
-	 *
-	 * @param module
-	 *            Module from which all queries are extracted.
-	 * @return Set of {@link Query} extracted from module.
-	 */
-	private Set<Query> getBeliefQueries(Module module) {
-		Set<Query> queries = new HashSet<>();
-		if (this.processed.add(module)) {
-			// Add queries used in rule conditions
-			// First collect all literals as well as queries from submodules
-			Set<MentalLiteral> literals = new HashSet<MentalLiteral>();
-			for (Rule rule : module.getRules()) {
-				literals.addAll(getBeliefLiterals(rule.getCondition()));
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof ModuleCallAction) {
-						queries.addAll(getBeliefQueries(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-			for (MentalLiteral literal : literals) {
-				queries.add(literal.getFormula());
-			}
-			// Add pre-conditions
-			for (ActionSpecification spec : module.getActionSpecifications()) {
-				for (MentalLiteral literal : getBeliefLiterals(spec
-						.getPreCondition())) {
-					queries.add(literal.getFormula());
-				}
-			}
-		}
-		return queries;
-	}
-
 	/**
 	 * Retrieve all literals that query the belief base, including belief,
 	 * a-goal, and goal-a literals. Also extracts relevant literals from macros.
 	 *
 	 * @param msc
 	 *            Mental state condition from which literals are extracted.
-	 * @return Literals extracted from condition.
+	 * @return Literals extracted from condition, in the order in which they
+	 *         occur.
 	 */
 	public static Set<MentalLiteral> getBeliefLiterals(MentalStateCondition msc) {
-		Set<MentalLiteral> literals = new HashSet<>();
+		Set<MentalLiteral> literals = new LinkedHashSet<>();
 		if (msc != null) {
 			for (MentalFormula formula : msc.getSubFormulas()) {
 				if (formula instanceof Macro) {
@@ -707,102 +486,16 @@ public class AgentValidatorSecondPass {
 		return literals;
 	}
 
-	/**
-	 * Retrieves all goals that are adopted in the module by adopt actions.
-	 *
-	 * @param module
-	 *            Module from which adopted goals are extracted.
-	 * @return Set of {@link Query}s extracted from module.
-	 */
-	private Set<Query> getAdoptedGoals(Module module) {
-		Set<Query> queries = new HashSet<Query>();
-		if (this.processed.add(module)) {
-			// Add updates in adopts
-			for (Rule rule : module.getRules()) {
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof AdoptAction) {
-						for (DatabaseFormula dbf : ((AdoptAction) action)
-								.getUpdate().getAddList()) {
-							queries.add(dbf.toQuery());
-						}
-					}
-					if (action instanceof ModuleCallAction) {
-						queries.addAll(getAdoptedGoals(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-		}
-		return queries;
-	}
-
-	/**
-	 * @param module
-	 *            Module from which all DBFs are extracted.
-	 * @return DBFs extracted from module.
-	 */
-	private Set<DatabaseFormula> getGoalDfs(Module module) {
-		Set<DatabaseFormula> dbfs = new HashSet<>();
-		if (this.processed.add(module)) {
-			// Add goals in goal section
-			for (Query query : module.getGoals()) {
-				dbfs.addAll(query.toUpdate().getAddList());
-			}
-			// Add updates in adopts
-			for (Rule rule : module.getRules()) {
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof AdoptAction) {
-						dbfs.addAll(((AdoptAction) action).getUpdate()
-								.getAddList());
-					}
-					if (action instanceof ModuleCallAction) {
-						dbfs.addAll(getGoalDfs(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-		}
-		return dbfs;
-	}
-
-	/**
-	 * Extracts all queries on the goal base from the module.
-	 *
-	 * @param module
-	 *            Module from which all queries are extracted.
-	 * @return Set of {@link Query}s extracted from module.
-	 */
-	private Set<Query> getGoalQueries(Module module) {
-		Set<Query> queries = new HashSet<>();
-		if (this.processed.add(module)) {
-			// Add queries used in rule conditions
-			// First collect all literals as well as queries from submodules
-			Set<MentalLiteral> literals = new HashSet<>();
-			for (Rule rule : module.getRules()) {
-				literals.addAll(getGoalLiterals(rule.getCondition()));
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof ModuleCallAction) {
-						queries.addAll(getGoalQueries(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-			for (MentalLiteral literal : literals) {
-				queries.add(literal.getFormula());
-			}
-		}
-		return queries;
-	}
-
 	/**
 	 * Extracts goal literals from mental state condition.
 	 *
 	 * @param msc
 	 *            Mental state condition from which literals are extracted.
-	 * @return Literals extracted from condition.
+	 * @return Literals extracted from condition, in the order in which they
+	 *         occur.
 	 */
 	public static Set<MentalLiteral> getGoalLiterals(MentalStateCondition msc) {
-		Set<MentalLiteral> literals = new HashSet<>();
+		Set<MentalLiteral> literals = new LinkedHashSet<>();
 		if (msc != null) {
 			for (MentalFormula formula : msc.getSubFormulas()) {
 				if (formula instanceof Macro) {
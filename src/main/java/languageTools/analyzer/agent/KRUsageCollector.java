@@ -0,0 +1,310 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer.agent;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import krTools.KRInterface;
+import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import languageTools.analyzer.Validator;
+import languageTools.errors.agent.AgentError;
+import languageTools.errors.agent.AgentWarning;
+import languageTools.program.agent.ActionSpecification;
+import languageTools.program.agent.Module;
+import languageTools.program.agent.actions.Action;
+import languageTools.program.agent.actions.AdoptAction;
+import languageTools.program.agent.actions.DeleteAction;
+import languageTools.program.agent.actions.InsertAction;
+import languageTools.program.agent.actions.ModuleCallAction;
+import languageTools.program.agent.msc.MentalLiteral;
+import languageTools.program.agent.rules.Rule;
+
+/**
+ * Collects the database formulas and queries used in modules, and in the
+ * modules these call, in a single walk over the modules, and reports those that
+ * are never used or never defined. Every module is visited at most once,
+ * however many modules call it.
+ *
+ * <p>
+ * The knowledge, beliefs and goals specified in the sections of a module are
+ * only collected for the modules passed to {@link #collect(Module)}; all other
+ * sets are collected for the called modules as well.
+ * </p>
+ */
+public class KRUsageCollector {
+	/**
+	 * Reserved keywords that should not be reported, e.g., percept/1,
+	 * received/2.
+	 */
+	private final static Set<String> RESERVED = new HashSet<>(Arrays.asList(
+			"agent/1", "me/1", "percept/1", "received/2", "sent/2"));
+
+	/**
+	 * The knowledge specified in knowledge sections.
+	 */
+	private final Set<DatabaseFormula> knowledge = new HashSet<DatabaseFormula>();
+	/**
+	 * The beliefs specified in belief sections.
+	 */
+	private final Set<DatabaseFormula> beliefs = new HashSet<DatabaseFormula>();
+	/**
+	 * The beliefs that are added by insert and delete actions and by
+	 * post-conditions.
+	 */
+	private final Set<DatabaseFormula> dynamicBeliefs = new HashSet<DatabaseFormula>();
+	/**
+	 * The queries on the belief and knowledge base, including belief, a-goal,
+	 * and goal-a literals as well as preconditions.
+	 */
+	private final Set<Query> beliefQueries = new HashSet<Query>();
+	/**
+	 * Goals specified in goal sections and the goals that are adopted by means
+	 * of adopt actions. Both sets below include the same goals, but the first
+	 * represents goals as queries and the second as database formulas.
+	 */
+	private final Set<Query> goals = new HashSet<Query>();
+	private final Set<DatabaseFormula> goalDbfs = new HashSet<DatabaseFormula>();
+	/**
+	 * The queries on the goal base, including goal, a-goal, and goal-a
+	 * literals.
+	 */
+	private final Set<Query> goalQueries = new HashSet<Query>();
+	/**
+	 * Modules that have been visited.
+	 */
+	private final Set<Module> processed = new HashSet<Module>();
+
+	/**
+	 * Collects the database formulas and queries used in a module and the
+	 * modules it calls. References to actions, modules and macros should have
+	 * been resolved.
+	 *
+	 * @param module
+	 *            Module from which to collect information.
+	 */
+	public void collect(Module module) {
+		this.knowledge.addAll(module.getKnowledge());
+		this.beliefs.addAll(module.getBeliefs());
+		this.goals.addAll(module.getGoals());
+		visit(module);
+	}
+
+	/**
+	 * Collects the database formulas and queries used in the rules and action
+	 * specifications of a module, unless it has been visited before, and
+	 * visits the modules called by its rules.
+	 *
+	 * @param module
+	 *            Module from which to collect information.
+	 */
+	private void visit(Module module) {
+		if (!this.processed.add(module)) {
+			return;
+		}
+		// Add goals in goal section
+		for (Query query : module.getGoals()) {
+			this.goalDbfs.addAll(query.toUpdate().getAddList());
+		}
+		for (Rule rule : module.getRules()) {
+			// Add queries used in rule conditions
+			for (MentalLiteral literal : AgentValidatorSecondPass
+					.getBeliefLiterals(rule.getCondition())) {
+				this.beliefQueries.add(literal.getFormula());
+			}
+			for (MentalLiteral literal : AgentValidatorSecondPass
+					.getGoalLiterals(rule.getCondition())) {
+				this.goalQueries.add(literal.getFormula());
+			}
+			for (Action<?> action : rule.getAction().getActions()) {
+				if (action instanceof InsertAction) {
+					this.dynamicBeliefs.addAll(((InsertAction) action)
+							.getUpdate().getAddList());
+				} else if (action instanceof DeleteAction) {
+					this.dynamicBeliefs.addAll(((DeleteAction) action)
+							.getUpdate().getDeleteList());
+				} else if (action instanceof AdoptAction) {
+					for (DatabaseFormula dbf : ((AdoptAction) action)
+							.getUpdate().getAddList()) {
+						this.goals.add(dbf.toQuery());
+						this.goalDbfs.add(dbf);
+					}
+				} else if (action instanceof ModuleCallAction) {
+					visit(((ModuleCallAction) action).getTarget());
+				}
+			}
+		}
+		for (ActionSpecification spec : module.getActionSpecifications()) {
+			// Add beliefs inserted by post-conditions
+			this.dynamicBeliefs.addAll(spec.getPostCondition().getAddList());
+			// Add pre-conditions
+			for (MentalLiteral literal : AgentValidatorSecondPass
+					.getBeliefLiterals(spec.getPreCondition())) {
+				this.beliefQueries.add(literal.getFormula());
+			}
+		}
+	}
+
+	/**
+	 * Reports the knowledge, beliefs and goals in the collected modules that
+	 * are never used, and the queries that are never defined.
+	 *
+	 * <p>
+	 * The KR interface is asked once for each analysis: for the unused and for
+	 * the undefined expressions on the belief base (knowledge, beliefs and
+	 * dynamic beliefs, queried by belief queries and goals) and on the goal
+	 * base (knowledge and goals, queried by goal queries and goals). Whether
+	 * knowledge is used by other knowledge needs no analysis of its own, as
+	 * knowledge that is unused on either base is not used by the knowledge
+	 * either.
+	 * </p>
+	 *
+	 * @param kri
+	 *            The KR interface of the modules.
+	 * @param validator
+	 *            The validator to report the warnings and errors to.
+	 */
+	public void validate(KRInterface kri, Validator<?, ?, ?, ?> validator) {
+		Set<DatabaseFormula> beliefBase = new HashSet<DatabaseFormula>(
+				this.knowledge);
+		beliefBase.addAll(this.beliefs);
+		beliefBase.addAll(this.dynamicBeliefs);
+		Set<Query> beliefBaseQueries = new HashSet<Query>(this.beliefQueries);
+		beliefBaseQueries.addAll(this.goals);
+		Set<DatabaseFormula> goalBase = new HashSet<DatabaseFormula>(
+				this.knowledge);
+		goalBase.addAll(this.goalDbfs);
+		Set<Query> goalBaseQueries = new HashSet<Query>(this.goalQueries);
+		goalBaseQueries.addAll(this.goals);
+
+		Set<DatabaseFormula> unusedOnBeliefBase = kri.getUnused(beliefBase,
+				beliefBaseQueries);
+		Set<DatabaseFormula> unusedOnGoalBase = kri.getUnused(goalBase,
+				goalBaseQueries);
+		// Goals are undefined if they do not match the belief base
+		Set<Query> undefinedOnBeliefBase = kri.getUndefined(beliefBase,
+				beliefBaseQueries);
+		Set<Query> undefinedGoalQueries = kri.getUndefined(goalBase,
+				this.goalQueries);
+
+		// Report undefined and unused KR expressions
+		for (DatabaseFormula dbf : unusedOnBeliefBase) {
+			// do not report knowledge definitions that are used by goals or
+			// goal queries
+			if (this.knowledge.contains(dbf) && !unusedOnGoalBase.contains(dbf)) {
+				continue;
+			}
+			if (!RESERVED.contains(dbf.getSignature())) {
+				validator.reportWarning(
+						AgentWarning.KR_KNOWLEDGE_OR_BELIEF_NEVER_USED,
+						dbf.getSourceInfo(), dbf.getSignature());
+			}
+		}
+		for (DatabaseFormula dbf : unusedOnGoalBase) {
+			// knowledge definitions are not considered to be goals
+			if (this.knowledge.contains(dbf)) {
+				continue;
+			}
+			if (!RESERVED.contains(dbf.getSignature())) {
+				validator.reportWarning(AgentWarning.KR_GOAL_NEVER_USED,
+						dbf.getSourceInfo(), dbf.getSignature());
+			}
+		}
+		for (Query query : undefinedOnBeliefBase) {
+			if (RESERVED.contains(query.getSignature())) {
+				continue;
+			}
+			if (this.beliefQueries.contains(query)) {
+				validator.reportError(
+						AgentError.KR_BELIEF_QUERIED_NEVER_DEFINED,
+						query.getSourceInfo(), query.getSignature());
+			} else {
+				validator.reportWarning(
+						AgentWarning.GOAL_DOES_NOT_MATCH_BELIEF,
+						query.getSourceInfo(), query.getSignature());
+			}
+		}
+		for (Query query : undefinedGoalQueries) {
+			if (!RESERVED.contains(query.getSignature())) {
+				validator.reportError(AgentError.KR_GOAL_QUERIED_NEVER_DEFINED,
+						query.getSourceInfo(), query.getSignature());
+			}
+		}
+	}
+
+	/**
+	 * @return The knowledge specified in the collected modules.
+	 */
+	public Set<DatabaseFormula> getKnowledge() {
+		return this.knowledge;
+	}
+
+	/**
+	 * @return The beliefs specified in the collected modules.
+	 */
+	public Set<DatabaseFormula> getBeliefs() {
+		return this.beliefs;
+	}
+
+	/**
+	 * @return The beliefs added by insert and delete actions and by
+	 *         post-conditions.
+	 */
+	public Set<DatabaseFormula> getDynamicBeliefs() {
+		return this.dynamicBeliefs;
+	}
+
+	/**
+	 * @return The queries on the belief and knowledge base.
+	 */
+	public Set<Query> getBeliefQueries() {
+		return this.beliefQueries;
+	}
+
+	/**
+	 * @return The goals specified in the collected modules and adopted by
+	 *         adopt actions, as queries.
+	 */
+	public Set<Query> getGoals() {
+		return this.goals;
+	}
+
+	/**
+	 * @return The goals in goal sections and adopted by adopt actions, as
+	 *         database formulas.
+	 */
+	public Set<DatabaseFormula> getGoalDbfs() {
+		return this.goalDbfs;
+	}
+
+	/**
+	 * @return The queries on the goal base.
+	 */
+	public Set<Query> getGoalQueries() {
+		return this.goalQueries;
+	}
+
+	/**
+	 * @return The number of modules visited.
+	 */
+	public int getModuleCount() {
+		return this.processed.size();
+	}
+}
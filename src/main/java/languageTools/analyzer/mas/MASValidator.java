@@ -80,7 +80,7 @@ Validator<MyMAS2GLexer, MAS2GParser, MASErrorStrategy, MASProgram>
 implements MAS2GVisitor {
 
 	private MAS2GParser parser;
-	private static MASErrorStrategy strategy = null;
+	private final MASErrorStrategy strategy = new MASErrorStrategy();
 
 	/**
 	 * Symbol table with agent file references.
@@ -99,10 +99,7 @@ implements MAS2GVisitor {
 
 	@Override
 	protected MASErrorStrategy getTheErrorStrategy() {
-		if (strategy == null) {
-			strategy = new MASErrorStrategy();
-		}
-		return strategy;
+		return this.strategy;
 	}
 
 	/**
@@ -0,0 +1,195 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer.mas;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import languageTools.analyzer.Validator;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.module.ModuleCache;
+import languageTools.program.mas.MASProgram;
+
+/**
+ * Validates a whole project: a MAS file, the agent files it refers to, and the
+ * module and KR files these agents import. Every file is validated once, also
+ * when the MAS refers to it more than once; the agent files are validated
+ * concurrently if more than one thread is used.
+ */
+public class ProjectValidator {
+	private final String masFile;
+	private int threads = 1;
+	private ModuleCache moduleCache = new ModuleCache();
+
+	private MASValidator mas;
+	/**
+	 * The validators of the agent files, by canonical file, in the order in
+	 * which the MAS refers to them.
+	 */
+	private final Map<File, AgentValidator> agents = new LinkedHashMap<>();
+
+	/**
+	 * Creates a project validator for the MAS file with given name.
+	 *
+	 * @param masFile
+	 *            Name of a MAS file.
+	 */
+	public ProjectValidator(String masFile) {
+		this.masFile = masFile;
+	}
+
+	/**
+	 * @param threads
+	 *            The number of threads used to validate the agent files.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param moduleCache
+	 *            The cache used for the module files imported by the agents;
+	 *            by default, the project validator uses a cache of its own.
+	 */
+	public void setModuleCache(ModuleCache moduleCache) {
+		this.moduleCache = moduleCache;
+	}
+
+	/**
+	 * Validates the MAS file and then all agent files it refers to.
+	 */
+	public void validate() {
+		this.mas = new MASValidator(this.masFile);
+		this.mas.validate();
+		MASProgram program = this.mas.getProgram();
+
+		// Agent files may be referred to by different paths
+		this.agents.clear();
+		for (File file : program.getAgentFiles()) {
+			File canonical;
+			try {
+				canonical = file.getCanonicalFile();
+			} catch (IOException e) {
+				canonical = file.getAbsoluteFile();
+			}
+			if (!this.agents.containsKey(canonical)) {
+				AgentValidator agent = new AgentValidator(canonical.getPath());
+				agent.setKRInterface(program.getKRInterface(file));
+				agent.setModuleCache(this.moduleCache);
+				this.agents.put(canonical, agent);
+			}
+		}
+
+		if (this.threads <= 1 || this.agents.size() <= 1) {
+			for (AgentValidator agent : this.agents.values()) {
+				agent.validate();
+			}
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				this.threads, this.agents.size()));
+		try {
+			List<Future<?>> futures = new ArrayList<>(this.agents.size());
+			for (final AgentValidator agent : this.agents.values()) {
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						agent.validate();
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The validator of the MAS file.
+	 */
+	public MASValidator getMASValidator() {
+		return this.mas;
+	}
+
+	/**
+	 * @return The validators of the agent files, by canonical file.
+	 */
+	public Map<File, AgentValidator> getAgentValidators() {
+		return this.agents;
+	}
+
+	/**
+	 * @return All validators of the project, starting with the MAS validator.
+	 */
+	public List<Validator<?, ?, ?, ?>> getValidators() {
+		List<Validator<?, ?, ?, ?>> validators = new ArrayList<>();
+		validators.add(this.mas);
+		validators.addAll(this.agents.values());
+		return validators;
+	}
+
+	/**
+	 * @return {@code true} if the MAS program and all agent programs are valid.
+	 */
+	public boolean isValid() {
+		for (Validator<?, ?, ?, ?> validator : getValidators()) {
+			if (!validator.getProgram().isValid()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The reports of all files of the project, followed by a summary.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		int syntaxErrors = 0;
+		int errors = 0;
+		int warnings = 0;
+		for (Validator<?, ?, ?, ?> validator : getValidators()) {
+			report.append(validator.report());
+			syntaxErrors += validator.getSyntaxErrors().size();
+			errors += validator.getErrors().size();
+			warnings += validator.getWarnings().size();
+		}
+		report.append("\n PROJECT REPORT: Validated the MAS file and "
+				+ this.agents.size() + " agent file(s); found " + syntaxErrors
+				+ " parsing error(s), " + errors + " error(s) and " + warnings
+				+ " warning(s). The project is " + (isValid() ? "valid" : "not valid")
+				+ ".\n");
+		return report.toString();
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.analyzer.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import krTools.KRInterface;
+
+/**
+ * Cache of parsed module files, so that a module file that is imported by
+ * several agents is parsed only once in a validation session, e.g. a run of
+ * the {@link languageTools.Analyzer}. Module files are cached by their
+ * canonical path and the hash of their content; a module file that has been
+ * changed is parsed again. Changes to the KR files imported by a module are
+ * not detected; {@link #remove(File)} can be used to validate the module
+ * again after such a change.
+ *
+ * <p>
+ * Only the tokens and parse tree of a module file are cached. Agent validators
+ * resolve the references in the modules they import to their own actions and
+ * macros, so every agent gets a new {@link ModuleValidator} and with it its own
+ * {@link languageTools.program.agent.Module}, built from the cached parse. The
+ * cache itself can be used by several threads; a module file is parsed by only
+ * one of them.
+ * </p>
+ */
+public class ModuleCache {
+	/**
+	 * The cached parses of module files.
+	 */
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Validates a module file, parsing the file if it has not been parsed
+	 * before (or it has been changed since).
+	 *
+	 * @param file
+	 *            The module file.
+	 * @param kri
+	 *            The KR interface used for the module.
+	 * @return A new validator, after validating the module file.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public ModuleValidator get(File file, KRInterface kri) throws IOException {
+		File canonical = file.getCanonicalFile();
+		Key key = new Key(canonical.getPath(), hash(Files.readAllBytes(canonical
+				.toPath())));
+		Entry entry = new Entry();
+		Entry existing = this.entries.putIfAbsent(key, entry);
+		if (existing == null) {
+			this.misses.incrementAndGet();
+			removeOtherVersions(key);
+		} else {
+			this.hits.incrementAndGet();
+			entry = existing;
+		}
+
+		ModuleValidator validator = new ModuleValidator(key.path);
+		validator.setKRInterface(kri);
+		validator.validate(entry.getParsed(key));
+		return validator;
+	}
+
+	/**
+	 * Removes the entries of earlier versions of a module file.
+	 */
+	private void removeOtherVersions(Key key) {
+		Iterator<Key> keys = this.entries.keySet().iterator();
+		while (keys.hasNext()) {
+			Key other = keys.next();
+			if (other.path.equals(key.path)
+					&& !Arrays.equals(other.hash, key.hash)) {
+				keys.remove();
+			}
+		}
+	}
+
+	private static byte[] hash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return The number of times a cached parse was used.
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return The number of times a module file had to be parsed.
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Removes the cached parses of a module file, e.g. because a file
+	 * that it imports has been changed.
+	 *
+	 * @param file
+	 *            The module file.
+	 * @throws IOException
+	 *             If the canonical path of the file could not be determined.
+	 */
+	public void remove(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		Iterator<Key> keys = this.entries.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().path.equals(path)) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached parses.
+	 */
+	public void clear() {
+		this.entries.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "Module cache: " + getHits() + " hit(s), " + getMisses()
+				+ " miss(es).";
+	}
+
+	/**
+	 * Identifies a version of a module file.
+	 */
+	private static class Key {
+		private final String path;
+		private final byte[] hash;
+
+		Key(String path, byte[] hash) {
+			this.path = path;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.path.hashCode() + Arrays.hashCode(this.hash);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.path.equals(other.path)
+					&& Arrays.equals(this.hash, other.hash);
+		}
+	}
+
+	/**
+	 * Parses a module file the first time its parse is asked for.
+	 */
+	private static class Entry {
+		private ModuleValidator parsed;
+
+		synchronized ModuleValidator getParsed(Key key) {
+			if (this.parsed == null) {
+				ModuleValidator parsed = new ModuleValidator(key.path);
+				parsed.parse();
+				this.parsed = parsed;
+			}
+			return this.parsed;
+		}
+	}
+}
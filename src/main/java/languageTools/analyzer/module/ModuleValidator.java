@@ -19,10 +19,9 @@ package languageTools.analyzer.module;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -42,6 +41,7 @@ import krTools.language.Update;
 import krTools.language.Var;
 import krTools.parser.Parser;
 import krTools.parser.SourceInfo;
+import languageTools.analyzer.FragmentCache;
 import languageTools.analyzer.Validator;
 import languageTools.errors.ParserError.SyntaxError;
 import languageTools.errors.agent.AgentError;
@@ -78,6 +78,7 @@ import languageTools.parser.GOAL.RuleEvaluationOrderContext;
 import languageTools.parser.GOAL.SelectorContext;
 import languageTools.parser.GOALVisitor;
 import languageTools.parser.InputStreamPosition;
+import languageTools.parser.Utf8FileStream;
 import languageTools.parser.agent.MyGOALLexer;
 import languageTools.program.agent.ActionSpecification;
 import languageTools.program.agent.AgentProgram;
@@ -139,13 +140,17 @@ public class ModuleValidator extends
 		GOALVisitor {
 
 	private GOAL parser;
-	private static AgentErrorStrategy strategy = null;
+	private final AgentErrorStrategy strategy = new AgentErrorStrategy();
 
 	/**
 	 * Knowledge representation interface used for parsing the contents of
 	 * beliefs, etc.
 	 */
 	private KRInterface kri;
+	/**
+	 * Cache used for parsing KR fragments, if any.
+	 */
+	private FragmentCache fragmentCache = FragmentCache.getDefault();
 
 	/**
 	 * For agent validation, we use three symbol tables. The first is used for
@@ -175,10 +180,7 @@ public class ModuleValidator extends
 
 	@Override
 	protected AgentErrorStrategy getTheErrorStrategy() {
-		if (strategy == null) {
-			strategy = new AgentErrorStrategy();
-		}
-		return strategy;
+		return this.strategy;
 	}
 
 	/**
@@ -191,6 +193,20 @@ public class ModuleValidator extends
 		this.kri = kri;
 	}
 
+	/**
+	 * Sets the cache used for parsing the KR fragments in the file, such as
+	 * the parameters of actions and mental literals; the latter are only
+	 * shared with other validators of the same version of the file, e.g. when
+	 * the file is imported by several agents. By default, the cache shared by
+	 * all validators is used.
+	 *
+	 * @param fragmentCache
+	 *            The fragment cache, or {@code null} to parse every fragment.
+	 */
+	public void setFragmentCache(FragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
 	/**
 	 * @return Symbol table with action and module symbols.
 	 */
@@ -280,6 +296,11 @@ public class ModuleValidator extends
 					reportWarning(AgentWarning.MODULE_DUPLICATE_SECTION, kriCtx);
 				} else {
 					knowledge.addAll(visitKrImport(kriCtx));
+					// Keep track of the file, also if it does not exist (yet)
+					File file = getKrImportFile(kriCtx);
+					if (file != null) {
+						getProgram().addImportedFile(file);
+					}
 					hadImport = true;
 				}
 			}
@@ -473,9 +494,13 @@ public class ModuleValidator extends
 	// Module sections
 	// -------------------------------------------------------------
 
-	@Override
-	public List<DatabaseFormula> visitKrImport(KrImportContext ctx) {
-		List<DatabaseFormula> imported = new ArrayList<>(0);
+	/**
+	 * @param ctx
+	 *            A KR import.
+	 * @return The imported file, or {@code null} if the import does not
+	 *         specify one.
+	 */
+	private File getKrImportFile(KrImportContext ctx) {
 		String path = null;
 		if (ctx.StringLiteral() != null) {
 			// TODO: what is the logic here?
@@ -489,13 +514,17 @@ public class ModuleValidator extends
 			String[] parts = text.split("(?<!\\\\)'", 0);
 			path = parts[1].replace("\\'", "'");
 		}
-		File file = (path == null) ? null : new File(
+		return (path == null) ? null : new File(
 				getPathRelativeToSourceFile(path));
+	}
+
+	@Override
+	public List<DatabaseFormula> visitKrImport(KrImportContext ctx) {
+		List<DatabaseFormula> imported = new ArrayList<>(0);
+		File file = getKrImportFile(ctx);
 		// Check existence of file. Extension check handled in grammar.
 		if (file != null && file.exists()) {
-			try {
-				String content = new String(Files.readAllBytes(Paths.get(file
-						.getPath())));
+			try (Reader content = Utf8FileStream.newReader(file)) {
 				imported = visit_KR_DBFs(content, new InputStreamPosition(1, 0,
 						0, 0, file));
 			} catch (Exception e) {
@@ -1132,7 +1161,7 @@ public class ModuleValidator extends
 		for (Term term : parameters) {
 			if (!term.isVar()) {
 				reportError(AgentError.PARAMETER_NOT_A_VARIABLE, ctx,
-						strategy.prettyPrintRuleContext(ctx.getParent()
+						getTheErrorStrategy().prettyPrintRuleContext(ctx.getParent()
 								.getRuleIndex()), term.toString());
 			}
 		}
@@ -1354,7 +1383,18 @@ public class ModuleValidator extends
 	 *            fragment in source).
 	 */
 	private void reportEmbeddedLanguageErrors(Parser parser) {
-		for (SourceInfo error : parser.getErrors()) {
+		reportEmbeddedLanguageErrors(parser.getErrors());
+	}
+
+	/**
+	 * Reports parsing errors that occurred while parsing embedded language
+	 * fragments.
+	 *
+	 * @param errors
+	 *            The errors, with their messages.
+	 */
+	private void reportEmbeddedLanguageErrors(List<SourceInfo> errors) {
+		for (SourceInfo error : errors) {
 			reportError(SyntaxError.EMBEDDED_LANGUAGE_ERROR, error,
 					this.kri.getName(), error.getMessage());
 		}
@@ -1377,12 +1417,40 @@ public class ModuleValidator extends
 	 */
 	private List<DatabaseFormula> visit_KR_DBFs(String krFragment,
 			SourceInfo info) {
+		if (this.fragmentCache != null) {
+			List<DatabaseFormula> formulas = null;
+			try {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				formulas = this.fragmentCache.getDBFs(krFragment, this.kri,
+						info, errors);
+				reportEmbeddedLanguageErrors(errors);
+			} catch (ParserException e) {
+				reportParsingException(e);
+			}
+			return (formulas == null) ? new ArrayList<DatabaseFormula>(0)
+					: formulas;
+		}
+		return visit_KR_DBFs(new StringReader(krFragment), info);
+	}
+
+	/**
+	 * Processes embedded KR language content read from a reader, e.g., the
+	 * content of an imported file. Assumes that this content represents
+	 * {@link DatabaseFormula}s.
+	 *
+	 * @param krFragment
+	 *            Reader for the KR content.
+	 * @param info
+	 *            Source info about the KR content.
+	 * @return List of {@link DatabaseFormula}s.
+	 */
+	private List<DatabaseFormula> visit_KR_DBFs(Reader krFragment,
+			SourceInfo info) {
 		List<DatabaseFormula> formulas = new ArrayList<DatabaseFormula>(0);
 
 		// Get the formulas
 		try {
-			Parser parser = this.kri.getParser(new StringReader(krFragment),
-					info);
+			Parser parser = this.kri.getParser(krFragment, info);
 			formulas = parser.parseDBFs();
 
 			// Add errors from parser for embedded language to our own
@@ -1415,6 +1483,14 @@ public class ModuleValidator extends
 
 		// Get the update
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				update = this.fragmentCache.getUpdate(krFragment, this.kri,
+						info, errors);
+				reportEmbeddedLanguageErrors(errors);
+				return update;
+			}
+
 			Parser parser = this.kri.getParser(new StringReader(krFragment),
 					info);
 			update = parser.parseUpdate();
@@ -1449,6 +1525,14 @@ public class ModuleValidator extends
 
 		// Get the queries
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				queries = this.fragmentCache.getQueries(krFragment, this.kri,
+						info, errors);
+				reportEmbeddedLanguageErrors(errors);
+				return queries;
+			}
+
 			Parser parser = this.kri.getParser(new StringReader(krFragment),
 					info);
 			queries = parser.parseQueries();
@@ -1480,6 +1564,14 @@ public class ModuleValidator extends
 		// Get the query
 		Parser parser;
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				query = this.fragmentCache.getQuery(krFragment, this.kri, info,
+						errors);
+				reportEmbeddedLanguageErrors(errors);
+				return query;
+			}
+
 			parser = this.kri.getParser(new StringReader(krFragment), info);
 			query = parser.parseQuery();
 
@@ -1510,6 +1602,14 @@ public class ModuleValidator extends
 
 		// Get the term
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				term = this.fragmentCache.getTerm(krFragment, this.kri, info,
+						errors);
+				reportEmbeddedLanguageErrors(errors);
+				return term;
+			}
+
 			Parser parser = this.kri.getParser(new StringReader(krFragment),
 					info);
 			term = parser.parseTerm();
@@ -1540,6 +1640,14 @@ public class ModuleValidator extends
 		List<Term> parameters = null;
 
 		try {
+			if (this.fragmentCache != null) {
+				List<SourceInfo> errors = new ArrayList<SourceInfo>(0);
+				parameters = this.fragmentCache.getTerms(krFragment, this.kri,
+						info, errors);
+				reportEmbeddedLanguageErrors(errors);
+				return parameters;
+			}
+
 			Parser parser = this.kri.getParser(new StringReader(krFragment),
 					info);
 			parameters = parser.parseTerms();
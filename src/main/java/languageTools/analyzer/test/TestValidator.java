@@ -137,7 +137,7 @@ public class TestValidator extends
 	private Test parser;
 	private MASProgram masProgram;
 	private AgentProgram agentProgram;
-	private static TestErrorStrategy strategy = null;
+	private final TestErrorStrategy strategy = new TestErrorStrategy();
 
 	/**
 	 * Creates the test validator.
@@ -167,10 +167,7 @@ public class TestValidator extends
 
 	@Override
 	protected TestErrorStrategy getTheErrorStrategy() {
-		if (strategy == null) {
-			strategy = new TestErrorStrategy();
-		}
-		return strategy;
+		return this.strategy;
 	}
 
 	public void overrideMAS(MASProgram mas2g) {
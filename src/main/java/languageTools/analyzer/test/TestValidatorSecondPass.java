@@ -26,18 +26,12 @@ import krTools.KRInterface;
 import krTools.language.DatabaseFormula;
 import krTools.language.Query;
 import languageTools.analyzer.agent.AgentValidatorSecondPass;
+import languageTools.analyzer.agent.KRUsageCollector;
 import languageTools.errors.agent.AgentError;
-import languageTools.program.agent.ActionSpecification;
 import languageTools.program.agent.AgentProgram;
 import languageTools.program.agent.Module;
-import languageTools.program.agent.actions.Action;
-import languageTools.program.agent.actions.AdoptAction;
-import languageTools.program.agent.actions.DeleteAction;
-import languageTools.program.agent.actions.InsertAction;
-import languageTools.program.agent.actions.ModuleCallAction;
 import languageTools.program.agent.msc.MentalLiteral;
 import languageTools.program.agent.msc.MentalStateCondition;
-import languageTools.program.agent.rules.Rule;
 import languageTools.program.test.AgentTest;
 import languageTools.program.test.UnitTest;
 import languageTools.program.test.testsection.TestSection;
@@ -67,41 +61,20 @@ public class TestValidatorSecondPass {
 	private final UnitTest program;
 
 	/**
-	 * The knowledge specified in knowledge sections in the agent program.
+	 * The database formulas and queries used in the modules of the agents.
+	 * The queries used in the modules themselves are not checked again.
 	 */
-	private final Set<DatabaseFormula> knowledge = new HashSet<DatabaseFormula>();
+	private final KRUsageCollector usage = new KRUsageCollector();
 	/**
-	 * The beliefs specified in belief sections in the agent program.
-	 */
-	private final Set<DatabaseFormula> beliefs = new HashSet<DatabaseFormula>();
-	/**
-	 * The beliefs that are added by insert and delete actions and by
-	 * post-conditions.
-	 */
-	private final Set<DatabaseFormula> dynamicBeliefs = new HashSet<DatabaseFormula>();
-	/**
-	 * The queries on the belief and knowledge base that occur in the agent
-	 * program, including belief, a-goal, and goal-a literals as well as
-	 * preconditions.
+	 * The queries on the belief and knowledge base that occur in the tests,
+	 * including belief, a-goal, and goal-a literals.
 	 */
 	private final Set<Query> beliefQueries = new HashSet<Query>();
 	/**
-	 * Goals specified in goal sections of the agent program and the goals that
-	 * are adopted by means of adopt actions. Both sets below include the same
-	 * goals, but the first represents goals as queries and the second as
-	 * database formulas.
-	 */
-	private final Set<Query> goals = new HashSet<Query>();
-	private final Set<DatabaseFormula> goalDbfs = new HashSet<DatabaseFormula>();
-	/**
-	 * The queries on the goal base that occur in the agent program, including
-	 * goal, a-goal, and goal-a literals.
+	 * The queries on the goal base that occur in the tests, including goal,
+	 * a-goal, and goal-a literals.
 	 */
 	private final Set<Query> goalQueries = new HashSet<>();
-	/**
-	 * Modules that have been processed by getInsertedBeliefs
-	 */
-	private final Set<Module> processed = new HashSet<>();
 
 	/**
 	 * In the second pass, references in the given agent program are resolved
@@ -138,9 +111,8 @@ public class TestValidatorSecondPass {
 		}
 
 		// Collect all info needed for validation
-		this.processed.clear();
 		for (Module module : modules) {
-			visitModule(module);
+			this.usage.collect(module);
 		}
 
 		// Process the test queries
@@ -156,26 +128,24 @@ public class TestValidatorSecondPass {
 	 * Identify unused and undefined KR expressions.
 	 */
 	private void validateKR(KRInterface kri) {
-		// Collect undefined and unused KR expressions
+		Set<DatabaseFormula> knowledge = this.usage.getKnowledge();
+		Set<DatabaseFormula> beliefs = this.usage.getBeliefs();
+		Set<DatabaseFormula> dynamicBeliefs = this.usage.getDynamicBeliefs();
+		Set<DatabaseFormula> goalDbfs = this.usage.getGoalDbfs();
+
+		// Collect undefined KR expressions
 		Set<DatabaseFormula> tempDbfs;
-		Set<Query> tempQueries;
 
-		tempDbfs = new HashSet<DatabaseFormula>(this.knowledge);
-		tempDbfs.addAll(this.beliefs);
-		tempDbfs.addAll(this.dynamicBeliefs);
-		tempQueries = new HashSet<Query>(this.beliefQueries);
-		tempQueries.addAll(this.goals);
+		tempDbfs = new HashSet<DatabaseFormula>(knowledge);
+		tempDbfs.addAll(beliefs);
+		tempDbfs.addAll(dynamicBeliefs);
 		Set<Query> undefinedBeliefQueries = kri.getUndefined(tempDbfs,
 				this.beliefQueries);
 
-		tempDbfs = new HashSet<DatabaseFormula>(this.knowledge);
-		tempDbfs.addAll(this.goalDbfs);
-		tempQueries = new HashSet<Query>(this.goalQueries);
-		tempQueries.addAll(this.goals);
+		tempDbfs = new HashSet<DatabaseFormula>(knowledge);
+		tempDbfs.addAll(goalDbfs);
 		Set<Query> undefinedGoalQueries = kri.getUndefined(tempDbfs,
 				this.goalQueries);
-		undefinedGoalQueries.removeAll(kri.getUndefined(this.knowledge,
-				new HashSet<Query>()));
 
 		// Reserved keywords that should not be reported
 		Set<String> reserved = new HashSet<>();
@@ -209,66 +179,6 @@ public class TestValidatorSecondPass {
 		}
 	}
 
-	/**
-	 * Retrieves all action labels, macros, knowledge, belief and goal queries,
-	 * and belief and goal dbfs,
-	 *
-	 * @param module
-	 *            Module from which to retrieve information.
-	 */
-	private void visitModule(Module module) {
-		// extract relevant sets of database formulas and queries from module
-		this.knowledge.addAll(module.getKnowledge());
-		// exploits fact that we don't allow module declarations within modules
-		this.beliefs.addAll(module.getBeliefs());
-		this.processed.clear();
-		this.dynamicBeliefs.addAll(getInsertedBeliefs(module));
-		this.processed.clear();
-		this.goals.addAll(module.getGoals());
-		this.processed.clear();
-		this.goals.addAll(getAdoptedGoals(module));
-		this.processed.clear();
-		this.goalDbfs.addAll(getGoalDfs(module));
-		this.processed.clear();
-	}
-
-	/**
-	 * Extracts beliefs that are dynamically inserted into the belief base from
-	 * the module. Collects these from insert and delete actions and from
-	 * post-conditions.
-	 *
-	 * @param module
-	 *            Module from which beliefs are extracted.
-	 * @return Set of {@link DatabaseFormula} extracted from module.
-	 */
-	private Set<DatabaseFormula> getInsertedBeliefs(Module module) {
-		Set<DatabaseFormula> dbfs = new HashSet<>();
-		if (this.processed.add(module)) {
-			// Add beliefs inserted by inserts and deletes
-			for (Rule rule : module.getRules()) {
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof InsertAction) {
-						dbfs.addAll(((InsertAction) action).getUpdate()
-								.getAddList());
-					}
-					if (action instanceof DeleteAction) {
-						dbfs.addAll(((DeleteAction) action).getUpdate()
-								.getDeleteList());
-					}
-					if (action instanceof ModuleCallAction) {
-						dbfs.addAll(getInsertedBeliefs(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-			// Add beliefs inserted by post-conditions
-			for (ActionSpecification spec : module.getActionSpecifications()) {
-				dbfs.addAll(spec.getPostCondition().getAddList());
-			}
-		}
-		return dbfs;
-	}
-
 	/**
 	 * Extracts all queries on the belief base, including belief, a-goal, and
 	 * goal-a literals as well as preconditions.
@@ -289,64 +199,6 @@ public class TestValidatorSecondPass {
 		return queries;
 	}
 
-	/**
-	 * Retrieves all goals that are adopted in the module by adopt actions.
-	 *
-	 * @param module
-	 *            Module from which adopted goals are extracted.
-	 * @return Set of {@link Query}s extracted from module.
-	 */
-	private Set<Query> getAdoptedGoals(Module module) {
-		Set<Query> queries = new HashSet<Query>();
-		if (this.processed.add(module)) {
-			// Add updates in adopts
-			for (Rule rule : module.getRules()) {
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof AdoptAction) {
-						for (DatabaseFormula dbf : ((AdoptAction) action)
-								.getUpdate().getAddList()) {
-							queries.add(dbf.toQuery());
-						}
-					}
-					if (action instanceof ModuleCallAction) {
-						queries.addAll(getAdoptedGoals(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-		}
-		return queries;
-	}
-
-	/**
-	 * @param module
-	 *            Module from which all DBFs are extracted.
-	 * @return DBFs extracted from module.
-	 */
-	private Set<DatabaseFormula> getGoalDfs(Module module) {
-		Set<DatabaseFormula> dbfs = new HashSet<>();
-		if (this.processed.add(module)) {
-			// Add goals in goal section
-			for (Query query : module.getGoals()) {
-				dbfs.addAll(query.toUpdate().getAddList());
-			}
-			// Add updates in adopts
-			for (Rule rule : module.getRules()) {
-				for (Action<?> action : rule.getAction().getActions()) {
-					if (action instanceof AdoptAction) {
-						dbfs.addAll(((AdoptAction) action).getUpdate()
-								.getAddList());
-					}
-					if (action instanceof ModuleCallAction) {
-						dbfs.addAll(getGoalDfs(((ModuleCallAction) action)
-								.getTarget()));
-					}
-				}
-			}
-		}
-		return dbfs;
-	}
-
 	/**
 	 * Extracts all queries on the goal base from the module.
 	 *
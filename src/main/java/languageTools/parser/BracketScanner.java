@@ -0,0 +1,205 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.LexerNoViableAltException;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+
+/**
+ * Scans the remainder of the PARLIST and KR_BLOCK tokens of the
+ * {@link GOALLexer}, after the lexer has matched the opening bracket of such a
+ * token.
+ *
+ * <p>
+ * Brackets are counted instead of being matched by a recursive lexer rule, so
+ * scanning takes time linear in the length of the token and uses a constant
+ * amount of stack, however deeply the brackets are nested. Brackets that are
+ * part of a (Prolog) quoted atom, string, character code or comment are
+ * ignored. If the brackets do not match when these are taken into account, for
+ * example because a quote is not closed, the brackets are counted again without
+ * taking them into account, which is how the original recursive rules worked.
+ * </p>
+ */
+public final class BracketScanner {
+	private BracketScanner() {
+	}
+
+	/**
+	 * Consumes the remainder of a parameter list. If the opening bracket has no
+	 * matching closing bracket, the token becomes an {@link GOALLexer#LBR}
+	 * instead.
+	 *
+	 * @param lexer
+	 *            The lexer that just matched the opening bracket.
+	 */
+	public static void scanParameterList(Lexer lexer) {
+		if (!scan(lexer, '(', ')')) {
+			lexer.setType(GOALLexer.LBR);
+		}
+	}
+
+	/**
+	 * Consumes the remainder of a KR block. If the opening bracket has no
+	 * matching closing bracket, only the opening bracket is reported as a
+	 * token recognition error; the lexer leaves the KR block mode and
+	 * continues after the bracket.
+	 *
+	 * @param lexer
+	 *            The lexer that just matched the opening bracket.
+	 */
+	public static void scanKRBlock(Lexer lexer) {
+		if (!scan(lexer, '{', '}')) {
+			// Go back to the bracket, which the lexer skips when it recovers
+			// from the error
+			CharStream input = lexer.getInputStream();
+			LexerATNSimulator interpreter = lexer.getInterpreter();
+			input.seek(lexer._tokenStartCharIndex);
+			interpreter.setLine(lexer._tokenStartLine);
+			interpreter
+					.setCharPositionInLine(lexer._tokenStartCharPositionInLine);
+			lexer.popMode();
+			throw new LexerNoViableAltException(lexer, input,
+					lexer._tokenStartCharIndex, null);
+		}
+	}
+
+	/**
+	 * Consumes the input up to and including the bracket that matches the
+	 * (consumed) opening bracket.
+	 *
+	 * @return {@code true} if a matching bracket was found, {@code false} if
+	 *         not, in which case nothing has been consumed.
+	 */
+	private static boolean scan(Lexer lexer, int open, int close) {
+		CharStream input = lexer.getInputStream();
+		int length = find(input, open, close, true);
+		if (length < 0) {
+			length = find(input, open, close, false);
+		}
+		if (length < 0) {
+			return false;
+		}
+		// Let the interpreter consume so it keeps track of lines and columns
+		LexerATNSimulator interpreter = lexer.getInterpreter();
+		for (int i = 0; i < length; i++) {
+			interpreter.consume(input);
+		}
+		return true;
+	}
+
+	/**
+	 * Looks ahead for the bracket that matches the (consumed) opening bracket.
+	 *
+	 * @param prolog
+	 *            Whether to skip Prolog quoted atoms, strings, character codes
+	 *            and comments.
+	 * @return The number of characters up to and including the matching
+	 *         bracket, or -1 if there is none.
+	 */
+	private static int find(CharStream input, int open, int close,
+			boolean prolog) {
+		int depth = 1;
+		for (int i = 1;; i++) {
+			int c = input.LA(i);
+			if (c == IntStream.EOF) {
+				return -1;
+			} else if (c == open) {
+				depth++;
+			} else if (c == close) {
+				if (--depth == 0) {
+					return i;
+				}
+			} else if (!prolog) {
+				continue;
+			} else if (c == '\'' && i > 1 && isDigit(input.LA(i - 1))) {
+				// Character code (0'c) or number in another radix (16'FF); the
+				// first character follows the opening bracket, not a digit
+				if (input.LA(i - 1) == '0') {
+					i = skipCharacterCode(input, i);
+				}
+			} else if (c == '\'' || c == '"' || c == '`') {
+				i = skipQuoted(input, i, c);
+			} else if (c == '%') {
+				while (input.LA(i + 1) != '\n'
+						&& input.LA(i + 1) != IntStream.EOF) {
+					i++;
+				}
+			} else if (c == '/' && input.LA(i + 1) == '*') {
+				i = skipBlockComment(input, i);
+			}
+			if (i < 0) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @return The position of the character of a character code that starts
+	 *         with the quote at position i.
+	 */
+	private static int skipCharacterCode(CharStream input, int i) {
+		int c = input.LA(i + 1);
+		if (c == '\\' || (c == '\'' && input.LA(i + 2) == '\'')) {
+			return i + 2;
+		} else {
+			return i + 1;
+		}
+	}
+
+	/**
+	 * @return The position of the quote that closes the quoted text that
+	 *         starts at position i, or -1 if the quote is not closed.
+	 */
+	private static int skipQuoted(CharStream input, int i, int quote) {
+		for (i++;; i++) {
+			int c = input.LA(i);
+			if (c == IntStream.EOF) {
+				return -1;
+			} else if (c == '\\') {
+				i++;
+			} else if (c == quote) {
+				if (input.LA(i + 1) != quote) {
+					return i;
+				}
+				i++; // a doubled quote stands for the quote itself
+			}
+		}
+	}
+
+	/**
+	 * @return The position of the slash that ends the block comment that
+	 *         starts at position i, or -1 if the comment is not closed.
+	 */
+	private static int skipBlockComment(CharStream input, int i) {
+		for (i += 2;; i++) {
+			int c = input.LA(i);
+			if (c == IntStream.EOF) {
+				return -1;
+			} else if (c == '*' && input.LA(i + 1) == '/') {
+				return i + 1;
+			}
+		}
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+}
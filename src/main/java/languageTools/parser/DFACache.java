@@ -0,0 +1,319 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import languageTools.utils.Extension;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+
+/**
+ * Process wide cache of the DFAs that the ANTLR lexers and parsers for the
+ * GOAL, MAS2G and test grammars use for prediction.
+ *
+ * <p>
+ * ANTLR builds these DFAs lazily, by simulating the ATN of a grammar whenever
+ * it encounters a decision for which no DFA state is available yet. Generated
+ * recognizers store their DFAs and prediction context cache in static fields,
+ * so all lexers and parsers that are created by validators in the same JVM
+ * share a single cache per grammar. ANTLR only ever adds states to these DFAs
+ * and synchronizes doing so, which means that the cache can safely be used by
+ * validators that run concurrently in different threads.
+ * </p>
+ * <p>
+ * As DFAs are filled lazily, the first files parsed in a JVM are parsed
+ * considerably slower than the files parsed after them. Latency sensitive
+ * callers therefore may want to call {@link #warmUp()} at startup, which parses
+ * a small bundled corpus of agent, module, MAS and test files. Alternatively,
+ * the DFAs built by one process can be stored in a file using
+ * {@link #save(File)} and be loaded by later processes using
+ * {@link #load(File)}.
+ * </p>
+ */
+public final class DFACache {
+	/**
+	 * Resources (relative to this class) used for warming up the cache.
+	 */
+	private static final String[] CORPUS = { "warmup/warmup.goal",
+		"warmup/warmup.mod2g", "warmup/warmup.mas2g", "warmup/warmup.test2g" };
+
+	private static boolean warmedUp = false;
+
+	private DFACache() {
+	}
+
+	/**
+	 * Parses the bundled warm up corpus, filling the DFAs of all lexers and
+	 * parsers. Files are parsed both in SLL and in LL prediction mode, as is
+	 * done by the validators. Only the first call has any effect (unless
+	 * {@link #clear()} is called).
+	 *
+	 * @throws IOException
+	 *             If the corpus could not be read.
+	 */
+	public static synchronized void warmUp() throws IOException {
+		if (warmedUp) {
+			return;
+		}
+		for (String resource : CORPUS) {
+			CharStream stream = load(resource);
+			Extension extension = Extension.getFileExtension(resource);
+			parse(stream, extension, PredictionMode.SLL);
+			parse(stream, extension, PredictionMode.LL);
+		}
+		warmedUp = true;
+	}
+
+	/**
+	 * @return {@code true} if {@link #warmUp()} has been called.
+	 */
+	public static synchronized boolean isWarmedUp() {
+		return warmedUp;
+	}
+
+	/**
+	 * Removes all states from the DFAs of all lexers and parsers. Should only
+	 * be called when no files are being parsed.
+	 */
+	public static synchronized void clear() {
+		for (DFA[] dfas : getDFAs().values()) {
+			for (int i = 0; i < dfas.length; i++) {
+				dfas[i] = new DFA(dfas[i].atnStartState, i);
+			}
+		}
+		warmedUp = false;
+	}
+
+	/**
+	 * @return The total number of DFA states currently in the cache.
+	 */
+	public static int size() {
+		int size = 0;
+		for (DFA[] dfas : getDFAs().values()) {
+			for (DFA dfa : dfas) {
+				size += dfa.states.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return The shared DFAs of all lexers and parsers, by recognizer name.
+	 */
+	public static Map<String, DFA[]> getDFAs() {
+		Map<String, DFA[]> dfas = new LinkedHashMap<>();
+		for (Recognizer<?, ?> recognizer : getRecognizers()) {
+			dfas.put(recognizer.getClass().getSimpleName(), getDFAs(recognizer));
+		}
+		return dfas;
+	}
+
+	// -------------------------------------------------------------
+	// Cache files
+	// -------------------------------------------------------------
+
+	/**
+	 * Writes the current state of the cache to a file, which can be used to
+	 * initialize the cache of another process using {@link #load(File)}.
+	 *
+	 * @param file
+	 *            The file to write to.
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public static synchronized void save(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeUTF(DFACacheFile.MAGIC);
+			out.writeInt(DFACacheFile.FORMAT_VERSION);
+			List<Recognizer<?, ?>> recognizers = getRecognizers();
+			out.writeInt(recognizers.size());
+			for (Recognizer<?, ?> recognizer : recognizers) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream section = new DataOutputStream(bytes);
+				new DFACacheFile(recognizer.getATN(), getDFAs(recognizer))
+				.write(section);
+				section.flush();
+
+				out.writeUTF(recognizer.getClass().getSimpleName());
+				out.writeUTF(DFACacheFile.getGrammarHash(recognizer
+						.getSerializedATN()));
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+			}
+		}
+	}
+
+	/**
+	 * Initializes the cache from a file written by {@link #save(File)}. DFAs
+	 * are only loaded if they were created for the exact same grammar and
+	 * version of ANTLR, and only DFAs that are still empty are replaced. A file
+	 * written by an incompatible version of the grammar tools is ignored.
+	 *
+	 * @param file
+	 *            The file to read.
+	 * @return The number of DFA states that were loaded.
+	 * @throws IOException
+	 *             If the file could not be read or is corrupt.
+	 */
+	public static synchronized int load(File file) throws IOException {
+		int loaded = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			if (!DFACacheFile.MAGIC.equals(in.readUTF())
+					|| in.readInt() != DFACacheFile.FORMAT_VERSION) {
+				return 0;
+			}
+			Map<String, Recognizer<?, ?>> recognizers = new HashMap<>();
+			for (Recognizer<?, ?> recognizer : getRecognizers()) {
+				recognizers.put(recognizer.getClass().getSimpleName(),
+						recognizer);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				String hash = in.readUTF();
+				byte[] section = new byte[in.readInt()];
+				in.readFully(section);
+
+				Recognizer<?, ?> recognizer = recognizers.get(name);
+				if (recognizer != null
+						&& hash.equals(DFACacheFile.getGrammarHash(recognizer
+								.getSerializedATN()))) {
+					loaded += new DFACacheFile(recognizer.getATN(),
+							getDFAs(recognizer)).read(new DataInputStream(
+									new ByteArrayInputStream(section)));
+				}
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt DFA cache file " + file, e);
+		}
+		return loaded;
+	}
+
+	// -------------------------------------------------------------
+	// Helper methods
+	// -------------------------------------------------------------
+
+	/**
+	 * @return A lexer or parser for each of the grammars; these give access to
+	 *         the shared DFAs.
+	 */
+	private static List<Recognizer<?, ?>> getRecognizers() {
+		List<Recognizer<?, ?>> recognizers = new ArrayList<>();
+		recognizers.add(new GOALLexer(null));
+		recognizers.add(new GOAL(null));
+		recognizers.add(new MAS2GLexer(null));
+		recognizers.add(new MAS2GParser(null));
+		recognizers.add(new Test(null));
+		return recognizers;
+	}
+
+	private static DFA[] getDFAs(Recognizer<?, ?> recognizer) {
+		if (recognizer instanceof Lexer) {
+			return ((Lexer) recognizer).getInterpreter().decisionToDFA;
+		} else {
+			return ((Parser) recognizer).getInterpreter().decisionToDFA;
+		}
+	}
+
+	private static CharStream load(String resource) throws IOException {
+		InputStream input = DFACache.class.getResourceAsStream(resource);
+		if (input == null) {
+			throw new IOException("Could not find warm up file " + resource);
+		}
+		try {
+			ANTLRInputStream stream = new ANTLRInputStream(
+					new InputStreamReader(input, "UTF-8"));
+			stream.name = resource;
+			return stream;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void parse(CharStream stream, Extension extension,
+			PredictionMode mode) {
+		stream.seek(0);
+		Lexer lexer;
+		if (extension == Extension.MAS2G) {
+			lexer = new MAS2GLexer(stream);
+		} else {
+			lexer = new GOALLexer(stream);
+		}
+		lexer.removeErrorListeners();
+		CommonTokenStream tokens = new CommonTokenStream(lexer);
+
+		Parser parser;
+		switch (extension) {
+		case GOAL:
+			parser = new GOAL(tokens);
+			prepare(parser, mode);
+			((GOAL) parser).modules();
+			break;
+		case MOD2G:
+			parser = new GOAL(tokens);
+			prepare(parser, mode);
+			((GOAL) parser).module();
+			break;
+		case MAS2G:
+			parser = new MAS2GParser(tokens);
+			prepare(parser, mode);
+			((MAS2GParser) parser).mas();
+			break;
+		case TEST2G:
+			parser = new Test(tokens);
+			prepare(parser, mode);
+			((Test) parser).unitTest();
+			break;
+		default:
+			throw new IllegalArgumentException("Cannot warm up using "
+					+ stream.getSourceName());
+		}
+	}
+
+	private static void prepare(Parser parser, PredictionMode mode) {
+		parser.removeErrorListeners();
+		parser.setBuildParseTree(false);
+		parser.getInterpreter().setPredictionMode(mode);
+	}
+}
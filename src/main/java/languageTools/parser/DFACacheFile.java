@@ -0,0 +1,521 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.RuntimeMetaData;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNConfig;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ATNSimulator;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.ArrayPredictionContext;
+import org.antlr.v4.runtime.atn.DecisionState;
+import org.antlr.v4.runtime.atn.LexerATNConfig;
+import org.antlr.v4.runtime.atn.LexerAction;
+import org.antlr.v4.runtime.atn.LexerActionExecutor;
+import org.antlr.v4.runtime.atn.LexerIndexedCustomAction;
+import org.antlr.v4.runtime.atn.OrderedATNConfigSet;
+import org.antlr.v4.runtime.atn.PredictionContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.atn.SemanticContext;
+import org.antlr.v4.runtime.atn.SingletonPredictionContext;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+/**
+ * Reads and writes the DFAs of a single recognizer from and to a
+ * {@link DFACache} file.
+ *
+ * <p>
+ * A DFA state cannot be restored from its edges alone, as ANTLR needs the ATN
+ * configurations of a state to compute missing edges. Configurations are
+ * therefore stored as well, referring to ATN states by number and to a table of
+ * the (graph-structured) prediction contexts used. DFAs that use features that
+ * cannot be restored, i.e., semantic predicates or precedence DFAs, are
+ * skipped; ANTLR simply builds these again when needed.
+ * </p>
+ */
+final class DFACacheFile {
+	/**
+	 * Version of the format of a cache file; should be increased whenever the
+	 * format changes.
+	 */
+	static final int FORMAT_VERSION = 1;
+	static final String MAGIC = "GOAL-DFA-CACHE";
+
+	/**
+	 * Edge targets that are not regular DFA states.
+	 */
+	private static final int NO_STATE = -1;
+	private static final int ERROR_STATE = -2;
+
+	private final ATN atn;
+	private final DFA[] dfas;
+	private final boolean lexer;
+
+	/**
+	 * @param atn
+	 *            The ATN of the recognizer.
+	 * @param dfas
+	 *            The shared DFAs of the recognizer.
+	 */
+	DFACacheFile(ATN atn, DFA[] dfas) {
+		this.atn = atn;
+		this.dfas = dfas;
+		this.lexer = atn.lexerActions != null;
+	}
+
+	/**
+	 * Computes the hash that identifies a grammar. DFAs are only valid for the
+	 * exact ATN they were built from, and the format of the ATN may change with
+	 * the ANTLR runtime, so the serialized ATN and runtime version are hashed.
+	 *
+	 * @param serializedATN
+	 *            The serialized ATN of a generated recognizer.
+	 * @return A hash of the grammar.
+	 */
+	static String getGrammarHash(String serializedATN) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(RuntimeMetaData.VERSION.getBytes("UTF-8"));
+			digest.update(serializedATN.getBytes("UTF-8"));
+			return new BigInteger(1, digest.digest()).toString(16);
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// -------------------------------------------------------------
+	// Writing
+	// -------------------------------------------------------------
+
+	/**
+	 * Writes all DFAs of the recognizer that can be restored.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		List<DFA> writable = new ArrayList<>();
+		List<PredictionContext> contexts = new ArrayList<>();
+		Map<PredictionContext, Integer> contextIds = new IdentityHashMap<>();
+		for (DFA dfa : this.dfas) {
+			synchronized (dfa.states) {
+				if (isWritable(dfa)) {
+					writable.add(dfa);
+					for (DFAState state : dfa.states.keySet()) {
+						for (ATNConfig config : state.configs) {
+							collect(config.context, contexts, contextIds);
+						}
+					}
+				}
+			}
+		}
+
+		// Prediction contexts; parents are always written before children.
+		out.writeInt(contexts.size());
+		for (PredictionContext context : contexts) {
+			if (context == PredictionContext.EMPTY) {
+				out.writeByte(0);
+			} else if (context instanceof SingletonPredictionContext) {
+				SingletonPredictionContext singleton = (SingletonPredictionContext) context;
+				out.writeByte(1);
+				out.writeInt(getId(singleton.parent, contextIds));
+				out.writeInt(singleton.returnState);
+			} else {
+				ArrayPredictionContext array = (ArrayPredictionContext) context;
+				out.writeByte(2);
+				out.writeInt(array.returnStates.length);
+				for (int i = 0; i < array.returnStates.length; i++) {
+					out.writeInt(getId(array.parents[i], contextIds));
+					out.writeInt(array.returnStates[i]);
+				}
+			}
+		}
+
+		// DFAs
+		out.writeInt(writable.size());
+		for (DFA dfa : writable) {
+			synchronized (dfa.states) {
+				writeDFA(dfa, contextIds, out);
+			}
+		}
+	}
+
+	private boolean isWritable(DFA dfa) {
+		if (dfa.isPrecedenceDfa()) {
+			return false;
+		}
+		for (DFAState state : dfa.states.keySet()) {
+			if (state.predicates != null || state.configs.hasSemanticContext) {
+				return false;
+			}
+			for (ATNConfig config : state.configs) {
+				if (config.semanticContext != SemanticContext.NONE) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void collect(PredictionContext context,
+			List<PredictionContext> contexts,
+			Map<PredictionContext, Integer> ids) {
+		if (context == null || ids.containsKey(context)) {
+			return;
+		}
+		for (int i = 0; i < context.size(); i++) {
+			collect(context.getParent(i), contexts, ids);
+		}
+		ids.put(context, contexts.size());
+		contexts.add(context);
+	}
+
+	private int getId(PredictionContext context,
+			Map<PredictionContext, Integer> ids) {
+		return context == null ? NO_STATE : ids.get(context);
+	}
+
+	private void writeDFA(DFA dfa, Map<PredictionContext, Integer> contextIds,
+			DataOutputStream out) throws IOException {
+		out.writeInt(dfa.decision);
+		out.writeInt(dfa.states.size());
+		for (DFAState state : dfa.states.keySet()) {
+			out.writeInt(state.stateNumber);
+			out.writeBoolean(state.isAcceptState);
+			out.writeInt(state.prediction);
+			out.writeBoolean(state.requiresFullContext);
+			writeExecutor(state.lexerActionExecutor, out);
+			writeConfigs(state.configs, contextIds, out);
+		}
+		for (DFAState state : dfa.states.keySet()) {
+			if (state.edges == null) {
+				out.writeInt(NO_STATE);
+			} else {
+				out.writeInt(state.edges.length);
+				for (DFAState target : state.edges) {
+					out.writeInt(getNumber(target));
+				}
+			}
+		}
+		out.writeInt(getNumber(dfa.s0));
+	}
+
+	private int getNumber(DFAState state) {
+		if (state == null) {
+			return NO_STATE;
+		} else if (state == ATNSimulator.ERROR) {
+			return ERROR_STATE;
+		} else {
+			return state.stateNumber;
+		}
+	}
+
+	private void writeConfigs(ATNConfigSet configs,
+			Map<PredictionContext, Integer> contextIds, DataOutputStream out)
+					throws IOException {
+		out.writeBoolean(configs.fullCtx);
+		out.writeInt(configs.uniqueAlt);
+		out.writeBoolean(configs.dipsIntoOuterContext);
+		out.writeInt(configs.size());
+		for (ATNConfig config : configs) {
+			out.writeInt(config.state.stateNumber);
+			out.writeInt(config.alt);
+			out.writeInt(getId(config.context, contextIds));
+			out.writeInt(config.reachesIntoOuterContext);
+			if (this.lexer) {
+				LexerATNConfig lexerConfig = (LexerATNConfig) config;
+				out.writeBoolean(lexerConfig.hasPassedThroughNonGreedyDecision());
+				writeExecutor(lexerConfig.getLexerActionExecutor(), out);
+			}
+		}
+	}
+
+	private void writeExecutor(LexerActionExecutor executor,
+			DataOutputStream out) throws IOException {
+		if (executor == null) {
+			out.writeInt(NO_STATE);
+			return;
+		}
+		LexerAction[] actions = executor.getLexerActions();
+		out.writeInt(actions.length);
+		for (LexerAction action : actions) {
+			int offset = NO_STATE;
+			if (action instanceof LexerIndexedCustomAction) {
+				offset = ((LexerIndexedCustomAction) action).getOffset();
+				action = ((LexerIndexedCustomAction) action).getAction();
+			}
+			out.writeInt(getActionIndex(action));
+			out.writeInt(offset);
+		}
+	}
+
+	private int getActionIndex(LexerAction action) throws IOException {
+		for (int i = 0; i < this.atn.lexerActions.length; i++) {
+			if (this.atn.lexerActions[i].equals(action)) {
+				return i;
+			}
+		}
+		throw new IOException("Unknown lexer action " + action);
+	}
+
+	// -------------------------------------------------------------
+	// Reading
+	// -------------------------------------------------------------
+
+	/**
+	 * Reads DFAs and installs them as the shared DFAs of the recognizer. Only
+	 * DFAs that are still empty are replaced.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 * @return The number of DFA states that were installed.
+	 * @throws IOException
+	 *             If the stream could not be read or is corrupt.
+	 */
+	int read(DataInputStream in) throws IOException {
+		// Prediction contexts
+		int count = in.readInt();
+		PredictionContext[] contexts = new PredictionContext[count];
+		for (int i = 0; i < count; i++) {
+			byte type = in.readByte();
+			if (type == 0) {
+				contexts[i] = PredictionContext.EMPTY;
+			} else if (type == 1) {
+				PredictionContext parent = getContext(contexts, in.readInt());
+				contexts[i] = SingletonPredictionContext.create(parent,
+						in.readInt());
+			} else if (type == 2) {
+				int size = in.readInt();
+				PredictionContext[] parents = new PredictionContext[size];
+				int[] returnStates = new int[size];
+				for (int j = 0; j < size; j++) {
+					parents[j] = getContext(contexts, in.readInt());
+					returnStates[j] = in.readInt();
+				}
+				contexts[i] = new ArrayPredictionContext(parents, returnStates);
+			} else {
+				throw new IOException("Unknown prediction context type " + type);
+			}
+		}
+
+		// DFAs; read all of them before installing any
+		int dfaCount = in.readInt();
+		List<DFA> loaded = new ArrayList<>(dfaCount);
+		for (int i = 0; i < dfaCount; i++) {
+			loaded.add(readDFA(contexts, in));
+		}
+		int installed = 0;
+		for (DFA dfa : loaded) {
+			DFA shared = this.dfas[dfa.decision];
+			synchronized (shared.states) {
+				if (shared.states.isEmpty() && shared.s0 == null) {
+					shared.states.putAll(dfa.states);
+					shared.s0 = dfa.s0;
+					installed += dfa.states.size();
+				}
+			}
+		}
+		return installed;
+	}
+
+	private PredictionContext getContext(PredictionContext[] contexts, int id)
+			throws IOException {
+		if (id == NO_STATE) {
+			return null;
+		} else if (id < 0 || id >= contexts.length || contexts[id] == null) {
+			throw new IOException("Invalid prediction context " + id);
+		}
+		return contexts[id];
+	}
+
+	private DFA readDFA(PredictionContext[] contexts, DataInputStream in)
+			throws IOException {
+		int decision = in.readInt();
+		if (decision < 0 || decision >= this.dfas.length) {
+			throw new IOException("Invalid decision " + decision);
+		}
+		DFA dfa = new DFA(this.dfas[decision].atnStartState, decision);
+
+		int count = in.readInt();
+		DFAState[] states = new DFAState[count];
+		Map<Integer, DFAState> numbered = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			DFAState state = new DFAState();
+			state.stateNumber = in.readInt();
+			state.isAcceptState = in.readBoolean();
+			state.prediction = in.readInt();
+			state.requiresFullContext = in.readBoolean();
+			state.lexerActionExecutor = readExecutor(in);
+			state.configs = readConfigs(state, contexts, in);
+			states[i] = state;
+			numbered.put(state.stateNumber, state);
+		}
+		for (DFAState state : states) {
+			int length = in.readInt();
+			if (length != NO_STATE) {
+				state.edges = new DFAState[length];
+				for (int i = 0; i < length; i++) {
+					state.edges[i] = getState(numbered, in.readInt());
+				}
+			}
+			dfa.states.put(state, state);
+		}
+		dfa.s0 = getState(numbered, in.readInt());
+		return dfa;
+	}
+
+	private DFAState getState(Map<Integer, DFAState> states, int number)
+			throws IOException {
+		if (number == NO_STATE) {
+			return null;
+		} else if (number == ERROR_STATE) {
+			return ATNSimulator.ERROR;
+		} else if (!states.containsKey(number)) {
+			throw new IOException("Invalid DFA state " + number);
+		}
+		return states.get(number);
+	}
+
+	private ATNConfigSet readConfigs(DFAState state,
+			PredictionContext[] contexts, DataInputStream in)
+					throws IOException {
+		boolean fullCtx = in.readBoolean();
+		int uniqueAlt = in.readInt();
+		boolean dipsIntoOuterContext = in.readBoolean();
+
+		ATNConfigSet configs;
+		if (this.lexer) {
+			configs = new OrderedATNConfigSet();
+		} else {
+			configs = new CachedConfigSet(fullCtx);
+		}
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			ATNState atnState = getATNState(in.readInt());
+			int alt = in.readInt();
+			PredictionContext context = getContext(contexts, in.readInt());
+			int reachesIntoOuterContext = in.readInt();
+			ATNConfig config;
+			if (this.lexer) {
+				boolean nonGreedy = in.readBoolean();
+				LexerActionExecutor executor = readExecutor(in);
+				config = createLexerConfig(atnState, alt, context, executor,
+						nonGreedy);
+			} else {
+				config = new ATNConfig(atnState, alt, context);
+			}
+			config.reachesIntoOuterContext = reachesIntoOuterContext;
+			configs.add(config);
+		}
+		configs.uniqueAlt = uniqueAlt;
+		configs.dipsIntoOuterContext = dipsIntoOuterContext;
+		if (state.requiresFullContext) {
+			((CachedConfigSet) configs).restoreConflictingAlts();
+		}
+		configs.setReadonly(true);
+		return configs;
+	}
+
+	/**
+	 * Creates a lexer configuration. The flag that indicates whether a
+	 * non-greedy decision was passed can only be set by deriving the
+	 * configuration from a non-greedy decision state.
+	 */
+	private LexerATNConfig createLexerConfig(ATNState state, int alt,
+			PredictionContext context, LexerActionExecutor executor,
+			boolean nonGreedy) throws IOException {
+		if (!nonGreedy) {
+			return new LexerATNConfig(state, alt, context, executor);
+		}
+		for (ATNState candidate : this.atn.states) {
+			if (candidate instanceof DecisionState
+					&& ((DecisionState) candidate).nonGreedy) {
+				LexerATNConfig config = new LexerATNConfig(candidate, alt,
+						context, executor);
+				config = new LexerATNConfig(config, candidate);
+				return new LexerATNConfig(config, state);
+			}
+		}
+		throw new IOException("Grammar has no non-greedy decisions");
+	}
+
+	private ATNState getATNState(int number) throws IOException {
+		if (number < 0 || number >= this.atn.states.size()
+				|| this.atn.states.get(number) == null) {
+			throw new IOException("Invalid ATN state " + number);
+		}
+		return this.atn.states.get(number);
+	}
+
+	private LexerActionExecutor readExecutor(DataInputStream in)
+			throws IOException {
+		int length = in.readInt();
+		if (length == NO_STATE) {
+			return null;
+		}
+		LexerAction[] actions = new LexerAction[length];
+		for (int i = 0; i < length; i++) {
+			int index = in.readInt();
+			int offset = in.readInt();
+			if (this.atn.lexerActions == null || index < 0
+					|| index >= this.atn.lexerActions.length) {
+				throw new IOException("Invalid lexer action " + index);
+			}
+			actions[i] = this.atn.lexerActions[index];
+			if (offset != NO_STATE) {
+				actions[i] = new LexerIndexedCustomAction(offset, actions[i]);
+			}
+		}
+		return new LexerActionExecutor(actions);
+	}
+
+	/**
+	 * Configuration set restored from a cache file.
+	 */
+	private static class CachedConfigSet extends ATNConfigSet {
+		CachedConfigSet(boolean fullCtx) {
+			super(fullCtx);
+		}
+
+		/**
+		 * Restores the conflicting alternatives, which ANTLR uses when falling
+		 * back to full context prediction; these are computed from the
+		 * configurations in the same way as ANTLR does.
+		 */
+		void restoreConflictingAlts() {
+			this.conflictingAlts = PredictionMode.getAlts(PredictionMode
+					.getConflictingAltSubsets(this));
+		}
+	}
+}
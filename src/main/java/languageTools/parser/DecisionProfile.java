@@ -0,0 +1,195 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.ParseInfo;
+
+/**
+ * Collects the profiling information of the decisions made by (profiling)
+ * parsers, summed over all files that they parsed. A parser collects this
+ * information when {@link Parser#setProfile(boolean)} has been called for it,
+ * after which it can be added to the profile by {@link #add(Parser)}.
+ *
+ * <p>
+ * The profile is written as comma-separated values, with one line per grammar
+ * decision that has been made at least once, sorted by grammar and decision
+ * number, so that profiles made before and after a grammar change can be
+ * compared. The columns are:
+ * </p>
+ * <ul>
+ * <li>grammar: the grammar file, e.g. GOAL.g4;</li>
+ * <li>decision: the number of the decision in the grammar;</li>
+ * <li>rule: the name of the rule the decision is part of;</li>
+ * <li>invocations: the number of times the decision was made;</li>
+ * <li>time_ns: the time spent in prediction for the decision, in nanoseconds;</li>
+ * <li>sll_lookahead_total, sll_lookahead_max: the total and maximum number of
+ * tokens looked at by SLL prediction;</li>
+ * <li>ll_fallbacks: the number of times SLL prediction found a conflict and
+ * full-context (LL) prediction was needed;</li>
+ * <li>ll_lookahead_total, ll_lookahead_max: the total and maximum number of
+ * tokens looked at by full-context prediction;</li>
+ * <li>context_sensitivities, ambiguities, errors: the number of times
+ * full-context prediction resolved an SLL conflict, the number of (full
+ * context) ambiguities, and the number of syntax errors found by the
+ * decision.</li>
+ * </ul>
+ * <p>
+ * Note that files that are parsed in SLL mode first are only parsed in LL mode
+ * if SLL parsing fails, so full-context predictions of other files are not
+ * included.
+ * </p>
+ */
+public class DecisionProfile {
+	/**
+	 * The header line of the profile.
+	 */
+	public static final String HEADER = "grammar,decision,rule,invocations,time_ns,"
+			+ "sll_lookahead_total,sll_lookahead_max,ll_fallbacks,"
+			+ "ll_lookahead_total,ll_lookahead_max,"
+			+ "context_sensitivities,ambiguities,errors";
+
+	/**
+	 * The statistics of the decisions that were made, by grammar and decision.
+	 */
+	private final Map<String, Map<Integer, Decision>> grammars = new TreeMap<>();
+
+	/**
+	 * Adds the decisions made by a profiling parser to this profile. Parsers
+	 * for which profiling has not been enabled are ignored.
+	 *
+	 * @param parser
+	 *            The parser, which should not be used to parse anything after
+	 *            calling this method.
+	 */
+	public synchronized void add(Parser parser) {
+		ParseInfo info = parser.getParseInfo();
+		if (info == null) {
+			return;
+		}
+		Map<Integer, Decision> decisions = this.grammars.get(parser
+				.getGrammarFileName());
+		if (decisions == null) {
+			decisions = new TreeMap<>();
+			this.grammars.put(parser.getGrammarFileName(), decisions);
+		}
+		for (DecisionInfo decisionInfo : info.getDecisionInfo()) {
+			if (decisionInfo.invocations == 0) {
+				continue;
+			}
+			Decision decision = decisions.get(decisionInfo.decision);
+			if (decision == null) {
+				int rule = parser.getATN().getDecisionState(
+						decisionInfo.decision).ruleIndex;
+				decision = new Decision(parser.getRuleNames()[rule]);
+				decisions.put(decisionInfo.decision, decision);
+			}
+			decision.add(decisionInfo);
+		}
+	}
+
+	/**
+	 * Writes the profile.
+	 *
+	 * @param writer
+	 *            The writer to write the profile to.
+	 */
+	public synchronized void write(Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		out.println(HEADER);
+		for (Map.Entry<String, Map<Integer, Decision>> grammar : this.grammars
+				.entrySet()) {
+			for (Map.Entry<Integer, Decision> decision : grammar.getValue()
+					.entrySet()) {
+				out.println(grammar.getKey() + "," + decision.getKey() + ","
+						+ decision.getValue());
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the profile to a file.
+	 *
+	 * @param file
+	 *            The file to (over)write.
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public void save(File file) throws IOException {
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8")) {
+			write(writer);
+		}
+	}
+
+	/**
+	 * The statistics of a single decision.
+	 */
+	private static class Decision {
+		private final String rule;
+		private long invocations;
+		private long time;
+		private long sllLookahead;
+		private long sllMaxLookahead;
+		private long llFallbacks;
+		private long llLookahead;
+		private long llMaxLookahead;
+		private long contextSensitivities;
+		private long ambiguities;
+		private long errors;
+
+		Decision(String rule) {
+			this.rule = rule;
+		}
+
+		void add(DecisionInfo info) {
+			this.invocations += info.invocations;
+			this.time += info.timeInPrediction;
+			this.sllLookahead += info.SLL_TotalLook;
+			this.sllMaxLookahead = Math.max(this.sllMaxLookahead,
+					info.SLL_MaxLook);
+			this.llFallbacks += info.LL_Fallback;
+			this.llLookahead += info.LL_TotalLook;
+			this.llMaxLookahead = Math.max(this.llMaxLookahead,
+					info.LL_MaxLook);
+			this.contextSensitivities += info.contextSensitivities.size();
+			this.ambiguities += info.ambiguities.size();
+			this.errors += info.errors.size();
+		}
+
+		@Override
+		public String toString() {
+			return this.rule + "," + this.invocations + "," + this.time + ","
+					+ this.sllLookahead + "," + this.sllMaxLookahead + ","
+					+ this.llFallbacks + "," + this.llLookahead + ","
+					+ this.llMaxLookahead + "," + this.contextSensitivities
+					+ "," + this.ambiguities + "," + this.errors;
+		}
+	}
+}
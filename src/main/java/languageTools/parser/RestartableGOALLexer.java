@@ -0,0 +1,903 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Tokenizes agent and module files with the {@link GOALLexer}, and
+ * re-tokenizes only the part of the content that is affected by an edit. This
+ * is meant for editors that need the tokens of a file (e.g., for syntax
+ * highlighting) but not a parse tree.
+ *
+ * <p>
+ * The lexer has a state that depends on all content before the current
+ * position: the lexer mode (stack) and the position in the input. The state at
+ * the start of the first token of each line is recorded in a {@link Checkpoint}.
+ * After an edit, the lexer is restarted from the last checkpoint before the
+ * edit, and stops as soon as it arrives at the start of a line after the edit
+ * in the same state as it was in before the edit. The tokens after that point
+ * are not tokenized again.
+ * </p>
+ * <p>
+ * The content, the tokens and the checkpoints are kept in gap buffers, of
+ * which the gap is at the last edit. The tokens and checkpoints after the gap
+ * are stored without the changes in position, line, index and bracket depth
+ * made by the edits before them; these are kept once for all of them, and
+ * applied when one of them is read. An edit after which the lexer stops early
+ * therefore only touches the tokens and checkpoints that are tokenized again,
+ * apart from moving the gaps, which takes time linear in the distance to the
+ * previous edit. Tokens are created when they are returned and are never
+ * changed, so tokens obtained before an edit remain those of the content before
+ * the edit.
+ * </p>
+ * <p>
+ * As the lexer may look ahead beyond the end of a token (e.g., for an
+ * unterminated comment), each checkpoint also records the largest position
+ * that the lexer has looked at before reaching it. A checkpoint can only be
+ * used for restarting if the edit starts after that position. As these
+ * positions only increase, the checkpoint to restart at is found by a binary
+ * search.
+ * </p>
+ * <p>
+ * Errors in the content are not reported; characters that cannot be
+ * recognized are skipped by the lexer, just as when a file is validated.
+ * </p>
+ */
+public class RestartableGOALLexer {
+	/**
+	 * The fields of the tokens.
+	 */
+	private static final int TYPE = 0;
+	private static final int CHANNEL = 1;
+	private static final int START = 2;
+	private static final int STOP = 3;
+	private static final int LINE = 4;
+	private static final int POSITION = 5;
+	/**
+	 * The fields of the checkpoints; the mode stack is kept as object.
+	 */
+	private static final int CHAR_INDEX = 0;
+	private static final int LINE_START = 1;
+	private static final int CHECKPOINT_LINE = 2;
+	private static final int TOKEN_INDEX = 3;
+	private static final int MODE = 4;
+	private static final int DEPTH = 5;
+	private static final int LOOKAHEAD = 6;
+
+	/**
+	 * The current content.
+	 */
+	private final Text text;
+	/**
+	 * The tokens of the content, including the EOF token.
+	 */
+	private final Records tokens = new Records(false, Shift.NONE, Shift.NONE,
+			Shift.CHARS, Shift.CHARS, Shift.LINES, Shift.NONE);
+	/**
+	 * The checkpoints, ordered by position.
+	 */
+	private final Records checkpoints = new Records(true, Shift.CHARS,
+			Shift.CHARS, Shift.LINES, Shift.TOKENS, Shift.NONE, Shift.DEPTH,
+			Shift.CHARS);
+
+	/**
+	 * Tokenizes the content of a file.
+	 *
+	 * @param content
+	 *            The content of an agent or module file.
+	 */
+	public RestartableGOALLexer(String content) {
+		this.text = new Text(content);
+		Checkpoint start = new Checkpoint(0, 0, 1, 0, Lexer.DEFAULT_MODE,
+				new int[0], 0, -1);
+		lex(start, 0, 0, 0, 0, "");
+	}
+
+	/**
+	 * @return The current content.
+	 */
+	public String getContent() {
+		return this.text.toString();
+	}
+
+	/**
+	 * @return The tokens of the current content, including the EOF token. The
+	 *         list is not updated by later edits.
+	 */
+	public List<Token> getTokens() {
+		List<Token> tokens = new ArrayList<>(this.tokens.size());
+		for (int i = 0; i < this.tokens.size(); i++) {
+			tokens.add(getToken(i, this.text, 0));
+		}
+		return Collections.unmodifiableList(tokens);
+	}
+
+	/**
+	 * @return The checkpoints of the current content.
+	 */
+	public List<Checkpoint> getCheckpoints() {
+		List<Checkpoint> checkpoints = new ArrayList<>(this.checkpoints.size());
+		for (int i = 0; i < this.checkpoints.size(); i++) {
+			checkpoints.add(getCheckpoint(i));
+		}
+		return Collections.unmodifiableList(checkpoints);
+	}
+
+	/**
+	 * Applies an edit to the content and re-tokenizes the affected part.
+	 *
+	 * @param offset
+	 *            The (character) offset of the edit.
+	 * @param length
+	 *            The number of characters that are replaced.
+	 * @param replacement
+	 *            The text that replaces the characters.
+	 * @return The changes to the tokens.
+	 */
+	public TokenDelta update(int offset, int length, String replacement) {
+		if (offset < 0 || length < 0 || offset + length > this.text.length()) {
+			throw new IndexOutOfBoundsException("Cannot apply edit at "
+					+ offset + " of length " + length);
+		}
+		String replaced = this.text.subSequence(offset, offset + length)
+				.toString();
+		this.text.replace(offset, length, replacement);
+
+		// Find the last checkpoint that is not affected by the edit
+		int restart = 0;
+		int low = 1;
+		int high = this.checkpoints.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (this.checkpoints.get(middle, CHAR_INDEX) < offset
+					&& this.checkpoints.get(middle, LOOKAHEAD) < offset) {
+				restart = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		Checkpoint start = getCheckpoint(restart);
+		this.checkpoints.moveGap(restart);
+		this.tokens.moveGap(start.tokenIndex);
+
+		return lex(start, restart, offset, length, replacement.length(),
+				replaced);
+	}
+
+	/**
+	 * Tokenizes the content starting at a checkpoint, until the lexer arrives
+	 * in the same state at one of the checkpoints after the edit. The gaps of
+	 * the tokens and checkpoints should be at the start checkpoint.
+	 *
+	 * @param start
+	 *            The checkpoint to start at.
+	 * @param restart
+	 *            The index of the start checkpoint.
+	 * @param offset
+	 *            The offset of the edit.
+	 * @param length
+	 *            The number of characters that were replaced.
+	 * @param replacementLength
+	 *            The number of characters that replaced them.
+	 * @param replaced
+	 *            The characters that were replaced.
+	 * @return The changes to the tokens.
+	 */
+	private TokenDelta lex(Checkpoint start, int restart, int offset,
+			int length, int replacementLength, String replaced) {
+		int delta = replacementLength - length;
+		TrackingInputStream input = new TrackingInputStream(this.text);
+		input.lookahead = start.lookahead;
+		GOALLexer lexer = new GOALLexer(input);
+		lexer.removeErrorListeners();
+		start.restore(lexer);
+
+		// Checkpoints after the edit at which the lexer may converge; their
+		// positions are those before the edit
+		int size = this.checkpoints.size();
+		int next = restart;
+		while (next < size
+				&& this.checkpoints.get(next, LINE_START) < offset + length) {
+			next++;
+		}
+
+		List<Checkpoint> newCheckpoints = new ArrayList<>();
+		List<Token> lexed = new ArrayList<>();
+		int depth = start.depth;
+		int line = start.line - 1;
+		Checkpoint converged = null;
+		Checkpoint current = null;
+		while (true) {
+			// Record a checkpoint at the first token of each line
+			if (lexer.getLine() > line) {
+				line = lexer.getLine();
+				current = new Checkpoint(input.index(), input.index()
+						- lexer.getCharPositionInLine(), line,
+						start.tokenIndex + lexed.size(), lexer._mode,
+						lexer._modeStack.toArray(), depth, input.lookahead);
+				// Stop if the lexer is in the same state as before the edit
+				while (next < size
+						&& this.checkpoints.get(next, LINE_START) + delta < current.lineStart) {
+					next++;
+				}
+				if (next < size) {
+					Checkpoint candidate = getCheckpoint(next);
+					if (candidate.isSameState(current, delta)) {
+						converged = candidate;
+						break;
+					}
+				}
+				newCheckpoints.add(current);
+			}
+
+			Token token = lexer.nextToken();
+			lexed.add(token);
+			depth += getDepthChange(token);
+			if (token.getType() == Token.EOF) {
+				break;
+			}
+		}
+
+		// Remove the tokens and checkpoints after the start checkpoint that
+		// have been replaced, keeping the text of the tokens before the edit
+		int removeTo = this.tokens.size();
+		int oldEnd = this.text.length() - delta;
+		if (converged != null) {
+			removeTo = converged.tokenIndex;
+			oldEnd = converged.charIndex;
+		} else {
+			next = size;
+		}
+		List<Token> removed = new ArrayList<>(removeTo - start.tokenIndex);
+		if (removeTo > start.tokenIndex) {
+			String before = this.text.subSequence(start.charIndex, offset)
+					+ replaced
+					+ this.text.subSequence(offset + replacementLength,
+							oldEnd + delta);
+			for (int i = start.tokenIndex; i < removeTo; i++) {
+				removed.add(getToken(i, before, start.charIndex));
+			}
+		}
+		this.tokens.removeAfterGap(removeTo - start.tokenIndex);
+		this.checkpoints.removeAfterGap(next - restart);
+
+		// Move the tokens and checkpoints that are kept
+		int lineShift = 0;
+		if (converged != null) {
+			lineShift = current.line - converged.line;
+			this.tokens.shift(Shift.CHARS, delta);
+			this.tokens.shift(Shift.LINES, lineShift);
+			this.checkpoints.shift(Shift.CHARS, delta);
+			this.checkpoints.shift(Shift.LINES, lineShift);
+			this.checkpoints.shift(Shift.TOKENS,
+					lexed.size() - removed.size());
+			this.checkpoints.shift(Shift.DEPTH, current.depth
+					- converged.depth);
+		}
+
+		// Insert the new tokens and checkpoints
+		for (Token token : lexed) {
+			this.tokens.add(new int[] { token.getType(), token.getChannel(),
+					token.getStartIndex(), token.getStopIndex(),
+					token.getLine(), token.getCharPositionInLine() }, null);
+		}
+		for (Checkpoint checkpoint : newCheckpoints) {
+			this.checkpoints.add(new int[] { checkpoint.charIndex,
+					checkpoint.lineStart, checkpoint.line,
+					checkpoint.tokenIndex, checkpoint.mode, checkpoint.depth,
+					checkpoint.lookahead }, checkpoint.modeStack);
+		}
+		// The lexer may have looked beyond the checkpoints that are kept
+		int kept = restart + newCheckpoints.size();
+		while (kept < this.checkpoints.size()
+				&& this.checkpoints.get(kept, CHAR_INDEX) <= input.lookahead) {
+			this.checkpoints.set(kept, LOOKAHEAD, Math.max(input.lookahead,
+					this.checkpoints.get(kept, LOOKAHEAD)));
+			kept++;
+		}
+
+		List<Token> inserted = new ArrayList<>(lexed.size());
+		for (int i = 0; i < lexed.size(); i++) {
+			inserted.add(getToken(start.tokenIndex + i, this.text, 0));
+		}
+		return new TokenDelta(start.tokenIndex, removed, inserted, delta,
+				lineShift);
+	}
+
+	/**
+	 * Creates a token.
+	 *
+	 * @param index
+	 *            The index of the token.
+	 * @param content
+	 *            The content that contains the text of the token.
+	 * @param base
+	 *            The position of the content in the file.
+	 * @return The token.
+	 */
+	private Token getToken(int index, CharSequence content, int base) {
+		int start = this.tokens.get(index, START);
+		int stop = this.tokens.get(index, STOP);
+		// The text of a token, e.g. EOF, may be empty
+		String text = "";
+		if (start - base < content.length()) {
+			text = content.subSequence(start - base,
+					Math.min(stop - base + 1, content.length())).toString();
+		}
+		CommonToken token = new CommonToken(this.tokens.get(index, TYPE),
+				text);
+		token.setChannel(this.tokens.get(index, CHANNEL));
+		token.setStartIndex(start);
+		token.setStopIndex(stop);
+		token.setLine(this.tokens.get(index, LINE));
+		token.setCharPositionInLine(this.tokens.get(index, POSITION));
+		token.setTokenIndex(index);
+		return token;
+	}
+
+	/**
+	 * @return The checkpoint with the specified index.
+	 */
+	private Checkpoint getCheckpoint(int index) {
+		Records records = this.checkpoints;
+		return new Checkpoint(records.get(index, CHAR_INDEX), records.get(
+				index, LINE_START), records.get(index, CHECKPOINT_LINE),
+				records.get(index, TOKEN_INDEX), records.get(index, MODE),
+				(int[]) records.getObject(index), records.get(index, DEPTH),
+				records.get(index, LOOKAHEAD));
+	}
+
+	/**
+	 * @return 1 for an opening bracket, -1 for a closing bracket, 0 for any
+	 *         other token.
+	 */
+	private static int getDepthChange(Token token) {
+		switch (token.getType()) {
+		case GOALLexer.LBR:
+		case GOALLexer.CLBR:
+		case GOALLexer.SLBR:
+			return 1;
+		case GOALLexer.RBR:
+		case GOALLexer.CRBR:
+		case GOALLexer.SRBR:
+			return -1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * The state of the lexer at the start of the first token on a line.
+	 */
+	public static class Checkpoint {
+		/**
+		 * Index of the first character of the token.
+		 */
+		private final int charIndex;
+		/**
+		 * Index of the first character of the line.
+		 */
+		private final int lineStart;
+		/**
+		 * The line number (1 for the first line).
+		 */
+		private final int line;
+		/**
+		 * Index of the token in the token list.
+		 */
+		private final int tokenIndex;
+		/**
+		 * Lexer mode and mode stack.
+		 */
+		private final int mode;
+		private final int[] modeStack;
+		/**
+		 * Number of brackets that have been opened but not closed yet.
+		 */
+		private final int depth;
+		/**
+		 * The largest character index that was looked at by the lexer before
+		 * reaching the checkpoint.
+		 */
+		private final int lookahead;
+
+		private Checkpoint(int charIndex, int lineStart, int line,
+				int tokenIndex, int mode, int[] modeStack, int depth,
+				int lookahead) {
+			this.charIndex = charIndex;
+			this.lineStart = lineStart;
+			this.line = line;
+			this.tokenIndex = tokenIndex;
+			this.mode = mode;
+			this.modeStack = modeStack;
+			this.depth = depth;
+			this.lookahead = lookahead;
+		}
+
+		/**
+		 * @return Index of the first character of the token at the checkpoint.
+		 */
+		public int getCharIndex() {
+			return this.charIndex;
+		}
+
+		/**
+		 * @return The line of the checkpoint (1 for the first line).
+		 */
+		public int getLine() {
+			return this.line;
+		}
+
+		/**
+		 * @return Index of the token at the checkpoint.
+		 */
+		public int getTokenIndex() {
+			return this.tokenIndex;
+		}
+
+		/**
+		 * @return The lexer mode at the checkpoint.
+		 */
+		public int getMode() {
+			return this.mode;
+		}
+
+		/**
+		 * @return The lexer mode stack at the checkpoint (bottom first).
+		 */
+		public int[] getModeStack() {
+			return this.modeStack.clone();
+		}
+
+		/**
+		 * @return The number of opening brackets (tokens) before the
+		 *         checkpoint that have not been closed yet.
+		 */
+		public int getDepth() {
+			return this.depth;
+		}
+
+		/**
+		 * Puts a lexer in the state of this checkpoint.
+		 */
+		private void restore(GOALLexer lexer) {
+			lexer._input.seek(this.charIndex);
+			lexer.setLine(this.line);
+			lexer.setCharPositionInLine(this.charIndex - this.lineStart);
+			lexer._mode = this.mode;
+			lexer._modeStack.clear();
+			lexer._modeStack.addAll(this.modeStack);
+		}
+
+		/**
+		 * @return {@code true} if the other checkpoint is at the same position
+		 *         (shifted by the given delta) and has the same lexer state.
+		 */
+		private boolean isSameState(Checkpoint other, int delta) {
+			return this.charIndex + delta == other.charIndex
+					&& this.lineStart + delta == other.lineStart
+					&& this.mode == other.mode
+					&& Arrays.equals(this.modeStack, other.modeStack);
+		}
+	}
+
+	/**
+	 * The changes to the tokens made by an edit: a range of tokens is replaced
+	 * by new tokens; the tokens after that range are moved.
+	 */
+	public static class TokenDelta {
+		private final int startIndex;
+		private final List<Token> removed;
+		private final List<Token> inserted;
+		private final int charShift;
+		private final int lineShift;
+
+		private TokenDelta(int startIndex, List<Token> removed,
+				List<Token> inserted, int charShift, int lineShift) {
+			this.startIndex = startIndex;
+			this.removed = removed;
+			this.inserted = inserted;
+			this.charShift = charShift;
+			this.lineShift = lineShift;
+		}
+
+		/**
+		 * @return Index of the first token that was replaced.
+		 */
+		public int getStartIndex() {
+			return this.startIndex;
+		}
+
+		/**
+		 * @return The tokens that were removed.
+		 */
+		public List<Token> getRemoved() {
+			return Collections.unmodifiableList(this.removed);
+		}
+
+		/**
+		 * @return The tokens that were inserted in place of the removed tokens.
+		 */
+		public List<Token> getInserted() {
+			return Collections.unmodifiableList(this.inserted);
+		}
+
+		/**
+		 * @return The number of characters by which the tokens after the
+		 *         inserted tokens have moved.
+		 */
+		public int getCharShift() {
+			return this.charShift;
+		}
+
+		/**
+		 * @return The number of lines by which the tokens after the inserted
+		 *         tokens have moved.
+		 */
+		public int getLineShift() {
+			return this.lineShift;
+		}
+	}
+
+	/**
+	 * The kinds of changes made by an edit to the fields of the tokens and
+	 * checkpoints after it.
+	 */
+	private enum Shift {
+		NONE, CHARS, LINES, TOKENS, DEPTH
+	}
+
+	/**
+	 * A gap buffer of records with a fixed number of int fields and,
+	 * optionally, an object. The fields of the records after the gap are
+	 * stored without the shifts that have been made since they were moved
+	 * there.
+	 */
+	private static class Records {
+		/**
+		 * The kind of shift of each field.
+		 */
+		private final Shift[] kinds;
+		/**
+		 * The shift of each kind of the records after the gap.
+		 */
+		private final int[] shifts = new int[Shift.values().length];
+		private int[] fields;
+		private Object[] objects;
+		/**
+		 * The (physical) index of the first record in the gap, and of the
+		 * first record after the gap.
+		 */
+		private int gapStart;
+		private int gapEnd;
+		private int capacity;
+
+		Records(boolean withObjects, Shift... kinds) {
+			this.kinds = kinds;
+			this.capacity = 16;
+			this.fields = new int[this.capacity * kinds.length];
+			this.objects = withObjects ? new Object[this.capacity] : null;
+			this.gapEnd = this.capacity;
+		}
+
+		/**
+		 * @return The number of records.
+		 */
+		int size() {
+			return this.capacity - (this.gapEnd - this.gapStart);
+		}
+
+		/**
+		 * @return The value of a field of a record.
+		 */
+		int get(int index, int field) {
+			if (index < this.gapStart) {
+				return this.fields[index * this.kinds.length + field];
+			}
+			int physical = index + this.gapEnd - this.gapStart;
+			return this.fields[physical * this.kinds.length + field]
+					+ getShift(field);
+		}
+
+		/**
+		 * Sets the value of a field of a record.
+		 */
+		void set(int index, int field, int value) {
+			if (index < this.gapStart) {
+				this.fields[index * this.kinds.length + field] = value;
+			} else {
+				int physical = index + this.gapEnd - this.gapStart;
+				this.fields[physical * this.kinds.length + field] = value
+						- getShift(field);
+			}
+		}
+
+		/**
+		 * @return The shift of a field of the records after the gap.
+		 */
+		private int getShift(int field) {
+			return this.shifts[this.kinds[field].ordinal()];
+		}
+
+		/**
+		 * @return The object of a record.
+		 */
+		Object getObject(int index) {
+			return this.objects[(index < this.gapStart) ? index : index
+					+ this.gapEnd - this.gapStart];
+		}
+
+		/**
+		 * Adds a record at the start of the gap.
+		 */
+		void add(int[] values, Object object) {
+			if (this.gapStart == this.gapEnd) {
+				grow();
+			}
+			System.arraycopy(values, 0, this.fields, this.gapStart
+					* this.kinds.length, this.kinds.length);
+			if (this.objects != null) {
+				this.objects[this.gapStart] = object;
+			}
+			this.gapStart++;
+		}
+
+		/**
+		 * Removes a number of records after the gap.
+		 */
+		void removeAfterGap(int count) {
+			if (this.objects != null) {
+				Arrays.fill(this.objects, this.gapEnd, this.gapEnd + count,
+						null);
+			}
+			this.gapEnd += count;
+		}
+
+		/**
+		 * Shifts the fields of a kind of all records after the gap.
+		 */
+		void shift(Shift kind, int amount) {
+			this.shifts[kind.ordinal()] += amount;
+		}
+
+		/**
+		 * Moves the gap to before the record with the specified index.
+		 */
+		void moveGap(int index) {
+			while (this.gapStart > index) {
+				this.gapStart--;
+				this.gapEnd--;
+				move(this.gapStart, this.gapEnd, -1);
+			}
+			while (this.gapStart < index) {
+				move(this.gapEnd, this.gapStart, 1);
+				this.gapStart++;
+				this.gapEnd++;
+			}
+		}
+
+		/**
+		 * Moves a record to the other side of the gap, adding (sign 1) or
+		 * removing (sign -1) the shifts.
+		 */
+		private void move(int from, int to, int sign) {
+			int width = this.kinds.length;
+			for (int field = 0; field < width; field++) {
+				this.fields[to * width + field] = this.fields[from * width
+						+ field] + sign * getShift(field);
+			}
+			if (this.objects != null) {
+				this.objects[to] = this.objects[from];
+				this.objects[from] = null;
+			}
+		}
+
+		private void grow() {
+			int width = this.kinds.length;
+			int after = this.capacity - this.gapEnd;
+			int capacity = 2 * this.capacity;
+			int[] fields = new int[capacity * width];
+			System.arraycopy(this.fields, 0, fields, 0, this.gapStart * width);
+			System.arraycopy(this.fields, this.gapEnd * width, fields,
+					(capacity - after) * width, after * width);
+			this.fields = fields;
+			if (this.objects != null) {
+				Object[] objects = new Object[capacity];
+				System.arraycopy(this.objects, 0, objects, 0, this.gapStart);
+				System.arraycopy(this.objects, this.gapEnd, objects, capacity
+						- after, after);
+				this.objects = objects;
+			}
+			this.gapEnd = capacity - after;
+			this.capacity = capacity;
+		}
+	}
+
+	/**
+	 * A gap buffer of characters.
+	 */
+	private static class Text implements CharSequence {
+		private char[] chars;
+		/**
+		 * The index of the first character in the gap, and of the first
+		 * character after the gap.
+		 */
+		private int gapStart;
+		private int gapEnd;
+
+		Text(String content) {
+			this.chars = new char[content.length() + 16];
+			content.getChars(0, content.length(), this.chars, 0);
+			this.gapStart = content.length();
+			this.gapEnd = this.chars.length;
+		}
+
+		@Override
+		public int length() {
+			return this.chars.length - (this.gapEnd - this.gapStart);
+		}
+
+		@Override
+		public char charAt(int index) {
+			return this.chars[(index < this.gapStart) ? index : index
+					+ this.gapEnd - this.gapStart];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			char[] result = new char[end - start];
+			int before = Math.max(0, Math.min(end, this.gapStart) - start);
+			System.arraycopy(this.chars, start, result, 0, before);
+			System.arraycopy(this.chars, start + before + this.gapEnd
+					- this.gapStart, result, before, result.length - before);
+			return new String(result);
+		}
+
+		/**
+		 * Replaces characters, after moving the gap to them.
+		 */
+		void replace(int offset, int length, String replacement) {
+			if (offset < this.gapStart) {
+				int count = this.gapStart - offset;
+				System.arraycopy(this.chars, offset, this.chars, this.gapEnd
+						- count, count);
+				this.gapStart = offset;
+				this.gapEnd -= count;
+			} else if (offset > this.gapStart) {
+				int count = offset - this.gapStart;
+				System.arraycopy(this.chars, this.gapEnd, this.chars,
+						this.gapStart, count);
+				this.gapStart += count;
+				this.gapEnd += count;
+			}
+			this.gapEnd += length;
+
+			if (this.gapEnd - this.gapStart < replacement.length()) {
+				int after = this.chars.length - this.gapEnd;
+				char[] chars = new char[Math.max(2 * this.chars.length,
+						length() + replacement.length() + 16)];
+				System.arraycopy(this.chars, 0, chars, 0, this.gapStart);
+				System.arraycopy(this.chars, this.gapEnd, chars, chars.length
+						- after, after);
+				this.chars = chars;
+				this.gapEnd = chars.length - after;
+			}
+			replacement.getChars(0, replacement.length(), this.chars,
+					this.gapStart);
+			this.gapStart += replacement.length();
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length()).toString();
+		}
+	}
+
+	/**
+	 * Input stream for the content that records the largest index that has
+	 * been looked at.
+	 */
+	private static class TrackingInputStream implements CharStream {
+		private final Text text;
+		private int p = 0;
+		private int lookahead;
+
+		TrackingInputStream(Text text) {
+			this.text = text;
+		}
+
+		@Override
+		public int LA(int i) {
+			if (i > 0) {
+				this.lookahead = Math.max(this.lookahead, this.p + i - 1);
+			}
+			if (i == 0) {
+				return 0; // undefined
+			}
+			if (i < 0) {
+				i++; // e.g., translate LA(-1) to use offset i=0; then data[p+0-1]
+				if ((this.p + i - 1) < 0) {
+					return IntStream.EOF; // invalid; no char before first char
+				}
+			}
+			if ((this.p + i - 1) >= this.text.length()) {
+				return IntStream.EOF;
+			}
+			return this.text.charAt(this.p + i - 1);
+		}
+
+		@Override
+		public void consume() {
+			if (this.p >= this.text.length()) {
+				throw new IllegalStateException("cannot consume EOF");
+			}
+			this.p++;
+		}
+
+		@Override
+		public int mark() {
+			return -1;
+		}
+
+		@Override
+		public void release(int marker) {
+		}
+
+		@Override
+		public int index() {
+			return this.p;
+		}
+
+		@Override
+		public void seek(int index) {
+			this.p = Math.min(index, this.text.length());
+		}
+
+		@Override
+		public int size() {
+			return this.text.length();
+		}
+
+		@Override
+		public String getSourceName() {
+			return IntStream.UNKNOWN_SOURCE_NAME;
+		}
+
+		@Override
+		public String getText(Interval interval) {
+			int start = interval.a;
+			int stop = Math.min(interval.b, this.text.length() - 1);
+			if (start >= this.text.length() || stop < start) {
+				return "";
+			}
+			return this.text.subSequence(start, stop + 1).toString();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@link CharStream} for a (UTF-8 encoded) file.
+ *
+ * <p>
+ * The file is read in small windows and closed right away; it is not mapped,
+ * so it is never kept open. A file that only contains ASCII characters, such as
+ * most agent and knowledge files, is not decoded at all: its bytes are the
+ * characters of the stream, which takes half the memory of decoded characters.
+ * Other files are decoded, and invalid UTF-8 input is replaced by the Unicode
+ * replacement character. Files that are read only once from start to end, such
+ * as imported knowledge files, can be decoded while they are read by a
+ * {@link #newReader(File)} instead, which only keeps a small window of the file
+ * in memory.
+ * </p>
+ */
+public class Utf8FileStream implements CharStream {
+	/**
+	 * The maximum number of bytes that is read from a file at once.
+	 */
+	public static final int WINDOW = 1 << 16;
+	/**
+	 * The size (in bytes) of the largest file that can be streamed.
+	 */
+	public static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	/**
+	 * The characters of a file that only contains ASCII characters, or
+	 * {@code null}.
+	 */
+	private final byte[] ascii;
+	/**
+	 * The decoded characters of any other file, or {@code null}.
+	 */
+	private final char[] chars;
+	/**
+	 * The number of characters in the stream.
+	 */
+	private final int size;
+	/**
+	 * Index of the next character to be consumed.
+	 */
+	private int p = 0;
+	/**
+	 * Name of the stream, usually the name of the file.
+	 */
+	private final String name;
+
+	/**
+	 * Reads and, if needed, decodes a file.
+	 *
+	 * @param fileName
+	 *            The name of the file, which is also used as name of the
+	 *            stream.
+	 * @throws IOException
+	 *             If the file could not be read, or is larger than
+	 *             {@link #MAX_SIZE}.
+	 */
+	public Utf8FileStream(String fileName) throws IOException {
+		this.name = fileName;
+		byte[] bytes = read(fileName);
+		if (isAscii(bytes)) {
+			this.ascii = bytes;
+			this.chars = null;
+			this.size = bytes.length;
+		} else {
+			CharBuffer decoded = decode(bytes);
+			this.ascii = null;
+			this.chars = decoded.array();
+			this.size = decoded.limit();
+		}
+	}
+
+	private static byte[] read(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length > MAX_SIZE) {
+				throw new IOException("File " + fileName + " is too large");
+			}
+			byte[] bytes = new byte[(int) length];
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			// Reading into a heap buffer copies through a temporary direct
+			// buffer of the same size, so read a window at a time
+			while (buffer.position() < bytes.length) {
+				buffer.limit(Math.min(buffer.position() + WINDOW,
+						bytes.length));
+				if (channel.read(buffer) < 0) {
+					// The file has become shorter
+					return Arrays.copyOf(bytes, buffer.position());
+				}
+			}
+			return bytes;
+		}
+	}
+
+	private static boolean isAscii(byte[] bytes) {
+		for (byte b : bytes) {
+			if (b < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static CharBuffer decode(byte[] bytes)
+			throws CharacterCodingException {
+		// UTF-8 never needs more characters than bytes
+		CharBuffer chars = CharBuffer.allocate(bytes.length);
+		CharsetDecoder decoder = newDecoder();
+		CoderResult result = decoder.decode(ByteBuffer.wrap(bytes), chars,
+				true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		result = decoder.flush(chars);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		chars.flip();
+		return chars;
+	}
+
+	private static CharsetDecoder newDecoder() {
+		return StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Opens a reader that decodes a (UTF-8 encoded) file while it is read, in
+	 * the same way as a stream for the file. The reader should be closed.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return A reader for the content of the file.
+	 * @throws IOException
+	 *             If the file could not be opened.
+	 */
+	public static Reader newReader(File file) throws IOException {
+		return new InputStreamReader(Files.newInputStream(file.toPath()),
+				newDecoder());
+	}
+
+	@Override
+	public void consume() {
+		if (this.p >= this.size) {
+			throw new IllegalStateException("cannot consume EOF");
+		}
+		this.p++;
+	}
+
+	@Override
+	public int LA(int i) {
+		if (i == 0) {
+			return 0; // undefined
+		}
+		if (i < 0) {
+			i++; // e.g., translate LA(-1) to use offset i=0; then data[p+0-1]
+			if ((this.p + i - 1) < 0) {
+				return IntStream.EOF; // invalid; no char before first char
+			}
+		}
+		if ((this.p + i - 1) >= this.size) {
+			return IntStream.EOF;
+		}
+		return (this.ascii == null) ? this.chars[this.p + i - 1]
+				: this.ascii[this.p + i - 1];
+	}
+
+	@Override
+	public int mark() {
+		return -1;
+	}
+
+	@Override
+	public void release(int marker) {
+	}
+
+	@Override
+	public int index() {
+		return this.p;
+	}
+
+	@Override
+	public void seek(int index) {
+		this.p = Math.min(index, this.size);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public String getSourceName() {
+		return this.name;
+	}
+
+	@Override
+	public String getText(Interval interval) {
+		int start = interval.a;
+		int stop = Math.min(interval.b, this.size - 1);
+		if (start >= this.size || stop < start) {
+			return "";
+		}
+		if (this.ascii == null) {
+			return new String(this.chars, start, stop - start + 1);
+		}
+		return new String(this.ascii, start, stop - start + 1,
+				StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public String toString() {
+		return getText(Interval.of(0, this.size - 1));
+	}
+}
@@ -20,13 +20,14 @@ package languageTools.program.agent;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import javax.naming.NamingException;
-
 import krTools.KRInterface;
 import krTools.errors.exceptions.ParserException;
 import krTools.language.DatabaseFormula;
@@ -41,6 +42,7 @@ import languageTools.program.agent.msc.MentalLiteral;
 import languageTools.program.agent.msc.MentalStateCondition;
 import languageTools.program.agent.rules.Rule;
 import languageTools.program.agent.selector.Selector.SelectorType;
+import languageTools.symbolTable.agent.MacroSymbol;
 
 /**
  * <p>
@@ -82,6 +84,19 @@ public class AgentProgram extends Program {
 	 * post-conditions.
 	 */
 	private KRInterface krInterface = null;
+	/**
+	 * The modules and action specifications in this program by signature, built
+	 * when first needed and dropped when modules are added or changed; see
+	 * {@link #getAction(String, int)}.
+	 */
+	private Map<String, Object> actionIndex = null;
+	/**
+	 * The modules that define a macro, by signature of the macro and in the
+	 * order of {@link #getModules()}, built when first needed and dropped when
+	 * modules are added or macros are defined in them; see
+	 * {@link #resolve(MentalStateCondition)}.
+	 */
+	private Map<String, List<Module>> macroIndex = null;
 
 	/**
 	 * Creates a new (empty) agent program.
@@ -106,8 +121,27 @@ public class AgentProgram extends Program {
 	 * @param module
 	 *            The {@link Module} that is added.
 	 */
-	public void addModule(Module module) {
+	public synchronized void addModule(Module module) {
 		this.modules.add(module);
+		module.setProgram(this);
+		this.actionIndex = null;
+		this.macroIndex = null;
+	}
+
+	/**
+	 * Drops the index of modules and actions; called by a module of this
+	 * program when its name, parameters or action specifications are set.
+	 */
+	synchronized void invalidateActions() {
+		this.actionIndex = null;
+	}
+
+	/**
+	 * Drops the index of macros; called by a module of this program when a
+	 * macro is defined in it.
+	 */
+	synchronized void invalidateMacros() {
+		this.macroIndex = null;
 	}
 
 	/**
@@ -302,27 +336,162 @@ public class AgentProgram extends Program {
 	}
 
 	/**
-	 * Resolves all the macros in given {@link MentalStateCondition}.
+	 * Looks up a module in this program.
+	 *
+	 * @param name
+	 *            The name of the module.
+	 * @param arity
+	 *            The number of parameters of the module.
+	 * @return The module with the name and number of parameters, or
+	 *         {@code null} if there is no such module, or if an action
+	 *         specification with the same signature precedes it.
+	 */
+	public Module getModule(String name, int arity) {
+		Object action = getAction(name, arity);
+		return (action instanceof Module) ? (Module) action : null;
+	}
+
+	/**
+	 * Looks up an action specification in the modules of this program.
+	 *
+	 * @param name
+	 *            The name of the action.
+	 * @param arity
+	 *            The number of parameters of the action.
+	 * @return The action specification with the name and number of
+	 *         parameters, or {@code null} if there is no such specification,
+	 *         or if a module with the same signature precedes it.
+	 */
+	public ActionSpecification getActionSpecification(String name, int arity) {
+		Object action = getAction(name, arity);
+		return (action instanceof ActionSpecification) ? (ActionSpecification) action
+				: null;
+	}
+
+	/**
+	 * Looks up the module or action specification with a signature. If
+	 * several have the signature, the first one is returned, where the modules
+	 * are ordered as in {@link #getModules()}, each followed by its action
+	 * specifications.
+	 *
+	 * <p>
+	 * The index that is used for this is built again when modules have been
+	 * added, or their names, parameters or action specifications have been
+	 * set, since it was built.
+	 * </p>
+	 *
+	 * @param name
+	 *            The name of the module or action.
+	 * @param arity
+	 *            The number of parameters of the module or action.
+	 * @return The {@link Module} or {@link ActionSpecification}, or
+	 *         {@code null} if there is none with the signature.
+	 */
+	private synchronized Object getAction(String name, int arity) {
+		if (this.actionIndex == null) {
+			Map<String, Object> index = new HashMap<>();
+			for (Module module : this.modules) {
+				if (module.getName() != null
+						&& !index.containsKey(module.getSignature())) {
+					index.put(module.getSignature(), module);
+				}
+				for (ActionSpecification spec : module
+						.getActionSpecifications()) {
+					String signature = spec.getAction().getSignature();
+					if (!index.containsKey(signature)) {
+						index.put(signature, spec);
+					}
+				}
+			}
+			this.actionIndex = index;
+		}
+		return this.actionIndex.get(name + "/" + arity);
+	}
+
+	/**
+	 * Resolves all the macros in given {@link MentalStateCondition}. The
+	 * macros are resolved by the first module that defines all of them.
 	 *
 	 * @param msc
 	 *            the {@link MentalStateCondition} to resolve.
 	 * @return set of macro labels occurring in the msc.
-	 * @throws NamingException
 	 * @throws ParserException
 	 *             if a macro can not be resolved (it's undefined). The message
-	 *             then will contain the signature of the undefined macro, and
-	 *             the sourceinfo will be set properly.
+	 *             then will contain the signature of the first macro that no
+	 *             module defines or, if every macro is defined but not all by
+	 *             the same module, of the first macro that is not defined by
+	 *             the first module defining the first macro; the sourceinfo
+	 *             will be set properly.
 	 */
 	public Set<String> resolve(MentalStateCondition msc) throws ParserException {
-		ParserException e = null;
-		for (Module module : this.modules) {
-			try {
-				Set<String> resolved = module.resolve(msc);
-				return resolved;
-			} catch (ParserException pe) {
-				e = pe;
+		List<Macro> macros = new LinkedList<>();
+		for (MentalFormula formula : msc.getSubFormulas()) {
+			if (formula instanceof Macro) {
+				macros.add((Macro) formula);
+			}
+		}
+		Set<String> macroLabels = new HashSet<>();
+		if (macros.isEmpty()) {
+			return macroLabels;
+		}
+
+		Map<String, List<Module>> index = getMacroIndex();
+		for (Macro macro : macros) {
+			if (!index.containsKey(macro.getSignature())) {
+				throw new ParserException(macro.getSignature(),
+						macro.getSourceInfo());
+			}
+		}
+		List<Module> candidates = index.get(macros.get(0).getSignature());
+		for (Module module : candidates) {
+			List<MacroSymbol> symbols = new ArrayList<>(macros.size());
+			for (Macro macro : macros) {
+				MacroSymbol symbol = (MacroSymbol) module.getResolvedMacros()
+						.resolve(macro.getSignature());
+				if (symbol == null) {
+					break;
+				}
+				symbols.add(symbol);
+			}
+			if (symbols.size() == macros.size()) {
+				for (int i = 0; i < macros.size(); i++) {
+					module.instantiate(macros.get(i), symbols.get(i));
+					macroLabels.add(macros.get(i).getSignature());
+				}
+				return macroLabels;
+			}
+		}
+		Module first = candidates.get(0);
+		for (Macro macro : macros) {
+			if (first.getResolvedMacros().resolve(macro.getSignature()) == null) {
+				throw new ParserException(macro.getSignature(),
+						macro.getSourceInfo());
+			}
+		}
+		// not reached: the first module defines the first macro
+		return macroLabels;
+	}
+
+	/**
+	 * @return The modules that define a macro, by signature of the macro. The
+	 *         index is built again when modules have been added, or macros
+	 *         have been defined in them, since it was built.
+	 */
+	private synchronized Map<String, List<Module>> getMacroIndex() {
+		if (this.macroIndex == null) {
+			Map<String, List<Module>> index = new HashMap<>();
+			for (Module module : this.modules) {
+				for (String signature : module.getResolvedMacros().getNames()) {
+					List<Module> defining = index.get(signature);
+					if (defining == null) {
+						defining = new LinkedList<>();
+						index.put(signature, defining);
+					}
+					defining.add(module);
+				}
 			}
+			this.macroIndex = index;
 		}
-		throw e;
+		return this.macroIndex;
 	}
-}
\ No newline at end of file
+}
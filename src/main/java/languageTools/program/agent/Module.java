@@ -163,6 +163,12 @@ public class Module extends Program {
 	 * The KR language used in this module.
 	 */
 	private final KRInterface kri;
+	/**
+	 * The agent program this module has been added to, if any. It is told
+	 * when the name, parameters, action specifications or macros of this
+	 * module change, so that its indices can be built again.
+	 */
+	private AgentProgram program = null;
 
 	/**
 	 * Creates an (empty) module.
@@ -203,6 +209,7 @@ public class Module extends Program {
 	 */
 	public void setName(String name) {
 		this.name = name;
+		actionsChanged();
 	}
 
 	/**
@@ -218,6 +225,7 @@ public class Module extends Program {
 	 */
 	public void setParameters(List<Term> parameters) {
 		this.parameters = parameters;
+		actionsChanged();
 	}
 
 	/**
@@ -377,6 +385,25 @@ public class Module extends Program {
 	 */
 	public void setActionSpecifications(List<ActionSpecification> specs) {
 		this.specs = specs;
+		actionsChanged();
+	}
+
+	/**
+	 * @param program
+	 *            The agent program this module is added to.
+	 */
+	void setProgram(AgentProgram program) {
+		this.program = program;
+	}
+
+	/**
+	 * Tells the program of this module that its index of modules and actions
+	 * is no longer up to date.
+	 */
+	private void actionsChanged() {
+		if (this.program != null) {
+			this.program.invalidateActions();
+		}
 	}
 
 	/**
@@ -417,33 +444,45 @@ public class Module extends Program {
 		if (symbol == null) {
 			throw new ParserException(signature, formula.getSourceInfo());
 		} else {
-			// Assumes that formal parameters are all variables
-			// TODO: standardize variables in definition apart from
-			// other variables that occur in rule condition
-			// TODO #3430. This is quick fix.
-			MacroExpression spec = new MacroExpression(symbol.getMacro(),
-					this.kri);
-			MacroExpression call = new MacroExpression((formula), this.kri);
-
-			Substitution uniqueSub = AgentValidatorSecondPass
-					.makeTermVarsUnique(spec.getFreeVar(), call.getFreeVar(),
-							this.kri);
-			MacroExpression fixedSpec = (MacroExpression) spec
-					.applySubst(uniqueSub);
-
-			Substitution substitution = fixedSpec.mgu(call);
-			MacroExpression fixedMacroExp = (MacroExpression) fixedSpec
-					.applySubst(substitution);
-			MentalStateCondition instantiatedDf = fixedMacroExp.getMacro()
-					.getDefinition();
-			formula.setDefinition(instantiatedDf);
-
+			instantiate(formula, symbol);
 			return signature;
 		}
 	}
 
 	/**
-	 * get the macros {@link SymbolTable}.
+	 * Sets the definition of a reference to a macro to the definition of the
+	 * macro in this module, instantiated with the parameters of the
+	 * reference.
+	 *
+	 * @param formula
+	 *            The reference to the macro.
+	 * @param symbol
+	 *            The symbol of the macro in this module.
+	 */
+	void instantiate(Macro formula, MacroSymbol symbol) {
+		// Assumes that formal parameters are all variables
+		// TODO: standardize variables in definition apart from
+		// other variables that occur in rule condition
+		// TODO #3430. This is quick fix.
+		MacroExpression spec = new MacroExpression(symbol.getMacro(), this.kri);
+		MacroExpression call = new MacroExpression((formula), this.kri);
+
+		Substitution uniqueSub = AgentValidatorSecondPass.makeTermVarsUnique(
+				spec.getFreeVar(), call.getFreeVar(), this.kri);
+		MacroExpression fixedSpec = (MacroExpression) spec
+				.applySubst(uniqueSub);
+
+		Substitution substitution = fixedSpec.mgu(call);
+		MacroExpression fixedMacroExp = (MacroExpression) fixedSpec
+				.applySubst(substitution);
+		MentalStateCondition instantiatedDf = fixedMacroExp.getMacro()
+				.getDefinition();
+		formula.setDefinition(instantiatedDf);
+	}
+
+	/**
+	 * get the macros {@link SymbolTable}. Macros should be defined with
+	 * {@link #defineMacro(MacroSymbol)} instead of in the table itself.
 	 *
 	 * @return the macros {@link SymbolTable}
 	 */
@@ -451,6 +490,24 @@ public class Module extends Program {
 		return this.macroSymbols;
 	}
 
+	/**
+	 * Defines a macro in this module.
+	 *
+	 * @param symbol
+	 *            The symbol of the macro.
+	 * @return {@code true} if the macro was defined, {@code false} if this
+	 *         module already defines a macro with the same signature.
+	 */
+	public boolean defineMacro(MacroSymbol symbol) {
+		if (!this.macroSymbols.define(symbol)) {
+			return false;
+		}
+		if (this.program != null) {
+			this.program.invalidateMacros();
+		}
+		return true;
+	}
+
 	public Set<String> resolve(MentalStateCondition msc) throws ParserException {
 		Set<String> macroLabels = new HashSet<>();
 		for (MentalFormula formula : msc.getSubFormulas()) {
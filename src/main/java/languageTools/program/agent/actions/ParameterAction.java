@@ -8,10 +8,7 @@ import krTools.language.Update;
 import krTools.parser.SourceInfo;
 import languageTools.parser.GOAL;
 import languageTools.program.agent.AgentProgram;
-import languageTools.program.agent.actions.parameter.ActionToken;
-import sun.security.krb5.KrbApRep;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,22 +45,17 @@ public abstract class ParameterAction extends Action<Term> {
         return parameters;
     }
 
+    /**
+     * Creates an action of the same type as this one, with the same source
+     * info and KR interface.
+     * @param parameters the parameters of the new action.
+     * @return the new action.
+     */
+    protected abstract ParameterAction create(List<Term> parameters);
+
     @Override
     public ParameterAction applySubst(Substitution substitution) {
-        List<Term> newParameters = applySubstToParams(substitution);
-        try {
-            return this.getClass().getDeclaredConstructor(List.class,SourceInfo.class, KRInterface.class).newInstance(
-                    newParameters,getSourceInfo(),getKRInterface());
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return create(applySubstToParams(substitution));
     }
 
     @Override
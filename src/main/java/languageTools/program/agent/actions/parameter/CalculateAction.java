@@ -25,4 +25,9 @@ public class CalculateAction extends ParameterAction {
     public CalculateAction(List<Term> parameters, SourceInfo info, KRInterface kri) {
         super(GOAL.CALCULATE, parameters, info, kri);
     }
+
+    @Override
+    protected CalculateAction create(List<Term> parameters) {
+        return new CalculateAction(parameters, getSourceInfo(), getKRInterface());
+    }
 }
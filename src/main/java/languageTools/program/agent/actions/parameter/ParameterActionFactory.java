@@ -0,0 +1,45 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.program.agent.actions.parameter;
+
+import java.util.List;
+
+import krTools.KRInterface;
+import krTools.language.Term;
+import krTools.parser.SourceInfo;
+import languageTools.program.agent.actions.ParameterAction;
+
+/**
+ * Creates instances of a {@link ParameterAction}. Every parameter action has a
+ * factory, which is registered in {@link ParameterActions}.
+ */
+public interface ParameterActionFactory {
+	/**
+	 * Creates a new parameter action.
+	 *
+	 * @param parameters
+	 *            The parameters of the action.
+	 * @param info
+	 *            Source info about the action.
+	 * @param kri
+	 *            The KR interface used for the parameters.
+	 * @return The new action.
+	 */
+	ParameterAction create(List<Term> parameters, SourceInfo info,
+			KRInterface kri);
+}
@@ -0,0 +1,84 @@
+/**
+ * The GOAL Grammar Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package languageTools.program.agent.actions.parameter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import krTools.KRInterface;
+import krTools.language.Term;
+import krTools.parser.SourceInfo;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.actions.ParameterAction;
+
+/**
+ * Registry of the factories of the {@link ParameterAction}s, i.e. the built-in
+ * actions whose parameters are KR terms, by the name of their
+ * {@link ActionToken}.
+ *
+ * <p>
+ * The registry is built once, when this class is loaded, from the classes and
+ * factories listed below. A new parameter action should be annotated with its
+ * {@link ActionToken} and added to that list.
+ * </p>
+ */
+public final class ParameterActions {
+	private static final Map<String, ParameterActionFactory> ACTIONS = new HashMap<>();
+
+	static {
+		register(CalculateAction.class, new ParameterActionFactory() {
+			@Override
+			public ParameterAction create(List<Term> parameters,
+					SourceInfo info, KRInterface kri) {
+				return new CalculateAction(parameters, info, kri);
+			}
+		});
+	}
+
+	private ParameterActions() {
+	}
+
+	private static void register(Class<? extends ParameterAction> action,
+			ParameterActionFactory factory) {
+		ActionToken token = action.getAnnotation(ActionToken.class);
+		if (token == null) {
+			throw new IllegalArgumentException(action.getName()
+					+ " has no @ActionToken annotation");
+		}
+		ACTIONS.put(AgentProgram.getTokenName(token.value()), factory);
+	}
+
+	/**
+	 * @param name
+	 *            The name of an action, e.g. calculate.
+	 * @return The factory of the parameter action with the given name, or
+	 *         {@code null} if there is no such action.
+	 */
+	public static ParameterActionFactory get(String name) {
+		return ACTIONS.get(name);
+	}
+
+	/**
+	 * @return The factories of all parameter actions, by name.
+	 */
+	public static Map<String, ParameterActionFactory> getAll() {
+		return Collections.unmodifiableMap(ACTIONS);
+	}
+}
@@ -0,0 +1,211 @@
+package languageTools.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.mas.MASValidator;
+import languageTools.analyzer.module.ModuleValidator;
+import languageTools.analyzer.test.TestValidator;
+import languageTools.errors.ParserError.SyntaxError;
+import languageTools.errors.agent.AgentError;
+import languageTools.errors.mas.MASError;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConcurrentValidationTest {
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 5;
+	/**
+	 * The files used to warm up the parsers, which include a module and a test
+	 * file.
+	 */
+	private static final String WARMUP = "languageTools/parser/warmup/";
+	private static final String[] WARMUP_FILES = { "warmup.goal",
+		"warmup.mod2g", "warmup.mas2g", "warmup.test2g" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Copies the warm up files to the temporary folder, with a module and
+	 * test file that contain syntax errors and the files they refer to.
+	 *
+	 * @return The module and test files.
+	 */
+	private List<File> getModuleAndTestFiles() throws IOException {
+		List<File> files = new ArrayList<>();
+		for (String name : WARMUP_FILES) {
+			File file = new File(this.folder.getRoot(), name);
+			try (InputStream in = getClass().getClassLoader()
+					.getResourceAsStream(WARMUP + name)) {
+				Files.copy(in, file.toPath());
+			}
+			if (!name.endsWith(".goal") && !name.endsWith(".mas2g")) {
+				files.add(file);
+			}
+		}
+		// The environment and imported KR file only need to exist
+		write("warmup.jar", "");
+		write("warmup.pl", "edge(a, b).\n");
+		files.add(write("broken.mod2g", read("warmup.mod2g").replace(
+				"then go(Y).", "then go(Y)")));
+		files.add(write("broken.test2g", read("warmup.test2g").replace(
+				": \"block should be on the table\"", ":")));
+		return files;
+	}
+
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(new File(this.folder.getRoot(),
+				name).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * @return The agent, MAS, module and test files used in the tests.
+	 */
+	private List<File> getFiles() throws IOException {
+		List<File> files = getModuleAndTestFiles();
+		for (String directory : new String[] {
+				"src/test/resources/languageTools/analyzer/agent",
+				"src/test/resources/languageTools/analyzer/mas" }) {
+			for (File file : new File(directory).listFiles()) {
+				if (file.getName().endsWith(".goal")
+						|| file.getName().endsWith(".mas2g")) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Validates a file with a new validator.
+	 *
+	 * @param file
+	 *            An agent, MAS, module or test file.
+	 * @return The validator.
+	 */
+	private Validator<?, ?, ?, ?> validate(File file) throws Exception {
+		Validator<?, ?, ?, ?> validator;
+		if (file.getName().endsWith(".goal")) {
+			AgentValidator agent = new AgentValidator(file.getPath());
+			agent.setKRInterface(KRFactory.getDefaultInterface());
+			validator = agent;
+		} else if (file.getName().endsWith(".mod2g")) {
+			ModuleValidator module = new ModuleValidator(file.getPath());
+			module.setKRInterface(KRFactory.getDefaultInterface());
+			validator = module;
+		} else if (file.getName().endsWith(".test2g")) {
+			validator = new TestValidator(file.getPath());
+		} else {
+			validator = new MASValidator(file.getPath());
+		}
+		validator.validate();
+		return validator;
+	}
+
+	/**
+	 * @return All messages of the validator and the validity of the program,
+	 *         as strings.
+	 */
+	private List<String> getResults(Validator<?, ?, ?, ?> validator) {
+		List<String> results = ValidatorMessages.getMessages(validator);
+		results.add(Boolean.toString(validator.getProgram().isValid()));
+		return results;
+	}
+
+	/**
+	 * Checks the messages of some of the files with syntax errors, which the
+	 * error strategies of the validators have to recover from.
+	 */
+	private void checkExpectedMessages(File file,
+			Validator<?, ?, ?, ?> validator) {
+		switch (file.getName()) {
+		case "test_RULE_MISSING_BODY.goal":
+			assertEquals(1, ValidatorMessages.count(validator,
+					SyntaxError.NOVIABLEALTERNATIVE));
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentError.RULE_MISSING_BODY));
+			break;
+		case "test_SEND_INVALID_SELECTOR.goal":
+			assertEquals(4, ValidatorMessages.count(validator,
+					AgentError.SEND_INVALID_SELECTOR));
+			break;
+		case "test_INIT_UNRECOGNIZED_PARAMETER.mas2g":
+			assertEquals(1, ValidatorMessages.count(validator,
+					SyntaxError.NOVIABLEALTERNATIVE));
+			assertEquals(1, ValidatorMessages.count(validator,
+					MASError.INIT_UNRECOGNIZED_PARAMETER));
+			break;
+		case "test_AGENTFILE_UNKNOWN_KEY.mas2g":
+			assertEquals(1, ValidatorMessages.count(validator,
+					SyntaxError.INPUTMISMATCH));
+			break;
+		case "broken.mod2g":
+			assertEquals(1, ValidatorMessages.count(validator,
+					SyntaxError.INPUTMISMATCH));
+			break;
+		case "broken.test2g":
+			assertEquals(1, ValidatorMessages.count(validator,
+					SyntaxError.MISSINGTOKEN));
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Test(timeout = 300000)
+	public void testSameResults() throws Exception {
+		List<File> files = getFiles();
+		List<List<String>> expected = new ArrayList<>();
+		for (File file : files) {
+			expected.add(getResults(validate(file)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Validator<?, ?, ?, ?>>> results = new ArrayList<>();
+			for (int round = 0; round < ROUNDS; round++) {
+				for (final File file : files) {
+					results.add(executor
+							.submit(new Callable<Validator<?, ?, ?, ?>>() {
+								@Override
+								public Validator<?, ?, ?, ?> call()
+										throws Exception {
+									return validate(file);
+								}
+							}));
+				}
+			}
+			for (int i = 0; i < results.size(); i++) {
+				File file = files.get(i % files.size());
+				Validator<?, ?, ?, ?> validator = results.get(i).get();
+				assertEquals(file.getName(), expected.get(i % files.size()),
+						getResults(validator));
+				checkExpectedMessages(file, validator);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package languageTools.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import krTools.KRInterface;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.ParserException;
+import krTools.language.Query;
+import krTools.language.Term;
+import krTools.parser.SourceInfo;
+import languageTools.parser.InputStreamPosition;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FragmentCacheTest {
+	private KRInterface kri;
+
+	@Before
+	public void setUp() throws KRInitFailedException {
+		this.kri = KRFactory.getDefaultInterface();
+	}
+
+	private SourceInfo at(int line, int position) {
+		return new InputStreamPosition(line, position, 0, 0, new File(
+				"test.goal"));
+	}
+
+	@Test
+	public void testHits() throws ParserException {
+		FragmentCache cache = new FragmentCache(10);
+		List<SourceInfo> errors = new ArrayList<SourceInfo>();
+		List<Term> first = cache.getTerms("at(X,Y)", this.kri, at(1, 4),
+				errors);
+		List<Term> second = cache.getTerms("at(X,Y)", this.kri, at(7, 12),
+				errors);
+		assertEquals(first, second);
+		assertNotSame(first, second);
+		assertTrue(errors.isEmpty());
+
+		// Terms and lists of terms are cached separately
+		cache.getTerm("at(X,Y)", this.kri, at(9, 1), errors);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1 / 3.0, cache.getHitRate(), 1e-9);
+	}
+
+	@Test
+	public void testQueriesAtSamePosition() throws ParserException {
+		FragmentCache cache = new FragmentCache(10);
+		List<SourceInfo> errors = new ArrayList<SourceInfo>();
+		Query first = cache.getQuery("on(X,Y)", this.kri, at(3, 8), errors);
+		assertSame(first, cache.getQuery("on(X,Y)", this.kri, at(3, 8), errors));
+		assertEquals(1, cache.getHits());
+
+		// Queries keep their source info, so are not shared by other positions
+		Query other = cache.getQuery("on(X,Y)", this.kri, at(5, 8), errors);
+		assertNotSame(first, other);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertTrue(errors.isEmpty());
+	}
+
+	@Test
+	public void testEviction() throws ParserException {
+		FragmentCache cache = new FragmentCache(2);
+		List<SourceInfo> errors = new ArrayList<SourceInfo>();
+		cache.getTerms("a", this.kri, at(1, 1), errors);
+		cache.getTerms("b", this.kri, at(1, 1), errors);
+		cache.getTerms("a", this.kri, at(1, 1), errors);
+		// The least recently used fragment, b, is evicted
+		cache.getTerms("c", this.kri, at(1, 1), errors);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.size());
+		cache.getTerms("a", this.kri, at(1, 1), errors);
+		assertEquals(2, cache.getHits());
+		cache.getTerms("b", this.kri, at(1, 1), errors);
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testErrors() {
+		FragmentCache cache = new FragmentCache(10);
+		List<SourceInfo> errors = new ArrayList<SourceInfo>();
+		String message = null;
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.getTerms("#", this.kri, at(i + 1, 4), errors);
+				fail("Expected the KR parser to fail");
+			} catch (ParserException e) {
+				// The same error is reported for a cached fragment
+				if (message == null) {
+					message = e.getMessage();
+				}
+				assertEquals(message, e.getMessage());
+			}
+		}
+		assertEquals(1, cache.getHits());
+	}
+}
@@ -0,0 +1,114 @@
+package languageTools.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import krTools.errors.exceptions.KRInitFailedException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalValidatorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File mas;
+	private File agentA;
+	private File agentB;
+	private File moduleA;
+	private File moduleB;
+	private File knowledge;
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file.getCanonicalFile();
+	}
+
+	private String agent(String module) {
+		return "#import \"" + module + "\".\n" + "main module {\n"
+				+ "\tprogram {\n" + "\t\tif bel(p) then skip.\n" + "\t}\n"
+				+ "\tactionspec {\n" + "\t\tskip {\n"
+				+ "\t\t\tpre { true }\n" + "\t\t\tpost { true }\n"
+				+ "\t\t}\n" + "\t}\n" + "}\n";
+	}
+
+	private String module(String name, String imported) {
+		return "module " + name + " {\n" + "\t#import \"" + imported
+				+ "\".\n" + "\tprogram {\n" + "\t\tif bel(q) then skip.\n"
+				+ "\t}\n" + "}\n";
+	}
+
+	/**
+	 * Creates a project of a MAS with two agent files, which each import a
+	 * module file; one of these modules imports a KR file.
+	 */
+	@Before
+	public void createProject() throws IOException {
+		this.knowledge = write("k.pl", "q.\n");
+		this.moduleA = write("ma.mod2g", module("ma", "k.pl"));
+		this.moduleB = write("mb.mod2g", module("mb", "other.pl"));
+		this.agentA = write("a.goal", agent("ma.mod2g"));
+		this.agentB = write("b.goal", agent("mb.mod2g"));
+		this.mas = write("project.mas2g", "agentfiles {\n" + "\t\"a.goal\".\n"
+				+ "\t\"b.goal\".\n" + "}\n" + "launchpolicy {\n"
+				+ "\tlaunch a.\n" + "\tlaunch b.\n" + "}\n");
+	}
+
+	@Test
+	public void testGraph() throws IOException, KRInitFailedException {
+		IncrementalValidator validator = new IncrementalValidator(
+				KRFactory.getDefaultInterface());
+		validator.add(this.mas);
+		DependencyGraph graph = validator.getGraph();
+
+		assertEquals(new HashSet<>(Arrays.asList(this.agentA, this.agentB)),
+				graph.getImports(this.mas));
+		assertEquals(Collections.singleton(this.moduleA),
+				graph.getImports(this.agentA));
+		assertEquals(Collections.singleton(this.knowledge),
+				graph.getImports(this.moduleA));
+		assertEquals(new HashSet<>(Arrays.asList(this.mas, this.agentA,
+				this.agentB, this.moduleA, this.moduleB)),
+				validator.getFiles());
+	}
+
+	@Test
+	public void testUpdate() throws IOException, KRInitFailedException {
+		IncrementalValidator validator = new IncrementalValidator(
+				KRFactory.getDefaultInterface());
+		validator.add(this.mas);
+		Validator<?, ?, ?, ?> b = validator.getValidator(this.agentB);
+
+		// A change to the KR file affects the module, agent and MAS importing
+		// it, which are validated again in that order
+		List<File> validated = validator.update(Collections
+				.singleton(this.knowledge));
+		assertEquals(Arrays.asList(this.moduleA, this.agentA, this.mas),
+				validated);
+		assertSame(b, validator.getValidator(this.agentB));
+
+		// Changes to files that are not part of the project are ignored
+		assertEquals(Collections.emptyList(), validator.update(Collections
+				.singleton(write("unrelated.pl", "r.\n"))));
+
+		// A file that is removed is not validated anymore, but its importers
+		// are
+		Files.delete(this.moduleB.toPath());
+		validated = validator.update(Collections.singleton(this.moduleB));
+		assertEquals(Arrays.asList(this.agentB, this.mas), validated);
+		assertNull(validator.getValidator(this.moduleB));
+	}
+}
@@ -0,0 +1,165 @@
+package languageTools.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.mas.MASValidator;
+import languageTools.errors.ParserError.SyntaxError;
+import languageTools.parser.GOAL;
+import languageTools.parser.MAS2GParser;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.junit.Test;
+
+public class ParseFallbackTest {
+	private static final String AGENTS = "src/test/resources/languageTools/analyzer/agent";
+	private static final String MAS = "src/test/resources/languageTools/analyzer/mas";
+
+	/**
+	 * Simulator that always predicts in full LL mode, with DFAs of its own so
+	 * that the DFAs shared by the other parsers are not affected.
+	 */
+	private static class LLSimulator extends ParserATNSimulator {
+		LLSimulator(Parser parser) {
+			super(parser, parser.getATN(), newDFAs(parser.getATN()),
+					new PredictionContextCache());
+		}
+
+		private static DFA[] newDFAs(ATN atn) {
+			DFA[] dfas = new DFA[atn.getNumberOfDecisions()];
+			for (int i = 0; i < dfas.length; i++) {
+				dfas[i] = new DFA(atn.getDecisionState(i), i);
+			}
+			return dfas;
+		}
+
+		@Override
+		public int adaptivePredict(TokenStream input, int decision,
+				ParserRuleContext outerContext) {
+			// Ignore the SLL stage of the validator
+			setPredictionMode(PredictionMode.LL);
+			return super.adaptivePredict(input, decision, outerContext);
+		}
+	}
+
+	private List<File> getFiles(String directory, String extension) {
+		List<File> files = new ArrayList<>();
+		for (File file : new File(directory).listFiles()) {
+			if (file.getName().endsWith(extension)) {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	private AgentValidator getAgentValidator(File file, final boolean llOnly)
+			throws KRInitFailedException {
+		AgentValidator validator = new AgentValidator(file.getPath()) {
+			@Override
+			protected GOAL getNewParser(TokenStream stream) {
+				GOAL parser = super.getNewParser(stream);
+				if (llOnly) {
+					parser.setInterpreter(new LLSimulator(parser));
+				}
+				return parser;
+			}
+		};
+		validator.setKRInterface(KRFactory.getDefaultInterface());
+		return validator;
+	}
+
+	private MASValidator getMASValidator(File file, final boolean llOnly) {
+		return new MASValidator(file.getPath()) {
+			@Override
+			protected MAS2GParser getNewParser(TokenStream stream) {
+				MAS2GParser parser = super.getNewParser(stream);
+				if (llOnly) {
+					parser.setInterpreter(new LLSimulator(parser));
+				}
+				return parser;
+			}
+		};
+	}
+
+	/**
+	 * Checks that a validator that first parses in SLL mode gives the same
+	 * messages as one that only parses in full LL mode, and that the file is
+	 * only parsed again when SLL parsing fails, e.g. for a syntax error.
+	 */
+	private void check(File file, Validator<?, ?, ?, ?> sll,
+			Validator<?, ?, ?, ?> ll) {
+		sll.validate();
+		ll.validate();
+		assertEquals(file.getName(), ValidatorMessages.getMessages(ll),
+				ValidatorMessages.getMessages(sll));
+		assertEquals(file.getName(), 1, sll.getParseCount());
+		if (hasParserErrors(sll)) {
+			assertEquals(file.getName(), 1, sll.getFallbackCount());
+		}
+		assertTrue(file.getName(), sll.getFallbackCount() <= 1);
+	}
+
+	/**
+	 * @return {@code true} if the parser reported a syntax error; the syntax
+	 *         errors of the lexer and KR parser do not make SLL parsing fail.
+	 */
+	private boolean hasParserErrors(Validator<?, ?, ?, ?> validator) {
+		for (SyntaxError type : new SyntaxError[] {
+				SyntaxError.NOVIABLEALTERNATIVE, SyntaxError.INPUTMISMATCH,
+				SyntaxError.FAILEDPREDICATE, SyntaxError.UNWANTEDTOKEN,
+				SyntaxError.MISSINGTOKEN }) {
+			if (ValidatorMessages.count(validator, type) > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testAgents() throws KRInitFailedException {
+		for (File file : getFiles(AGENTS, ".goal")) {
+			check(file, getAgentValidator(file, false),
+					getAgentValidator(file, true));
+		}
+	}
+
+	@Test
+	public void testMAS() {
+		for (File file : getFiles(MAS, ".mas2g")) {
+			check(file, getMASValidator(file, false),
+					getMASValidator(file, true));
+		}
+	}
+
+	@Test
+	public void testSyntaxError() throws KRInitFailedException {
+		File file = new File(AGENTS, "test_RULE_MISSING_BODY.goal");
+		AgentValidator validator = getAgentValidator(file, false);
+		validator.validate();
+		assertEquals(1, validator.getFallbackCount());
+		assertEquals(1, ValidatorMessages.count(validator,
+				SyntaxError.NOVIABLEALTERNATIVE));
+
+		// A correct file is parsed in SLL mode only
+		validator = getAgentValidator(new File(
+				"src/main/resources/languageTools/parser/warmup/warmup.goal"),
+				false);
+		validator.validate();
+		assertEquals(0, validator.getFallbackCount());
+		assertTrue(validator.getSyntaxErrors().isEmpty());
+	}
+}
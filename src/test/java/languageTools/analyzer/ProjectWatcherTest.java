@@ -0,0 +1,67 @@
+package languageTools.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+
+import krTools.errors.exceptions.KRInitFailedException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProjectWatcherTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file.getCanonicalFile();
+	}
+
+	@Test(timeout = 30000)
+	public void testChanges() throws IOException, KRInitFailedException,
+	InterruptedException {
+		File knowledge = write("k.pl", "q.\n");
+		File module = write("m.mod2g", "module m {\n\t#import \"k.pl\".\n"
+				+ "\tprogram {\n\t\tif bel(q) then insert(p).\n\t}\n}\n");
+		IncrementalValidator validator = new IncrementalValidator(
+				KRFactory.getDefaultInterface());
+		validator.add(module);
+
+		try (ProjectWatcher watcher = new ProjectWatcher(validator)) {
+			watcher.setDebounce(500);
+			watcher.setFilter(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.getName().endsWith(".mod2g");
+				}
+			});
+
+			// A burst of changes is handled at once
+			for (int i = 0; i < 3; i++) {
+				Files.write(knowledge.toPath(), ("r" + i + ".\n")
+						.getBytes("UTF-8"), StandardOpenOption.APPEND);
+			}
+			Set<File> changed = watcher.waitForChanges();
+			assertTrue(changed.toString(), changed.contains(knowledge));
+			assertEquals(Arrays.asList(module), watcher.update(changed));
+
+			// New files accepted by the filter are added to the project
+			File other = write("other.mod2g",
+					"module other {\n\tprogram {\n\t\tif true then insert(p).\n\t}\n}\n");
+			changed = watcher.waitForChanges();
+			assertTrue(changed.toString(), changed.contains(other));
+			assertEquals(Arrays.asList(other), watcher.update(changed));
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package languageTools.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.parser.DFACache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ValidationServerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ValidationServer server;
+	private Thread thread;
+
+	@Before
+	public void start() throws IOException, KRInitFailedException {
+		this.server = new ValidationServer(0, 2,
+				KRFactory.getDefaultInterface());
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ValidationServerTest.this.server.serve();
+			}
+		});
+		this.thread.start();
+	}
+
+	@After
+	public void stop() throws IOException, InterruptedException {
+		this.server.close();
+		this.thread.join();
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+
+	/**
+	 * Sends a request without a client, and reads the reply until the server
+	 * closes the connection.
+	 */
+	private List<String> send(byte[] request) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+				this.server.getPort())) {
+			socket.getOutputStream().write(request);
+			socket.getOutputStream().flush();
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			List<String> reply = new ArrayList<String>();
+			String line;
+			while ((line = ValidationProtocol.readLine(in)) != null) {
+				reply.add(line);
+			}
+			return reply;
+		}
+	}
+
+	/**
+	 * Checks that the server still validates files.
+	 */
+	private void checkServing() throws IOException {
+		try (ValidationClient client = new ValidationClient(
+				this.server.getPort())) {
+			List<String> reply = client.validate(write("c.goal", ""));
+			String done = reply.get(reply.size() - 1);
+			assertTrue(done, done.startsWith(ValidationProtocol.DONE + "\t"));
+		}
+	}
+
+	@Test
+	public void testWarmedUp() {
+		// The DFAs of the parsers are filled before requests are served
+		assertTrue(DFACache.isWarmedUp());
+		assertTrue(DFACache.size() > 0);
+	}
+
+	@Test(timeout = 30000)
+	public void testValidate() throws IOException {
+		write("a.goal", "");
+		File mas = write("project.mas2g", "agentfiles {\n\t\"b.goal\".\n}\n"
+				+ "launchpolicy {\n\tlaunch b.\n}\n");
+		try (ValidationClient client = new ValidationClient(
+				this.server.getPort())) {
+			// The agent file does not exist
+			List<String> reply = client.validate(mas);
+			String done = reply.get(reply.size() - 1);
+			assertTrue(done,
+					done.startsWith(ValidationProtocol.DONE + "\t0\t1\t1\t"));
+			assertEquals(3, reply.size());
+			String[] fields = reply.get(0).split("\t");
+			assertEquals(ValidationProtocol.DIAGNOSTIC, fields[0]);
+			assertEquals(ValidationProtocol.ERROR, fields[1]);
+			assertEquals(mas.getAbsolutePath(), fields[2]);
+			assertEquals("2", fields[3]);
+
+			// Content that has not been saved yet is validated instead
+			reply = client.validate(mas, "agentfiles {\n\t\"a.goal\".\n}\n"
+					+ "launchpolicy {\n\tlaunch a.\n}\n");
+			done = reply.get(reply.size() - 1);
+			assertTrue(done, done.startsWith(ValidationProtocol.DONE + "\t0\t0\t"));
+
+			// Files that can not be validated are reported
+			reply = client.validate(write("k.pl", "p.\n"));
+			assertEquals(1, reply.size());
+			assertTrue(reply.get(0),
+					reply.get(0).startsWith(ValidationProtocol.FAILED + "\t"));
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testPathWithSpaces() throws IOException {
+		File directory = this.folder.newFolder("my project");
+		Files.write(new File(directory, "a.goal").toPath(), new byte[0]);
+		File mas = new File(directory, "my project.mas2g");
+		Files.write(mas.toPath(), ("agentfiles {\n\t\"a.goal\".\n}\n"
+				+ "launchpolicy {\n\tlaunch a.\n}\n").getBytes("UTF-8"));
+		try (ValidationClient client = new ValidationClient(
+				this.server.getPort())) {
+			List<String> reply = client.validate(mas);
+			assertEquals(reply.toString(), 1, reply.size());
+			assertTrue(reply.get(0),
+					reply.get(0).startsWith(ValidationProtocol.DONE + "\t0\t0\t"));
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testBadLength() throws IOException {
+		String path = new File(this.folder.getRoot(), "a.goal")
+				.getAbsolutePath();
+		for (String length : new String[] { "-1", "x",
+				Integer.toString(Integer.MAX_VALUE) }) {
+			// The content can not be skipped, so the connection is closed
+			List<String> reply = send((ValidationProtocol.CONTENT + " "
+					+ length + " " + path + "\n").getBytes("UTF-8"));
+			assertEquals(reply.toString(), 1, reply.size());
+			assertTrue(reply.get(0),
+					reply.get(0).startsWith(ValidationProtocol.FAILED + "\t"));
+		}
+
+		// A line without end
+		byte[] line = new byte[ValidationProtocol.MAX_LINE_LENGTH + 1];
+		Arrays.fill(line, (byte) 'x');
+		List<String> reply = send(line);
+		assertEquals(reply.toString(), 1, reply.size());
+		assertTrue(reply.get(0),
+				reply.get(0).startsWith(ValidationProtocol.FAILED + "\t"));
+
+		checkServing();
+	}
+
+	@Test(timeout = 30000)
+	public void testShutdown() throws IOException, InterruptedException {
+		try (ValidationClient client = new ValidationClient(
+				this.server.getPort())) {
+			client.shutdown();
+		}
+		this.thread.join();
+	}
+}
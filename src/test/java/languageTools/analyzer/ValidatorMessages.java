@@ -0,0 +1,64 @@
+package languageTools.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import languageTools.errors.Message;
+import languageTools.errors.Message.ValidatorMessageType;
+
+/**
+ * Collects the messages of validators, for comparing the results of different
+ * ways of validating the same files in tests.
+ */
+public class ValidatorMessages {
+	/**
+	 * @return All syntax errors, errors and warnings of the validator.
+	 */
+	public static List<Message> getAll(Validator<?, ?, ?, ?> validator) {
+		List<Message> messages = new ArrayList<>();
+		messages.addAll(validator.getSyntaxErrors());
+		messages.addAll(validator.getErrors());
+		messages.addAll(validator.getWarnings());
+		return messages;
+	}
+
+	/**
+	 * @return All syntax errors, errors and warnings of the validator, as
+	 *         strings. Stack traces are left out, as they differ between the
+	 *         ways of validating a file.
+	 */
+	public static List<String> getMessages(Validator<?, ?, ?, ?> validator) {
+		List<String> results = new ArrayList<>();
+		for (Message message : getAll(validator)) {
+			results.add(message.toString().split("\n")[0]);
+		}
+		return results;
+	}
+
+	/**
+	 * @return The types of all syntax errors, errors and warnings of the
+	 *         validator.
+	 */
+	public static List<ValidatorMessageType> getTypes(
+			Validator<?, ?, ?, ?> validator) {
+		List<ValidatorMessageType> types = new ArrayList<>();
+		for (Message message : getAll(validator)) {
+			types.add(message.getType());
+		}
+		return types;
+	}
+
+	/**
+	 * @return The number of messages of the validator with a type.
+	 */
+	public static int count(Validator<?, ?, ?, ?> validator,
+			ValidatorMessageType type) {
+		int count = 0;
+		for (ValidatorMessageType other : getTypes(validator)) {
+			if (other == type) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,111 @@
+package languageTools.analyzer.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import goalhub.krTools.KRFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.ParserException;
+import languageTools.errors.Message;
+import languageTools.errors.agent.AgentError;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.Module;
+import languageTools.program.agent.msc.Macro;
+import languageTools.program.agent.msc.MentalStateCondition;
+import languageTools.program.agent.rules.Rule;
+import languageTools.symbolTable.agent.MacroSymbol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AgentMacroResolveTest {
+	private AgentValidator validator;
+	private AgentProgram program;
+	private List<MentalStateCondition> conditions;
+
+	@Before
+	public void setUp() throws KRInitFailedException {
+		this.validator = new AgentValidator(
+				"src/test/resources/languageTools/analyzer/agent/test_MACRO_RESOLVE.goal");
+		this.validator.setKRInterface(KRFactory.getDefaultInterface());
+		this.validator.validate();
+		this.program = this.validator.getProgram();
+		this.conditions = new ArrayList<>();
+		for (Rule rule : this.program.getModules().get(0).getRules()) {
+			this.conditions.add(rule.getCondition());
+		}
+	}
+
+	/**
+	 * @return The signature of the literal in the definition of a macro.
+	 */
+	private String definition(MentalStateCondition condition, int index) {
+		return ((Macro) condition.getSubFormulas().get(index)).getDefinition()
+				.getAllLiterals().get(0).getFormula().getSignature();
+	}
+
+	@Test
+	public void testFirstDefiningModule() {
+		// A macro is resolved by the first module that defines it
+		assertEquals("condition/1", definition(this.conditions.get(0), 0));
+		// All macros are resolved by the first module that defines all
+		assertEquals("condition/2", definition(this.conditions.get(1), 0));
+		assertEquals("condition/2", definition(this.conditions.get(1), 1));
+	}
+
+	@Test
+	public void testUndefined() {
+		// One error for each condition with an undefined macro
+		int errors = 0;
+		for (Message error : this.validator.getErrors()) {
+			if (error.getType() == AgentError.MACRO_NOT_DEFINED) {
+				errors++;
+			}
+		}
+		assertEquals(2, errors);
+		assertNull(((Macro) this.conditions.get(3).getSubFormulas().get(1))
+				.getDefinition());
+
+		try {
+			this.program.resolve(this.conditions.get(3));
+			fail("undefined/1 should not be resolved");
+		} catch (ParserException e) {
+			assertEquals("undefined/1", e.getMessage());
+		}
+		try {
+			// Both are defined, but not by the same module
+			this.program.resolve(this.conditions.get(2));
+			fail("only/1 should not be resolved");
+		} catch (ParserException e) {
+			assertEquals("only/1", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInvalidation() throws ParserException {
+		Module main = this.program.getModules().get(0);
+		MacroSymbol only = (MacroSymbol) main.getResolvedMacros().resolve(
+				"only/1");
+		assertFalse(main.defineMacro(only));
+		try {
+			this.program.resolve(this.conditions.get(3));
+			fail("undefined/1 should not be resolved");
+		} catch (ParserException e) {
+			assertEquals("undefined/1", e.getMessage());
+		}
+
+		// Once the macro is defined, it is resolved
+		Macro macro = new Macro("undefined", only.getMacro().getParameters(),
+				only.getMacro().getDefinition(), only.getSourceInfo());
+		assertTrue(main.defineMacro(new MacroSymbol(macro.getSignature(),
+				macro, macro.getSourceInfo())));
+		this.program.resolve(this.conditions.get(3));
+		assertEquals("condition/1", definition(this.conditions.get(3), 1));
+	}
+}
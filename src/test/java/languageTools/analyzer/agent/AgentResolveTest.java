@@ -0,0 +1,85 @@
+package languageTools.analyzer.agent;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.language.Term;
+import languageTools.program.agent.ActionSpecification;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.Module;
+import languageTools.program.agent.Module.TYPE;
+import languageTools.program.agent.actions.ModuleCallAction;
+import languageTools.program.agent.actions.UserSpecAction;
+import languageTools.program.agent.actions.UserSpecOrModuleCall;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AgentResolveTest {
+	private AgentProgram program;
+	private Module main;
+	private Module action;
+	private List<Term> parameters;
+
+	@Before
+	public void setUp() throws KRInitFailedException {
+		AgentValidator validator = new AgentValidator(
+				"src/test/resources/languageTools/analyzer/agent/test_ACTION_LABEL_ALREADY_DEFINED.goal");
+		validator.setKRInterface(KRFactory.getDefaultInterface());
+		validator.validate();
+		this.program = validator.getProgram();
+		this.main = this.program.getModules().get(0);
+		this.action = this.program.getModules().get(1);
+		this.parameters = this.action.getParameters();
+	}
+
+	private UserSpecOrModuleCall call(String name, List<Term> parameters) {
+		return new UserSpecOrModuleCall(name, parameters, null,
+				this.program.getKRInterface());
+	}
+
+	@Test
+	public void testFirstMatch() {
+		// The action specifications of the main module precede module action
+		assertSame(this.main.getActionSpecifications().get(0),
+				this.program.getActionSpecification("action", 1));
+		assertNull(this.program.getModule("action", 1));
+		assertTrue(AgentValidator.resolve(call("action", this.parameters),
+				this.program) instanceof UserSpecAction);
+
+		assertSame(this.main, this.program.getModule(this.main.getName(), 0));
+		assertNull(AgentValidator.resolve(
+				call("action", new ArrayList<Term>(0)), this.program));
+		assertNull(AgentValidator.resolve(call("other", this.parameters),
+				this.program));
+	}
+
+	@Test
+	public void testInvalidation() {
+		assertNull(this.program.getModule("other", 1));
+		this.action.setName("other");
+		assertSame(this.action, this.program.getModule("other", 1));
+		assertTrue(AgentValidator.resolve(call("other", this.parameters),
+				this.program) instanceof ModuleCallAction);
+
+		Module extra = new Module("extra", TYPE.USERDEF,
+				this.program.getKRInterface(), null);
+		this.program.addModule(extra);
+		assertSame(extra, this.program.getModule("extra", 0));
+
+		// Without action specifications, the main module no longer precedes
+		// the module action
+		this.main.setActionSpecifications(new ArrayList<ActionSpecification>(
+				0));
+		assertNull(this.program.getActionSpecification("action", 1));
+		this.action.setName("action");
+		assertTrue(AgentValidator.resolve(call("action", this.parameters),
+				this.program) instanceof ModuleCallAction);
+	}
+}
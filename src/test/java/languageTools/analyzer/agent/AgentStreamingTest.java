@@ -0,0 +1,94 @@
+package languageTools.analyzer.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.util.List;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.errors.ParserError.SyntaxError;
+import languageTools.errors.agent.AgentError;
+import languageTools.errors.agent.AgentWarning;
+import languageTools.program.agent.Module;
+
+import org.junit.Test;
+
+public class AgentStreamingTest {
+	/**
+	 * Validates an agent file.
+	 *
+	 * @param resource
+	 *            The GOAL agent file.
+	 * @param streaming
+	 *            Whether to build the program while parsing.
+	 * @return The validator.
+	 * @throws KRInitFailedException
+	 */
+	private AgentValidator validate(String resource, boolean streaming)
+			throws KRInitFailedException {
+		AgentValidator validator = new AgentValidator(resource);
+		validator.setKRInterface(KRFactory.getDefaultInterface());
+		validator.setStreaming(streaming);
+		validator.validate();
+		return validator;
+	}
+
+	/**
+	 * @return All messages and modules of the validator, as strings.
+	 */
+	private List<String> getResults(AgentValidator validator) {
+		List<String> results = ValidatorMessages.getMessages(validator);
+		for (Module module : validator.getProgram().getModules()) {
+			results.add(module.toString());
+		}
+		results.add(validator.getProgram().getImportedModules().toString());
+		results.add(Boolean.toString(validator.getProgram().isValid()));
+		return results;
+	}
+
+	@Test
+	public void testSameResults() throws KRInitFailedException {
+		File directory = new File("src/test/resources/languageTools/analyzer/agent");
+		for (File file : directory.listFiles()) {
+			if (!file.getName().endsWith(".goal")) {
+				continue;
+			}
+			AgentValidator streaming = validate(file.getPath(), true);
+			assertEquals(file.getName(),
+					getResults(validate(file.getPath(), false)),
+					getResults(streaming));
+
+			// Neither the tokens nor the parse tree are kept
+			assertNull(streaming.getTokenStream());
+			assertNull(streaming.getParseTree());
+		}
+	}
+
+	@Test
+	public void testExpectedMessages() throws KRInitFailedException {
+		for (boolean streaming : new boolean[] { false, true }) {
+			AgentValidator validator = validate(
+					"src/test/resources/languageTools/analyzer/agent/test_ACTION_USED_NEVER_DEFINED.goal",
+					streaming);
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentError.MACRO_NOT_DEFINED));
+			assertEquals(2, ValidatorMessages.count(validator,
+					AgentError.ACTION_USED_NEVER_DEFINED));
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentWarning.ACTION_NEVER_USED));
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentWarning.MODULE_NEVER_USED));
+
+			validator = validate(
+					"src/test/resources/languageTools/analyzer/agent/test_RULE_MISSING_BODY.goal",
+					streaming);
+			assertEquals(1, ValidatorMessages.count(validator,
+					SyntaxError.NOVIABLEALTERNATIVE));
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentError.RULE_MISSING_BODY));
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package languageTools.analyzer.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import krTools.KRInterface;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.errors.agent.AgentError;
+import languageTools.errors.agent.AgentWarning;
+import languageTools.program.agent.ActionSpecification;
+import languageTools.program.agent.Module;
+import languageTools.program.agent.Module.TYPE;
+import languageTools.program.agent.actions.Action;
+import languageTools.program.agent.actions.AdoptAction;
+import languageTools.program.agent.actions.DeleteAction;
+import languageTools.program.agent.actions.InsertAction;
+import languageTools.program.agent.actions.ModuleCallAction;
+import languageTools.program.agent.msc.MentalLiteral;
+import languageTools.program.agent.rules.Rule;
+
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KRUsageCollectorTest {
+	private static final String AGENTS = "src/test/resources/languageTools/analyzer/agent";
+
+	@org.junit.Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Collects the KR usage of modules and reports the unused and undefined
+	 * expressions as the second pass of the agent validator did before the
+	 * {@link KRUsageCollector}: with a walk over the modules for each kind of
+	 * usage, and with separate KR queries for every set of expressions.
+	 */
+	private static class Baseline {
+		private final Set<DatabaseFormula> knowledge = new HashSet<DatabaseFormula>();
+		private final Set<DatabaseFormula> beliefs = new HashSet<DatabaseFormula>();
+		private final Set<DatabaseFormula> dynamicBeliefs = new HashSet<DatabaseFormula>();
+		private final Set<Query> beliefQueries = new HashSet<Query>();
+		private final Set<Query> goals = new HashSet<Query>();
+		private final Set<DatabaseFormula> goalDbfs = new HashSet<DatabaseFormula>();
+		private final Set<Query> goalQueries = new HashSet<Query>();
+		private final Set<Module> processed = new HashSet<Module>();
+
+		void visitModule(Module module) {
+			this.knowledge.addAll(module.getKnowledge());
+			this.beliefs.addAll(module.getBeliefs());
+			this.processed.clear();
+			this.dynamicBeliefs.addAll(getInsertedBeliefs(module));
+			this.processed.clear();
+			this.beliefQueries.addAll(getBeliefQueries(module));
+			this.goals.addAll(module.getGoals());
+			this.processed.clear();
+			this.goals.addAll(getAdoptedGoals(module));
+			this.processed.clear();
+			this.goalDbfs.addAll(getGoalDfs(module));
+			this.processed.clear();
+			this.goalQueries.addAll(getGoalQueries(module));
+			this.processed.clear();
+		}
+
+		private Set<DatabaseFormula> getInsertedBeliefs(Module module) {
+			Set<DatabaseFormula> dbfs = new HashSet<>();
+			if (this.processed.add(module)) {
+				for (Rule rule : module.getRules()) {
+					for (Action<?> action : rule.getAction().getActions()) {
+						if (action instanceof InsertAction) {
+							dbfs.addAll(((InsertAction) action).getUpdate()
+									.getAddList());
+						}
+						if (action instanceof DeleteAction) {
+							dbfs.addAll(((DeleteAction) action).getUpdate()
+									.getDeleteList());
+						}
+						if (action instanceof ModuleCallAction) {
+							dbfs.addAll(getInsertedBeliefs(((ModuleCallAction) action)
+									.getTarget()));
+						}
+					}
+				}
+				for (ActionSpecification spec : module
+						.getActionSpecifications()) {
+					dbfs.addAll(spec.getPostCondition().getAddList());
+				}
+			}
+			return dbfs;
+		}
+
+		private Set<Query> getBeliefQueries(Module module) {
+			Set<Query> queries = new HashSet<>();
+			if (this.processed.add(module)) {
+				for (Rule rule : module.getRules()) {
+					for (MentalLiteral literal : AgentValidatorSecondPass
+							.getBeliefLiterals(rule.getCondition())) {
+						queries.add(literal.getFormula());
+					}
+					for (Action<?> action : rule.getAction().getActions()) {
+						if (action instanceof ModuleCallAction) {
+							queries.addAll(getBeliefQueries(((ModuleCallAction) action)
+									.getTarget()));
+						}
+					}
+				}
+				for (ActionSpecification spec : module
+						.getActionSpecifications()) {
+					for (MentalLiteral literal : AgentValidatorSecondPass
+							.getBeliefLiterals(spec.getPreCondition())) {
+						queries.add(literal.getFormula());
+					}
+				}
+			}
+			return queries;
+		}
+
+		private Set<Query> getAdoptedGoals(Module module) {
+			Set<Query> queries = new HashSet<Query>();
+			if (this.processed.add(module)) {
+				for (Rule rule : module.getRules()) {
+					for (Action<?> action : rule.getAction().getActions()) {
+						if (action instanceof AdoptAction) {
+							for (DatabaseFormula dbf : ((AdoptAction) action)
+									.getUpdate().getAddList()) {
+								queries.add(dbf.toQuery());
+							}
+						}
+						if (action instanceof ModuleCallAction) {
+							queries.addAll(getAdoptedGoals(((ModuleCallAction) action)
+									.getTarget()));
+						}
+					}
+				}
+			}
+			return queries;
+		}
+
+		private Set<DatabaseFormula> getGoalDfs(Module module) {
+			Set<DatabaseFormula> dbfs = new HashSet<>();
+			if (this.processed.add(module)) {
+				for (Query query : module.getGoals()) {
+					dbfs.addAll(query.toUpdate().getAddList());
+				}
+				for (Rule rule : module.getRules()) {
+					for (Action<?> action : rule.getAction().getActions()) {
+						if (action instanceof AdoptAction) {
+							dbfs.addAll(((AdoptAction) action).getUpdate()
+									.getAddList());
+						}
+						if (action instanceof ModuleCallAction) {
+							dbfs.addAll(getGoalDfs(((ModuleCallAction) action)
+									.getTarget()));
+						}
+					}
+				}
+			}
+			return dbfs;
+		}
+
+		private Set<Query> getGoalQueries(Module module) {
+			Set<Query> queries = new HashSet<>();
+			if (this.processed.add(module)) {
+				for (Rule rule : module.getRules()) {
+					for (MentalLiteral literal : AgentValidatorSecondPass
+							.getGoalLiterals(rule.getCondition())) {
+						queries.add(literal.getFormula());
+					}
+					for (Action<?> action : rule.getAction().getActions()) {
+						if (action instanceof ModuleCallAction) {
+							queries.addAll(getGoalQueries(((ModuleCallAction) action)
+									.getTarget()));
+						}
+					}
+				}
+			}
+			return queries;
+		}
+
+		void validateKR(KRInterface kri, AgentValidator validator) {
+			Set<DatabaseFormula> tempDbfs = new HashSet<DatabaseFormula>(
+					this.knowledge);
+			tempDbfs.addAll(this.beliefs);
+			Set<DatabaseFormula> knowledgeDfNotUsedInKB = kri.getUnused(
+					this.knowledge, new HashSet<Query>());
+			tempDbfs.addAll(this.dynamicBeliefs);
+			Set<Query> tempQueries = new HashSet<Query>(this.beliefQueries);
+			tempQueries.addAll(this.goals);
+			Set<DatabaseFormula> unusedKnowledgeOrBeliefs = kri.getUnused(
+					tempDbfs, tempQueries);
+			Set<DatabaseFormula> knowledgeDfNotUsed = new HashSet<DatabaseFormula>(
+					unusedKnowledgeOrBeliefs);
+			knowledgeDfNotUsed.retainAll(knowledgeDfNotUsedInKB);
+			Set<Query> undefinedBeliefQueries = kri.getUndefined(tempDbfs,
+					this.beliefQueries);
+			Set<Query> unachievableGoals = kri.getUndefined(tempDbfs,
+					this.goals);
+			unachievableGoals.removeAll(undefinedBeliefQueries);
+
+			tempDbfs = new HashSet<DatabaseFormula>(this.knowledge);
+			tempDbfs.addAll(this.goalDbfs);
+			tempQueries = new HashSet<Query>(this.goalQueries);
+			tempQueries.addAll(this.goals);
+			Set<DatabaseFormula> unusedGoals = kri.getUnused(tempDbfs,
+					tempQueries);
+			knowledgeDfNotUsed.retainAll(unusedGoals);
+			unusedGoals.removeAll(knowledgeDfNotUsedInKB);
+			Set<Query> undefinedGoalQueries = kri.getUndefined(tempDbfs,
+					this.goalQueries);
+			undefinedGoalQueries.removeAll(kri.getUndefined(this.knowledge,
+					new HashSet<Query>()));
+
+			Set<String> reserved = new HashSet<>();
+			Collections.addAll(reserved, "agent/1", "me/1", "percept/1",
+					"received/2", "sent/2");
+			for (DatabaseFormula dbf : unusedKnowledgeOrBeliefs) {
+				if (knowledgeDfNotUsedInKB.contains(dbf)
+						&& !knowledgeDfNotUsed.contains(dbf)) {
+					continue;
+				}
+				if (!reserved.contains(dbf.getSignature())) {
+					validator.reportWarning(
+							AgentWarning.KR_KNOWLEDGE_OR_BELIEF_NEVER_USED,
+							dbf.getSourceInfo(), dbf.getSignature());
+				}
+			}
+			for (DatabaseFormula dbf : unusedGoals) {
+				if (knowledgeDfNotUsedInKB.contains(dbf)
+						&& !knowledgeDfNotUsed.contains(dbf)) {
+					continue;
+				}
+				if (!reserved.contains(dbf.getSignature())) {
+					validator.reportWarning(AgentWarning.KR_GOAL_NEVER_USED,
+							dbf.getSourceInfo(), dbf.getSignature());
+				}
+			}
+			for (Query query : undefinedBeliefQueries) {
+				if (!reserved.contains(query.getSignature())) {
+					validator.reportError(
+							AgentError.KR_BELIEF_QUERIED_NEVER_DEFINED,
+							query.getSourceInfo(), query.getSignature());
+				}
+			}
+			for (Query query : undefinedGoalQueries) {
+				if (!reserved.contains(query.getSignature())) {
+					validator.reportError(
+							AgentError.KR_GOAL_QUERIED_NEVER_DEFINED,
+							query.getSourceInfo(), query.getSignature());
+				}
+			}
+			for (Query query : unachievableGoals) {
+				if (!reserved.contains(query.getSignature())) {
+					validator.reportWarning(
+							AgentWarning.GOAL_DOES_NOT_MATCH_BELIEF,
+							query.getSourceInfo(), query.getSignature());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The modules of the agent and the named modules they call, e.g.
+	 *         imported modules.
+	 */
+	private List<Module> getModules(AgentValidator validator) {
+		List<Module> modules = new ArrayList<>(validator.getProgram()
+				.getModules());
+		Set<Module> visited = new HashSet<>();
+		List<Module> todo = new ArrayList<>(modules);
+		while (!todo.isEmpty()) {
+			Module module = todo.remove(todo.size() - 1);
+			if (!visited.add(module)) {
+				continue;
+			}
+			for (Rule rule : module.getRules()) {
+				for (Action<?> action : rule.getAction().getActions()) {
+					if (action instanceof ModuleCallAction) {
+						Module target = ((ModuleCallAction) action)
+								.getTarget();
+						if (target.getType() != TYPE.ANONYMOUS
+								&& !modules.contains(target)) {
+							modules.add(target);
+						}
+						todo.add(target);
+					}
+				}
+			}
+		}
+		return modules;
+	}
+
+	/**
+	 * @return The messages, sorted, as the order in which the expressions in
+	 *         a set are reported is not defined.
+	 */
+	private List<String> sorted(AgentValidator validator) {
+		List<String> messages = ValidatorMessages.getMessages(validator);
+		Collections.sort(messages);
+		return messages;
+	}
+
+	/**
+	 * Checks that the collector collects the same expressions as the baseline
+	 * for the modules of an agent file, and reports the same warnings and
+	 * errors about them.
+	 *
+	 * @return The number of warnings and errors reported.
+	 */
+	private int check(File file) throws KRInitFailedException {
+		KRInterface kri = KRFactory.getDefaultInterface();
+		AgentValidator validator = new AgentValidator(file.getPath());
+		validator.setKRInterface(kri);
+		validator.validate();
+		if (validator.getProgram() == null) {
+			return 0;
+		}
+
+		KRUsageCollector collector = new KRUsageCollector();
+		Baseline baseline = new Baseline();
+		for (Module module : getModules(validator)) {
+			collector.collect(module);
+			baseline.visitModule(module);
+		}
+		String name = file.getName();
+		assertEquals(name, baseline.knowledge, collector.getKnowledge());
+		assertEquals(name, baseline.beliefs, collector.getBeliefs());
+		assertEquals(name, baseline.dynamicBeliefs,
+				collector.getDynamicBeliefs());
+		assertEquals(name, baseline.beliefQueries,
+				collector.getBeliefQueries());
+		assertEquals(name, baseline.goals, collector.getGoals());
+		assertEquals(name, baseline.goalDbfs, collector.getGoalDbfs());
+		assertEquals(name, baseline.goalQueries, collector.getGoalQueries());
+
+		AgentValidator expected = new AgentValidator(file.getPath());
+		baseline.validateKR(kri, expected);
+		AgentValidator actual = new AgentValidator(file.getPath());
+		collector.validate(kri, actual);
+		assertEquals(name, sorted(expected), sorted(actual));
+		return ValidatorMessages.getAll(actual).size();
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+
+	@Test
+	public void testAgents() throws KRInitFailedException {
+		int reported = 0;
+		for (File file : new File(AGENTS).listFiles()) {
+			if (file.getName().endsWith(".goal")) {
+				reported += check(file);
+			}
+		}
+		assertTrue(reported > 0);
+	}
+
+	@Test
+	public void testCallingModules() throws IOException,
+			KRInitFailedException {
+		// Knowledge that is used by goals only, by beliefs only or not at
+		// all, goals that are adopted in called modules and modules that call
+		// each other
+		write("shared.mod2g", "module shared {\n" + "\tknowledge {\n"
+				+ "\t\tk1 :- b1.\n" + "\t\tk2.\n" + "\t}\n" + "\tprogram {\n"
+				+ "\t\tif goal(g2), bel(k1) then adopt(g3) + other.\n"
+				+ "\t\tif bel(unknown) then insert(b2).\n" + "\t}\n" + "}\n");
+		File agent = write("usage.goal", "#import \"shared.mod2g\".\n\n"
+				+ "init module {\n" + "\tknowledge {\n" + "\t\tk3.\n"
+				+ "\t\tk4 :- k3.\n" + "\t}\n" + "\tbeliefs {\n" + "\t\tb1.\n"
+				+ "\t\tb3.\n" + "\t}\n" + "\tgoals {\n" + "\t\tg1.\n"
+				+ "\t\tk4.\n" + "\t}\n" + "}\n\n" + "main module {\n"
+				+ "\tprogram {\n" + "\t\tif a-goal(g1) then shared.\n"
+				+ "\t\tif goal(missing) then other.\n" + "\t}\n" + "}\n\n"
+				+ "module other {\n" + "\tprogram {\n"
+				+ "\t\tif bel(b2) then delete(b3) + shared.\n"
+				+ "\t\tif goal-a(g3) then { if true then adopt(g2). }\n"
+				+ "\t}\n" + "}\n");
+		assertTrue(check(agent) > 0);
+	}
+}
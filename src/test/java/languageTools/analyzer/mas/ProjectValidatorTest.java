@@ -0,0 +1,115 @@
+package languageTools.analyzer.mas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import languageTools.analyzer.Validator;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.module.ModuleCache;
+import languageTools.errors.agent.AgentError;
+import languageTools.errors.agent.AgentWarning;
+import languageTools.errors.mas.MASError;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProjectValidatorTest {
+	private static final String WARMUP = "src/main/resources/languageTools/parser/warmup/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Creates a project with two agent files, which import the same module
+	 * file; one of the agent files is referred to twice by different paths.
+	 *
+	 * @return The MAS file of the project.
+	 * @throws IOException
+	 */
+	private File createProject() throws IOException {
+		File root = this.folder.getRoot();
+		Files.copy(new File(WARMUP + "warmup.mod2g").toPath(), new File(root,
+				"warmup.mod2g").toPath());
+		Files.copy(new File(WARMUP + "warmup.goal").toPath(), new File(root,
+				"a.goal").toPath());
+		Files.copy(new File(WARMUP + "warmup.goal").toPath(), new File(root,
+				"b.goal").toPath());
+		File mas = new File(root, "project.mas2g");
+		Files.write(mas.toPath(), ("agentfiles {\n" + "\t\"a.goal\".\n"
+				+ "\t\"./a.goal\" [name = other].\n" + "\t\"b.goal\".\n"
+				+ "}\n" + "launchpolicy {\n" + "\tlaunch a.\n"
+				+ "\tlaunch other.\n" + "\tlaunch b.\n" + "}\n")
+				.getBytes("UTF-8"));
+		return mas;
+	}
+
+	/**
+	 * @return All messages of the validators of the project, as strings.
+	 */
+	private List<String> getResults(ProjectValidator project) {
+		List<String> results = new ArrayList<>();
+		for (Validator<?, ?, ?, ?> validator : project.getValidators()) {
+			results.addAll(ValidatorMessages.getMessages(validator));
+		}
+		return results;
+	}
+
+	@Test
+	public void testFilesValidatedOnce() throws IOException {
+		File mas = createProject();
+		ModuleCache cache = new ModuleCache();
+		ProjectValidator project = new ProjectValidator(mas.getPath());
+		project.setModuleCache(cache);
+		project.validate();
+
+		assertEquals(2, project.getAgentValidators().size());
+		assertTrue(ValidatorMessages.getAll(project.getMASValidator())
+				.isEmpty());
+		for (AgentValidator agent : project.getAgentValidators().values()) {
+			assertEquals(1, ValidatorMessages.count(agent,
+					AgentError.SEND_INVALID_SELECTOR));
+			assertEquals(1, ValidatorMessages.count(agent,
+					AgentWarning.MODULE_ILLEGAL_FOCUS));
+			// The module file imports a file that is not part of the project
+			assertEquals(1, ValidatorMessages.count(agent,
+					AgentError.IMPORT_MISSING_FILE));
+		}
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertTrue(project.report().contains(
+				"PROJECT REPORT: Validated the MAS file and 2 agent file(s)"));
+	}
+
+	@Test
+	public void testConcurrent() throws IOException {
+		File mas = createProject();
+		ProjectValidator sequential = new ProjectValidator(mas.getPath());
+		sequential.validate();
+		ProjectValidator concurrent = new ProjectValidator(mas.getPath());
+		concurrent.setThreads(4);
+		concurrent.validate();
+
+		assertEquals(getResults(sequential), getResults(concurrent));
+		assertEquals(sequential.isValid(), concurrent.isValid());
+	}
+
+	@Test
+	public void testNoAgents() {
+		ProjectValidator project = new ProjectValidator(
+				"src/test/resources/languageTools/analyzer/mas/test_AGENTFILE_COULDNOT_FIND.mas2g");
+		project.validate();
+		assertTrue(project.getAgentValidators().isEmpty());
+		assertEquals(1, ValidatorMessages.count(project.getMASValidator(),
+				MASError.AGENTFILE_COULDNOT_FIND));
+		assertFalse(project.isValid());
+	}
+}
@@ -0,0 +1,164 @@
+package languageTools.analyzer.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import krTools.KRInterface;
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.errors.agent.AgentError;
+import languageTools.errors.agent.AgentWarning;
+import languageTools.program.agent.Module;
+import languageTools.program.agent.actions.ModuleCallAction;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ModuleCacheTest {
+	private static final String AGENT = "src/main/resources/languageTools/parser/warmup/warmup.goal";
+	private static final String MODULE = "src/main/resources/languageTools/parser/warmup/warmup.mod2g";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Validates an agent file.
+	 *
+	 * @param agent
+	 *            The agent file.
+	 * @param cache
+	 *            The module cache to use, if any.
+	 * @return The validator.
+	 * @throws KRInitFailedException
+	 */
+	private AgentValidator validate(String agent, ModuleCache cache)
+			throws KRInitFailedException {
+		AgentValidator validator = new AgentValidator(agent);
+		validator.setKRInterface(KRFactory.getDefaultInterface());
+		validator.setModuleCache(cache);
+		validator.validate();
+		return validator;
+	}
+
+	/**
+	 * Writes a file in the temporary folder.
+	 *
+	 * @return The path of the file.
+	 */
+	private String write(String name, String content) throws IOException {
+		File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file.getPath();
+	}
+
+	/**
+	 * @return An agent file that imports the module shared/1 and specifies an
+	 *         action.
+	 */
+	private String writeAgent(String name, String action) throws IOException {
+		return write(name, "#import \"shared.mod2g\".\n\n" + "main module {\n"
+				+ "\tprogram {\n" + "\t\tif true then shared(a).\n" + "\t}\n"
+				+ "\tactionspec {\n" + "\t\t" + action + "(X) {\n"
+				+ "\t\t\tpre { true }\n" + "\t\t\tpost { true }\n" + "\t\t}\n"
+				+ "\t}\n" + "}\n");
+	}
+
+	/**
+	 * @return The module called by the (only) rule of the main module of the
+	 *         agent.
+	 */
+	private Module getCalled(AgentValidator validator) {
+		Module main = validator.getProgram().getModules().get(0);
+		return ((ModuleCallAction) main.getRules().get(0).getAction()
+				.getActions().get(0)).getTarget();
+	}
+
+	@Test
+	public void testSameResults() throws KRInitFailedException {
+		List<String> expected = ValidatorMessages.getMessages(validate(AGENT,
+				null));
+		ModuleCache cache = new ModuleCache();
+		for (int i = 0; i < 3; i++) {
+			AgentValidator validator = validate(AGENT, cache);
+			assertEquals(expected, ValidatorMessages.getMessages(validator));
+			// The module file imports a file that does not exist
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentError.IMPORT_MISSING_FILE));
+		}
+		assertEquals(1, cache.getMisses());
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	public void testAgentsWithDifferentActions() throws IOException,
+			KRInitFailedException {
+		write("shared.mod2g", "module shared(X) {\n" + "\tprogram {\n"
+				+ "\t\tif true then act(X).\n" + "\t}\n" + "}\n");
+		String a = writeAgent("a.goal", "act");
+		String b = writeAgent("b.goal", "other");
+
+		ModuleCache cache = new ModuleCache();
+		AgentValidator first = validate(a, cache);
+		AgentValidator second = validate(b, cache);
+		AgentValidator third = validate(a, cache);
+		assertEquals(1, cache.getMisses());
+		assertEquals(2, cache.getHits());
+
+		// Every agent resolves its own copy of the module
+		assertNotSame(getCalled(first), getCalled(second));
+		assertNotSame(getCalled(first), getCalled(third));
+
+		assertEquals(ValidatorMessages.getMessages(validate(a, null)),
+				ValidatorMessages.getMessages(first));
+		assertEquals(ValidatorMessages.getMessages(validate(b, null)),
+				ValidatorMessages.getMessages(second));
+		assertEquals(ValidatorMessages.getMessages(first),
+				ValidatorMessages.getMessages(third));
+
+		// The module cannot use the actions of the agents
+		for (AgentValidator validator : new AgentValidator[] { first, second,
+				third }) {
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentError.ACTION_USED_NEVER_DEFINED));
+			assertEquals(1, ValidatorMessages.count(validator,
+					AgentWarning.ACTION_NEVER_USED));
+		}
+		assertTrue(ValidatorMessages.getMessages(second).toString()
+				.contains("Action other/1 is never used"));
+	}
+
+	@Test
+	public void testChangedFile() throws IOException, KRInitFailedException {
+		File module = this.folder.newFile("warmup.mod2g");
+		Files.copy(new File(MODULE).toPath(), module.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		KRInterface kri = KRFactory.getDefaultInterface();
+
+		ModuleCache cache = new ModuleCache();
+		ModuleValidator first = cache.get(module, kri);
+		ModuleValidator second = cache.get(module, kri);
+		// The parse is shared, the module is not
+		assertSame(first.getParseTree(), second.getParseTree());
+		assertNotSame(first.getProgram(), second.getProgram());
+
+		Files.write(module.toPath(),
+				"module other {\n\tprogram {\n\t\tif true then skip.\n\t}\n}\n"
+				.getBytes("UTF-8"));
+		ModuleValidator changed = cache.get(module, kri);
+		assertNotSame(first.getParseTree(), changed.getParseTree());
+		assertEquals("other", changed.getProgram().getName());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+}
@@ -0,0 +1,142 @@
+package languageTools.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.Validator;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.analyzer.mas.MASValidator;
+import languageTools.analyzer.module.ModuleValidator;
+
+import org.antlr.v4.runtime.dfa.DFA;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DFACacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return The number of DFA states of the recognizer.
+	 */
+	private int size(DFA[] dfas) {
+		int size = 0;
+		for (DFA dfa : dfas) {
+			size += dfa.states.size();
+		}
+		return size;
+	}
+
+	@Test
+	public void testWarmUp() throws IOException {
+		DFACache.clear();
+		assertFalse(DFACache.isWarmedUp());
+		assertEquals(0, DFACache.size());
+
+		DFACache.warmUp();
+		assertTrue(DFACache.isWarmedUp());
+		// The corpus covers every lexer and parser
+		for (Map.Entry<String, DFA[]> entry : DFACache.getDFAs().entrySet()) {
+			assertTrue(entry.getKey(), size(entry.getValue()) > 0);
+		}
+
+		// Warming up again has no effect
+		int size = DFACache.size();
+		DFACache.warmUp();
+		assertEquals(size, DFACache.size());
+	}
+
+	/**
+	 * @return The number of DFA states of every lexer and parser.
+	 */
+	private Map<String, Integer> getSizes() {
+		Map<String, Integer> sizes = new LinkedHashMap<>();
+		for (Map.Entry<String, DFA[]> entry : DFACache.getDFAs().entrySet()) {
+			sizes.put(entry.getKey(), size(entry.getValue()));
+		}
+		return sizes;
+	}
+
+	/**
+	 * Validates the agent and MAS test resources and the warm up module.
+	 *
+	 * @return The parse trees and messages of the files, as strings.
+	 */
+	private List<String> validate() throws KRInitFailedException {
+		List<Validator<?, ?, ?, ?>> validators = new ArrayList<>();
+		for (File file : new File(
+				"src/test/resources/languageTools/analyzer/agent").listFiles()) {
+			if (file.getName().endsWith(".goal")) {
+				AgentValidator agent = new AgentValidator(file.getPath());
+				agent.setKRInterface(KRFactory.getDefaultInterface());
+				validators.add(agent);
+			}
+		}
+		for (File file : new File(
+				"src/test/resources/languageTools/analyzer/mas").listFiles()) {
+			if (file.getName().endsWith(".mas2g")) {
+				validators.add(new MASValidator(file.getPath()));
+			}
+		}
+		ModuleValidator module = new ModuleValidator(
+				"src/main/resources/languageTools/parser/warmup/warmup.mod2g");
+		module.setKRInterface(KRFactory.getDefaultInterface());
+		validators.add(module);
+
+		List<String> results = new ArrayList<>();
+		for (Validator<?, ?, ?, ?> validator : validators) {
+			validator.validate();
+			results.add(validator.getFilename());
+			results.add(validator.getParseTree().toStringTree());
+			results.addAll(ValidatorMessages.getMessages(validator));
+		}
+		return results;
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException, KRInitFailedException {
+		DFACache.clear();
+		List<String> expected = validate();
+		Map<String, Integer> sizes = getSizes();
+		int size = DFACache.size();
+		assertTrue(size > 0);
+
+		File file = this.folder.newFile("dfa.cache");
+		DFACache.save(file);
+		DFACache.clear();
+		assertEquals(0, DFACache.size());
+		assertEquals(size, DFACache.load(file));
+		assertEquals(sizes, getSizes());
+
+		// The loaded DFAs give the same parses, without adding states
+		assertEquals(expected, validate());
+		assertEquals(sizes, getSizes());
+	}
+
+	@Test
+	public void testLoadOtherFile() throws IOException {
+		File file = this.folder.newFile("other.cache");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(
+				file))) {
+			out.writeUTF("OTHER");
+			out.writeInt(DFACacheFile.FORMAT_VERSION);
+		}
+		DFACache.clear();
+		assertEquals(0, DFACache.load(file));
+		assertEquals(0, DFACache.size());
+	}
+}
@@ -0,0 +1,40 @@
+package languageTools.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.StringWriter;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.agent.AgentValidator;
+
+import org.junit.Test;
+
+public class DecisionProfileTest {
+	@Test
+	public void testProfile() throws KRInitFailedException {
+		DecisionProfile profile = new DecisionProfile();
+
+		AgentValidator agent = new AgentValidator(
+				"src/test/resources/languageTools/analyzer/agent/test.goal");
+		agent.setKRInterface(KRFactory.getDefaultInterface());
+		agent.setProfile(profile);
+		agent.validate();
+
+		StringWriter writer = new StringWriter();
+		profile.write(writer);
+		String[] lines = writer.toString().split("\\r?\\n");
+		assertEquals(DecisionProfile.HEADER, lines[0]);
+
+		boolean found = false;
+		for (int i = 1; i < lines.length; i++) {
+			String[] columns = lines[i].split(",");
+			assertEquals(lines[i], 13, columns.length);
+			assertTrue(lines[i], Long.parseLong(columns[3]) > 0);
+			found |= columns[0].equals("GOAL.g4")
+					&& columns[2].equals("mentalStateCondition");
+		}
+		assertTrue(found);
+	}
+}
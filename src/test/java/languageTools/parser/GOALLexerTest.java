@@ -0,0 +1,201 @@
+package languageTools.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.ANTLRFileStream;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+
+public class GOALLexerTest {
+	/**
+	 * Tokens of the agent, module and test files used in the tests, as
+	 * produced by the lexer before the 'not' operator used a lexer mode instead
+	 * of a semantic predicate on PARLIST tokens.
+	 */
+	private static final String EXPECTED = "src/test/resources/languageTools/parser/GOALLexer.tokens";
+
+	/**
+	 * Reads the expected tokens.
+	 *
+	 * @return The (formatted) tokens by file name.
+	 * @throws IOException
+	 */
+	private Map<String, List<String>> readExpected() throws IOException {
+		Map<String, List<String>> expected = new LinkedHashMap<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(EXPECTED), "UTF-8"))) {
+			List<String> tokens = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("== ")) {
+					tokens = new ArrayList<>();
+					expected.put(line.substring(3), tokens);
+				} else {
+					tokens.add(line);
+				}
+			}
+		}
+		return expected;
+	}
+
+	/**
+	 * @return The tokens of a stream, formatted as in the expected tokens.
+	 */
+	private List<String> lex(CharStream stream) {
+		GOALLexer lexer = new GOALLexer(stream);
+		lexer.removeErrorListeners();
+		List<String> tokens = new ArrayList<>();
+		for (Token token : lexer.getAllTokens()) {
+			String text = token.getText().replace("\\", "\\\\")
+					.replace("\n", "\\n").replace("\r", "\\r")
+					.replace("\t", "\\t");
+			tokens.add(GOALLexer.VOCABULARY.getSymbolicName(token.getType())
+					+ " " + token.getChannel() + " " + token.getStartIndex()
+					+ ":" + token.getStopIndex() + " " + token.getLine() + ":"
+					+ token.getCharPositionInLine() + " " + text);
+		}
+		return tokens;
+	}
+
+	/**
+	 * @return The types of the tokens on the default channel.
+	 */
+	private List<Integer> types(String content) {
+		GOALLexer lexer = new GOALLexer(new ANTLRInputStream(content));
+		lexer.removeErrorListeners();
+		List<Integer> types = new ArrayList<>();
+		for (Token token : lexer.getAllTokens()) {
+			if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+				types.add(token.getType());
+			}
+		}
+		return types;
+	}
+
+	@Test
+	public void testSameTokens() throws IOException {
+		for (Map.Entry<String, List<String>> file : readExpected().entrySet()) {
+			assertEquals(file.getKey(), file.getValue(),
+					lex(new ANTLRFileStream(file.getKey(), "UTF-8")));
+		}
+	}
+
+	@Test
+	public void testNot() {
+		// The bracket after not does not start a parameter list
+		assertEquals(Arrays.asList(GOALLexer.NOT, GOALLexer.LBR,
+				GOALLexer.BELIEF_OP, GOALLexer.PARLIST, GOALLexer.RBR),
+				types("not /* comment */ (bel(p(X)))"));
+
+		// Brackets after that one do
+		assertEquals(Arrays.asList(GOALLexer.NOT, GOALLexer.LBR,
+				GOALLexer.PARLIST, GOALLexer.DOT, GOALLexer.BELIEF_OP,
+				GOALLexer.PARLIST, GOALLexer.RBR), types("not((A).bel(p))"));
+	}
+
+	@Test
+	public void testReactTo() {
+		assertEquals(Arrays.asList(GOALLexer.REACTTO, GOALLexer.LBR,
+				GOALLexer.ID, GOALLexer.PARLIST, GOALLexer.COMMA,
+				GOALLexer.DO, GOALLexer.PARLIST, GOALLexer.RBR),
+				types("reactTo(m(X), do(a))"));
+	}
+
+	@Test
+	public void testQuotesAndComments() {
+		// Brackets in quoted atoms, strings, character codes and comments
+		assertEquals(Arrays.asList(GOALLexer.BELIEF_OP, GOALLexer.PARLIST),
+				types("bel(p(')', \"(\", 'it''s (', 0'(, 0'\\), 0''', "
+						+ "/* ) */ q % )\n))"));
+
+		// An unclosed quote is not a quote
+		assertEquals(Arrays.asList(GOALLexer.BELIEF_OP, GOALLexer.PARLIST),
+				types("bel(don't(know))"));
+
+		// An unmatched bracket is just a bracket
+		assertEquals(Arrays.asList(GOALLexer.BELIEF_OP, GOALLexer.LBR,
+				GOALLexer.PARLIST), types("bel((p)"));
+	}
+
+	@Test
+	public void testQuoteAfterBracket() {
+		// The opening bracket is not a digit of a character code
+		assertEquals(Arrays.asList(GOALLexer.BELIEFS, GOALLexer.KR_BLOCK),
+				types("beliefs {'}'}"));
+		assertEquals(Arrays.asList(GOALLexer.BELIEF_OP, GOALLexer.PARLIST),
+				types("bel(')')"));
+	}
+
+	@Test
+	public void testUnmatchedKRBlock() {
+		GOALLexer lexer = new GOALLexer(new ANTLRInputStream(
+				"beliefs { p.\nbel(x)"));
+		lexer.removeErrorListeners();
+		final List<String> errors = new ArrayList<>();
+		lexer.addErrorListener(new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer,
+					Object offendingSymbol, int line, int charPositionInLine,
+					String msg, RecognitionException e) {
+				errors.add(line + ":" + charPositionInLine + " " + msg);
+			}
+		});
+		List<? extends Token> tokens = lexer.getAllTokens();
+
+		// Only the bracket is reported, the lexer continues after it
+		assertEquals(Arrays.asList("1:8 token recognition error at: '{'"),
+				errors);
+		List<Token> visible = new ArrayList<>();
+		List<Integer> types = new ArrayList<>();
+		for (Token token : tokens) {
+			if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+				visible.add(token);
+				types.add(token.getType());
+			}
+		}
+		assertEquals(Arrays.asList(GOALLexer.BELIEFS, GOALLexer.ID,
+				GOALLexer.DOT, GOALLexer.BELIEF_OP, GOALLexer.PARLIST), types);
+		Token p = visible.get(1);
+		assertEquals("p", p.getText());
+		assertEquals(1, p.getLine());
+		assertEquals(10, p.getCharPositionInLine());
+		assertEquals(2, visible.get(3).getLine());
+	}
+
+	@Test(timeout = 30000)
+	public void testDeepNesting() {
+		int depth = 1000000;
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			term.append("f(");
+		}
+		for (int i = 0; i < depth; i++) {
+			term.append(')');
+		}
+
+		GOALLexer lexer = new GOALLexer(new ANTLRInputStream("bel(" + term
+				+ ")\nbeliefs { p(" + term + ").\n}\nbel(x)"));
+		List<? extends Token> tokens = lexer.getAllTokens();
+		assertEquals(9, tokens.size());
+		assertEquals(GOALLexer.PARLIST, tokens.get(1).getType());
+		assertEquals(term.length() + 2, tokens.get(1).getText().length());
+		assertEquals(GOALLexer.KR_BLOCK, tokens.get(5).getType());
+		assertEquals(term.length() + 8, tokens.get(5).getText().length());
+		assertEquals(4, tokens.get(7).getLine());
+	}
+}
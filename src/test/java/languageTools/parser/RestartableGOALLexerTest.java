@@ -0,0 +1,107 @@
+package languageTools.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import languageTools.parser.RestartableGOALLexer.Checkpoint;
+
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+
+public class RestartableGOALLexerTest {
+	private static final String AGENTS = "src/test/resources/languageTools/analyzer/agent";
+
+	/**
+	 * Text that is inserted by the random edits; most of it changes the mode
+	 * of the lexer or the number of lines.
+	 */
+	private static final String[] INSERTIONS = { "\n", " ", "{", "}", "(",
+		")", "[", "]", ".", "%", "% comment\n", "/*", "*/", "\"", "'",
+		"module m {\n", "if bel(p(X)) then insert(q).\n", "not(", "#import",
+		"actionspec", "\\+", "X", "!" };
+
+	/**
+	 * @return The (formatted) tokens.
+	 */
+	private List<String> format(List<Token> tokens) {
+		List<String> formatted = new ArrayList<>(tokens.size());
+		for (Token token : tokens) {
+			formatted.add(token.getType() + " " + token.getChannel() + " "
+					+ token.getTokenIndex() + " " + token.getStartIndex() + ":"
+					+ token.getStopIndex() + " " + token.getLine() + ":"
+					+ token.getCharPositionInLine() + " " + token.getText());
+		}
+		return formatted;
+	}
+
+	/**
+	 * Checks that the tokens and checkpoints after an edit are those of
+	 * tokenizing the content from scratch.
+	 */
+	private void check(RestartableGOALLexer lexer, String edit) {
+		RestartableGOALLexer fresh = new RestartableGOALLexer(
+				lexer.getContent());
+		assertEquals(edit, format(fresh.getTokens()),
+				format(lexer.getTokens()));
+
+		List<Checkpoint> expected = fresh.getCheckpoints();
+		List<Checkpoint> actual = lexer.getCheckpoints();
+		assertEquals(edit, expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Checkpoint e = expected.get(i);
+			Checkpoint a = actual.get(i);
+			String message = edit + ", checkpoint " + i;
+			assertEquals(message, e.getCharIndex(), a.getCharIndex());
+			assertEquals(message, e.getLine(), a.getLine());
+			assertEquals(message, e.getTokenIndex(), a.getTokenIndex());
+			assertEquals(message, e.getMode(), a.getMode());
+			assertArrayEquals(message, e.getModeStack(), a.getModeStack());
+			assertEquals(message, e.getDepth(), a.getDepth());
+		}
+	}
+
+	@Test
+	public void testRandomEdits() throws IOException {
+		Random random = new Random(42);
+		for (File file : new File(AGENTS).listFiles()) {
+			if (!file.getName().endsWith(".goal")) {
+				continue;
+			}
+			RestartableGOALLexer lexer = new RestartableGOALLexer(new String(
+					Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			for (int i = 0; i < 50; i++) {
+				String content = lexer.getContent();
+				int offset = random.nextInt(content.length() + 1);
+				int length = random.nextInt(Math.min(10,
+						content.length() - offset) + 1);
+				String replacement = random.nextInt(4) == 0 ? ""
+						: INSERTIONS[random.nextInt(INSERTIONS.length)];
+				lexer.update(offset, length, replacement);
+				check(lexer, file.getName() + ": " + i + " (" + offset + ", "
+						+ length + ", '" + replacement + "')");
+			}
+		}
+	}
+
+	@Test
+	public void testTokensNotChanged() {
+		RestartableGOALLexer lexer = new RestartableGOALLexer(
+				"main module {\n\tprogram {\n\t\tif true then skip.\n\t}\n}\n");
+		List<Token> before = lexer.getTokens();
+		List<String> formatted = format(before);
+		lexer.update(0, 0, "\n\n");
+		// Tokens that were returned before the edit are still those of the
+		// content before the edit
+		assertEquals(formatted, format(before));
+		assertEquals(before.get(before.size() - 1).getStartIndex() + 2, lexer
+				.getTokens().get(lexer.getTokens().size() - 1).getStartIndex());
+	}
+}
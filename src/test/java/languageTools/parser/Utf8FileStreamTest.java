@@ -0,0 +1,175 @@
+package languageTools.parser;
+
+import static org.junit.Assert.assertEquals;
+import goalhub.krTools.KRFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import krTools.errors.exceptions.KRInitFailedException;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.analyzer.agent.AgentValidator;
+
+import org.antlr.v4.runtime.ANTLRFileStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Utf8FileStreamTest {
+	/**
+	 * Characters of one, two, three and four (a surrogate pair) bytes.
+	 */
+	private static final String MIXED = "aé€😀";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(byte[] content) throws IOException {
+		File file = this.folder.newFile();
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+	/**
+	 * @return All characters of the reader, read a few at a time.
+	 */
+	private String read(Reader reader, int bufferSize) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		char[] buffer = new char[bufferSize];
+		int n;
+		while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+			builder.append(buffer, 0, n);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Checks that the stream for a file has the same characters as the
+	 * stream that was used to read files before.
+	 */
+	private void check(byte[] content) throws IOException {
+		File file = write(content);
+		Utf8FileStream stream = new Utf8FileStream(file.getPath());
+		ANTLRFileStream expected = new ANTLRFileStream(file.getPath(), "UTF-8");
+		String text = new String(content, StandardCharsets.UTF_8);
+
+		assertEquals(expected.size(), stream.size());
+		assertEquals(text, stream.toString());
+		assertEquals(text,
+				stream.getText(Interval.of(0, stream.size() - 1)));
+		for (int i = 0; i < stream.size(); i++) {
+			assertEquals(expected.LA(1), stream.LA(1));
+			expected.consume();
+			stream.consume();
+		}
+		assertEquals(IntStream.EOF, stream.LA(1));
+
+		// The reader splits surrogate pairs over reads of odd sizes
+		try (Reader reader = Utf8FileStream.newReader(file)) {
+			assertEquals(text, read(reader, 3));
+		}
+		try (Reader reader = Utf8FileStream.newReader(file)) {
+			assertEquals(text, read(reader, 4096));
+		}
+	}
+
+	/**
+	 * @return A UTF-8 encoding of at least a number of bytes, in which the
+	 *         characters of different sizes cross every possible position.
+	 */
+	private byte[] encode(String characters, int length) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 16);
+		byte[] mixed = characters.getBytes(StandardCharsets.UTF_8);
+		while (bytes.size() < length) {
+			bytes.write(mixed, 0, mixed.length);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		check(new byte[0]);
+		Utf8FileStream stream = new Utf8FileStream(write(new byte[0])
+				.getPath());
+		assertEquals(0, stream.size());
+		assertEquals(IntStream.EOF, stream.LA(1));
+		assertEquals("", stream.getText(Interval.of(0, 0)));
+		try (Reader reader = Utf8FileStream.newReader(write(new byte[0]))) {
+			assertEquals(-1, reader.read());
+		}
+	}
+
+	@Test
+	public void testAscii() throws IOException {
+		// Files just below and above the size that is read at once
+		int window = Utf8FileStream.WINDOW;
+		for (int length = window - 2; length <= window + 2; length++) {
+			check(Arrays.copyOf(encode("main.\n", length), length));
+		}
+	}
+
+	@Test
+	public void testByteOrderMark() throws IOException {
+		byte[] bom = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+		byte[] text = "main module {\n}\n".getBytes(StandardCharsets.UTF_8);
+		byte[] content = new byte[bom.length + text.length];
+		System.arraycopy(bom, 0, content, 0, bom.length);
+		System.arraycopy(text, 0, content, bom.length, text.length);
+		check(content);
+
+		// The mark is kept, as it was by the ANTLR file stream
+		assertEquals(0xFEFF,
+				new Utf8FileStream(write(content).getPath()).LA(1));
+	}
+
+	@Test
+	public void testMultiByteCharacters() throws IOException {
+		check(MIXED.getBytes(StandardCharsets.UTF_8));
+		// Files just below and above the size that is read at once, with
+		// characters crossing that size
+		int window = Utf8FileStream.WINDOW;
+		for (int length = window - 10; length <= window + 10; length++) {
+			byte[] content = encode(MIXED, length);
+			check(content);
+		}
+	}
+
+	@Test
+	public void testMalformedInput() throws IOException {
+		// A truncated euro sign and a lone continuation byte
+		check(new byte[] { 'a', (byte) 0xE2, (byte) 0x82, 'b', (byte) 0x80,
+				'c' });
+	}
+
+	@Test
+	public void testSameMessages() throws IOException, KRInitFailedException {
+		File directory = new File(
+				"src/test/resources/languageTools/analyzer/agent");
+		for (File file : directory.listFiles()) {
+			if (!file.getName().endsWith(".goal")) {
+				continue;
+			}
+			AgentValidator mapped = new AgentValidator(file.getPath());
+			mapped.setKRInterface(KRFactory.getDefaultInterface());
+			mapped.validate();
+
+			// The content decoded as a string, as if it had been edited
+			AgentValidator decoded = new AgentValidator(file.getPath());
+			decoded.setKRInterface(KRFactory.getDefaultInterface());
+			decoded.override(new String(Files.readAllBytes(file.toPath()),
+					StandardCharsets.UTF_8));
+			decoded.validate();
+
+			assertEquals(file.getName(),
+					ValidatorMessages.getMessages(decoded),
+					ValidatorMessages.getMessages(mapped));
+		}
+	}
+}
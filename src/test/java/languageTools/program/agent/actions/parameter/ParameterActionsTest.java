@@ -0,0 +1,175 @@
+package languageTools.program.agent.actions.parameter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import goalhub.krTools.KRFactory;
+
+import java.io.File;
+import java.io.StringReader;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import krTools.KRInterface;
+import krTools.language.Substitution;
+import krTools.language.Term;
+import krTools.language.Var;
+import krTools.parser.SourceInfo;
+import languageTools.analyzer.ValidatorMessages;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.parser.GOAL;
+import languageTools.parser.InputStreamPosition;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.actions.Action;
+import languageTools.program.agent.actions.ParameterAction;
+
+import org.junit.Test;
+
+public class ParameterActionsTest {
+	private static final String PACKAGE = "languageTools/program/agent/actions/parameter";
+
+	private final SourceInfo info = new InputStreamPosition(1, 0, 0, 10,
+			new File("test.goal"));
+
+	/**
+	 * A parameter action that is not registered in {@link ParameterActions}.
+	 */
+	private static class UnregisteredAction extends ParameterAction {
+		UnregisteredAction(List<Term> parameters, SourceInfo info,
+				KRInterface kri) {
+			super(GOAL.PRINT, parameters, info, kri);
+		}
+
+		@Override
+		protected ParameterAction create(List<Term> parameters) {
+			return new UnregisteredAction(parameters, getSourceInfo(),
+					getKRInterface());
+		}
+	}
+
+	private List<Term> parse(KRInterface kri, String terms) throws Exception {
+		return kri.getParser(new StringReader(terms), this.info).parseTerms();
+	}
+
+	/**
+	 * Finds the parameter actions the way the validator used to: by looking
+	 * for the (annotated) subclasses of {@link ParameterAction} in this
+	 * package.
+	 *
+	 * @return The classes of the parameter actions, by the name of their
+	 *         action token.
+	 */
+	private Map<String, Class<?>> scan() throws ClassNotFoundException,
+			URISyntaxException {
+		File directory = new File(ParameterAction.class.getClassLoader()
+				.getResource(PACKAGE).toURI());
+		Map<String, Class<?>> actions = new HashMap<>();
+		for (String name : directory.list()) {
+			if (!name.endsWith(".class")) {
+				continue;
+			}
+			Class<?> type = Class.forName(PACKAGE.replace('/', '.') + "."
+					+ name.substring(0, name.length() - ".class".length()));
+			ActionToken token = type.getAnnotation(ActionToken.class);
+			if (token != null && ParameterAction.class.isAssignableFrom(type)
+					&& !Modifier.isAbstract(type.getModifiers())) {
+				actions.put(AgentProgram.getTokenName(token.value()), type);
+			}
+		}
+		return actions;
+	}
+
+	@Test
+	public void testAllActionsRegistered() throws Exception {
+		KRInterface kri = KRFactory.getDefaultInterface();
+		Map<String, Class<?>> expected = scan();
+		assertTrue(expected.containsKey("calculate"));
+		assertEquals(expected.keySet(), ParameterActions.getAll().keySet());
+
+		for (Map.Entry<String, Class<?>> action : expected.entrySet()) {
+			ParameterAction created = ParameterActions.get(action.getKey())
+					.create(parse(kri, "1, X"), this.info, kri);
+			assertSame(action.getValue(), created.getClass());
+			assertEquals(action.getKey(), created.getName());
+		}
+		assertNull(ParameterActions.get("insert"));
+	}
+
+	@Test
+	public void testSameAsReflection() throws Exception {
+		KRInterface kri = KRFactory.getDefaultInterface();
+		for (Class<?> type : scan().values()) {
+			List<Term> parameters = parse(kri, "1, \"plus\", X, Y");
+			ParameterAction created = ParameterActions.get(
+					AgentProgram.getTokenName(type.getAnnotation(
+							ActionToken.class).value())).create(parameters,
+									this.info, kri);
+			// How the validator and substitutions used to create the action
+			ParameterAction reflected = (ParameterAction) type
+					.getDeclaredConstructor(List.class, SourceInfo.class,
+							KRInterface.class).newInstance(parameters,
+									this.info, kri);
+
+			assertEquals(reflected, created);
+			assertEquals(reflected.toString(), created.toString());
+			assertEquals(reflected.getParameters(), created.getParameters());
+			assertSame(this.info, created.getSourceInfo());
+			assertSame(kri, created.getKRInterface());
+		}
+	}
+
+	@Test
+	public void testApplySubst() throws Exception {
+		KRInterface kri = KRFactory.getDefaultInterface();
+		CalculateAction action = new CalculateAction(parse(kri,
+				"1, \"plus\", X, Y"), this.info, kri);
+		Var x = kri.getParser(new StringReader("X"), this.info).parseVar();
+		Map<Var, Term> bindings = new HashMap<>();
+		bindings.put(x, parse(kri, "2").get(0));
+		Substitution substitution = kri.getSubstitution(bindings);
+
+		ParameterAction applied = action.applySubst(substitution);
+		assertNotSame(action, applied);
+		assertSame(CalculateAction.class, applied.getClass());
+		assertEquals(new CalculateAction(parse(kri, "1, \"plus\", 2, Y"),
+				this.info, kri), applied);
+		assertSame(this.info, applied.getSourceInfo());
+		// The action itself is not changed
+		assertEquals(parse(kri, "1, \"plus\", X, Y"), action.getParameters());
+	}
+
+	@Test
+	public void testApplySubstUnregistered() throws Exception {
+		KRInterface kri = KRFactory.getDefaultInterface();
+		ParameterAction action = new UnregisteredAction(parse(kri, "X"),
+				this.info, kri);
+		assertNull(ParameterActions.get(action.getName()));
+
+		ParameterAction applied = action.applySubst(kri
+				.getSubstitution(new HashMap<Var, Term>()));
+		assertSame(UnregisteredAction.class, applied.getClass());
+		assertEquals(action, applied);
+	}
+
+	@Test
+	public void testValidatedAction() throws Exception {
+		AgentValidator validator = new AgentValidator(
+				"src/test/resources/languageTools/analyzer/agent/test_calculator.goal");
+		validator.setKRInterface(KRFactory.getDefaultInterface());
+		validator.validate();
+		assertTrue(ValidatorMessages.getMessages(validator).isEmpty());
+
+		// The action of the rule in the main module
+		Action<?> action = validator.getProgram().getModules().get(1)
+				.getRules().get(0).getAction().getActions().get(0);
+		assertNotNull(action);
+		assertSame(CalculateAction.class, action.getClass());
+		assertEquals(4, action.getParameters().size());
+	}
+}